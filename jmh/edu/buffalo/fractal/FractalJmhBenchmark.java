@@ -0,0 +1,402 @@
+package edu.buffalo.fractal;
+
+import java.awt.Dimension;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks measuring the speed of the program's expensive operations so that optimizations can be evaluated: each
+ * formula's kernel on a single thread, complete frames computed by {@link BatchRenderer} with several numbers of
+ * threads, complete frames generated end to end by {@link ComputePool} in each execution mode, coloring a completed
+ * fractal, and building each color model. Throughput
+ * is reported per microsecond, so the <code>pixels</code> and <code>iterations</code> counters JMH prints alongside each
+ * result read directly as millions of pixels and iterations per second. Build and run them with:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar [-p size=1024] [-p iterations=1000]
+ * </pre>
+ *
+ * @author Matthew Hertz
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FractalJmhBenchmark {
+
+  /**
+   * Counts of the work performed, which JMH reports at the same rate as the benchmark's throughput.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Work {
+    /** Number of pixels processed. */
+    public long pixels;
+
+    /** Number of iterations performed computing escape times. */
+    public long iterations;
+
+    /**
+     * Start counting again for each measurement iteration.
+     */
+    @Setup(Level.Iteration)
+    public void clear() {
+      pixels = 0;
+      iterations = 0;
+    }
+  }
+
+  /**
+   * Settings shared by every benchmark's fractal.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public abstract static class Settings {
+    /** Number of pixels along each side of the fractals computed. */
+    @Param("1024")
+    public int size;
+
+    /** Iteration limit of the fractals computed. */
+    @Param("1000")
+    public int iterations;
+
+    /**
+     * @return the settings of the Mandelbrot set's default view using this benchmark's size and limit
+     */
+    protected RenderRequest mandelbrot() {
+      return RenderRequest.defaultView(FractalOption.Mandelbrot, size, size, iterations,
+                                       RenderRequest.DEFAULT_ESCAPE_VALUE);
+    }
+  }
+
+  /**
+   * Fractal computed by a single kernel.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public static class KernelState extends Settings {
+    /** Name of the formula computed. */
+    @Param({ "Mandelbrot", "JuliaSet", "BurningShip", "Multibrot" })
+    public String formula;
+
+    /** Settings of the formula's default view. */
+    private RenderRequest request;
+
+    /**
+     * Look up the formula.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+      request = RenderRequest.defaultView(FractalOption.valueOf(formula), size, size, iterations,
+                                          RenderRequest.DEFAULT_ESCAPE_VALUE);
+    }
+  }
+
+  /**
+   * Renderers computing complete frames.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public static class FrameState extends Settings {
+    /** Number of threads computing each frame, or most computing at once when each tile has its own thread. */
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    /** Settings of the frame. */
+    private RenderRequest request;
+
+    /** Image into which each frame is colored. */
+    private FractalRaster raster;
+
+    /** Renderer using a fixed pool of threads. */
+    private BatchRenderer renderer;
+
+    /** Renderer using a (virtual) thread for each tile. */
+    private BatchRenderer perTileRenderer;
+
+    /**
+     * Create the renderers.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+      request = mandelbrot();
+      raster = FractalRaster.create(size, size, BatchRenderer.createColorModel("Rainbow", iterations));
+      renderer = new BatchRenderer(threads);
+      perTileRenderer = BatchRenderer.withThreadPerTile(threads);
+    }
+
+    /**
+     * Shut down the renderers.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      renderer.shutdown();
+      perTileRenderer.shutdown();
+    }
+  }
+
+  /**
+   * Pool generating frames as the interactive program does.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public static class PoolState extends Settings {
+    /** Way the pool executes its workers. */
+    @Param({ "SWING_WORKER", "THREAD_PER_TILE" })
+    public ComputePool.ExecutionMode mode;
+
+    /** Settings of the frame. */
+    private RenderRequest request;
+
+    /** Pool generating the frames. */
+    private ComputePool pool;
+
+    /**
+     * Create the pool.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+      System.setProperty("java.awt.headless", "true");
+      request = mandelbrot();
+      pool = createPool(size, iterations);
+    }
+  }
+
+  /**
+   * Completed fractal which is colored.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public static class ColoringState extends Settings {
+    /** Image into which the fractal is colored. */
+    private FractalRaster raster;
+
+    /** Escape times of the fractal. */
+    private EscapeBuffer escapes;
+
+    /**
+     * Compute the fractal.
+     *
+     * @throws Exception Thrown if the fractal could not be computed.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+      raster = FractalRaster.create(size, size, BatchRenderer.createColorModel("Rainbow", iterations));
+      BatchRenderer renderer = new BatchRenderer(Runtime.getRuntime().availableProcessors());
+      try {
+        escapes = renderer.compute(mandelbrot(), null);
+      } finally {
+        renderer.shutdown();
+      }
+    }
+
+    /**
+     * Free the fractal.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      escapes.release();
+    }
+  }
+
+  /**
+   * Color model which is built.
+   *
+   * @author Matthew Hertz
+   */
+  @State(Scope.Benchmark)
+  public static class ColorModelState extends Settings {
+    /** Name of the palette. */
+    @Param({ "Rainbow", "Grays", "Blues" })
+    public String palette;
+  }
+
+  /**
+   * Count the iterations performed to compute a fractal. Each pixel's escape time is the number of iterations
+   * performed for that pixel.
+   *
+   * @param escapes Buffer holding the fractal's escape times.
+   * @return Total number of iterations performed.
+   */
+  private static long countIterations(EscapeBuffer escapes) {
+    long retVal = 0;
+    int pixels = escapes.getRows() * escapes.getColumns();
+    for (int idx = 0; idx < pixels; idx++ ) {
+      retVal += escapes.get(idx);
+    }
+    return retVal;
+  }
+
+  /**
+   * Create a pool, displaying into a panel which is never shown, for generating frames of the given size.
+   *
+   * @param sideLength Number of pixels along each side of the frames.
+   * @param iterations Iteration limit of the frames.
+   * @return New pool ready to generate frames.
+   */
+  private static ComputePool createPool(int sideLength, int iterations) {
+    ComputePool retVal = new ComputePool();
+    retVal.changePanel(new FractalPanel(new Dimension(sideLength, sideLength),
+                                        BatchRenderer.createColorModel("Rainbow", iterations)));
+    return retVal;
+  }
+
+  /**
+   * Generate a frame using the given pool and wait until every tile has been reported to the event dispatch thread.
+   *
+   * @param pool Pool generating the frame; its previous frame is discarded.
+   * @param mode Way in which the pool executes the workers.
+   * @param request Settings of the frame.
+   * @return Number of iterations performed.
+   * @throws InvocationTargetException Thrown if the pool failed on the event dispatch thread.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for the frame.
+   */
+  private static long generateFrame(final ComputePool pool, final ComputePool.ExecutionMode mode,
+                                    final RenderRequest request)
+      throws InvocationTargetException, InterruptedException {
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        pool.clearPool();
+        pool.setExecutionMode(mode);
+        pool.generateFractal(request);
+      }
+    });
+    final long[] iterations = { -1 };
+    while (iterations[0] < 0) {
+      // The pool is only consulted on the event dispatch thread, where its workers report their results.
+      SwingUtilities.invokeAndWait(new Runnable() {
+        @Override
+        public void run() {
+          if (pool.isComplete()) {
+            iterations[0] = pool.getFrameMetrics().getIterations();
+          }
+        }
+      });
+      if (iterations[0] < 0) {
+        Thread.sleep(1);
+      }
+    }
+    return iterations[0];
+  }
+
+  /**
+   * Compute the formula's default view on a single thread.
+   *
+   * @param state Fractal being computed.
+   * @param work Counts of the work performed.
+   */
+  @Benchmark
+  public void kernel(KernelState state, Work work) {
+    EscapeBuffer escapes = EscapeBuffer.create(state.size, state.size, state.iterations);
+    try {
+      ComputeFractal kernel = ComputeFractal.create(state.request);
+      kernel.setTile(0, state.size, 0, state.size);
+      kernel.setBuffer(escapes);
+      kernel.doInBackground().release();
+      work.pixels += (long) state.size * state.size;
+      work.iterations += countIterations(escapes);
+    } finally {
+      escapes.release();
+    }
+  }
+
+  /**
+   * Compute and color a complete frame using the given number of threads.
+   *
+   * @param state Renderers computing the frame.
+   * @param work Counts of the work performed.
+   * @throws Exception Thrown if the frame could not be computed.
+   */
+  @Benchmark
+  public void frame(FrameState state, Work work) throws Exception {
+    EscapeBuffer escapes = state.renderer.compute(state.request, state.raster);
+    try {
+      work.pixels += (long) state.size * state.size;
+      work.iterations += countIterations(escapes);
+    } finally {
+      escapes.release();
+    }
+  }
+
+  /**
+   * Compute and color a complete frame using a (virtual) thread for each tile, with at most the given number computing
+   * at once.
+   *
+   * @param state Renderers computing the frame.
+   * @param work Counts of the work performed.
+   * @throws Exception Thrown if the frame could not be computed.
+   */
+  @Benchmark
+  public void framePerTile(FrameState state, Work work) throws Exception {
+    EscapeBuffer escapes = state.perTileRenderer.compute(state.request, state.raster);
+    try {
+      work.pixels += (long) state.size * state.size;
+      work.iterations += countIterations(escapes);
+    } finally {
+      escapes.release();
+    }
+  }
+
+  /**
+   * Generate a complete frame through the pool, until every tile has been reported to the event dispatch thread.
+   *
+   * @param state Pool generating the frame.
+   * @param work Counts of the work performed.
+   * @throws Exception Thrown if the frame could not be generated.
+   */
+  @Benchmark
+  public void computePool(PoolState state, Work work) throws Exception {
+    work.iterations += generateFrame(state.pool, state.mode, state.request);
+    work.pixels += (long) state.size * state.size;
+  }
+
+  /**
+   * Color the completed fractal from its escape times.
+   *
+   * @param state Fractal being colored.
+   * @param work Counts of the work performed.
+   */
+  @Benchmark
+  public void coloring(ColoringState state, Work work) {
+    state.raster.colorAll(state.escapes, state.iterations);
+    work.pixels += (long) state.size * state.size;
+  }
+
+  /**
+   * Build the color model.
+   *
+   * @param state Name of the palette built.
+   * @return Color model which was built, so JMH does not discard the work.
+   */
+  @Benchmark
+  public Object colorModel(ColorModelState state) {
+    return BatchRenderer.createColorModel(state.palette, state.iterations);
+  }
+}
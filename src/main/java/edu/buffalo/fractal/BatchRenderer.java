@@ -0,0 +1,508 @@
+package edu.buffalo.fractal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command-line program which renders fractals to image files without a display. This uses the same kernels and tiling
+ * as the interactive program, but runs the tiles on a fixed pool of threads (one per core by default) rather than
+ * through Swing, so it can be used on servers without a display. Each job is given as a series of options:
+ *
+ * <pre>
+ * --formula=Mandelbrot --bounds=-2.15,-1.3,0.6,1.3 --size=2048x2048 --iterations=255 --escape=2
+ * --palette=Rainbow --format=PNG --output=mandelbrot
+ * </pre>
+ *
+ * Only the output option is required; the others default to the interactive program's settings. Besides the built-in
+ * fractals, the formula may be written out, such as <code>--formula=z^4+c</code> (see {@link FormulaCompiler}). Adding
+ * <code>--escapes=file</code> also saves the fractal's escape times as an {@link EscapeMap}, while
+ * <code>--load=file</code> recolors the escape times saved in an escape map instead of computing a fractal (an escape
+ * map of a written-out formula must be loaded with the same formula option). Adding <code>--antialias=n</code> smooths
+ * the image by averaging n&times;n samples for each pixel along the fractal's edges (see {@link EdgeSupersampler}).
+ * Rather than options, the program can instead be given <code>--jobs=file</code>, in which case each line of the file
+ * holds the options for one job. The <code>--threads=n</code> option sets the number of threads used.
+ *
+ * @author Matthew Hertz
+ */
+public class BatchRenderer {
+
+  /** Number of tiles along each side of the fractal. Using more tiles than threads helps keep every thread busy. */
+  private static final int TILES_PER_SIDE = 16;
+
+  /** Number of tiles along each side of the fractal when each tile runs on its own virtual thread. */
+  private static final int FINE_TILES_PER_SIDE = 32;
+
+  /** Size, in pixels, of each side of the fractal unless the job specifies otherwise. */
+  static final int DEFAULT_SIZE = 2048;
+
+  /**
+   * Most pixels computed at once when streaming an image to disk. Each strip's escape times stay on the heap, so their
+   * storage is recycled from one strip to the next.
+   */
+  private static final int STRIP_PIXELS = 1 << 23;
+
+  /** Threads on which the tiles are computed. */
+  private final ExecutorService threads;
+
+  /** Limits the number of tiles computing at once when each runs on its own thread; null when using a fixed pool. */
+  private final Semaphore permits;
+
+  /** Number of tiles along each side of the fractal. */
+  private final int tilesPerSide;
+
+  /** Most threads computing at once; also used when supersampling the edges of an image. */
+  private final int parallelism;
+
+  /** Thread which encodes each strip of a streamed image while the next strip is being computed. */
+  private final ExecutorService encoder;
+
+  /**
+   * Create a new renderer which computes tiles using the given number of threads.
+   *
+   * @param numThreads Number of threads to use.
+   */
+  public BatchRenderer(int numThreads) {
+    threads = Executors.newFixedThreadPool(numThreads);
+    encoder = Executors.newSingleThreadExecutor();
+    permits = null;
+    tilesPerSide = TILES_PER_SIDE;
+    parallelism = numThreads;
+  }
+
+  /**
+   * Create a new renderer which runs each tile on its own thread, using virtual threads when the runtime supports them.
+   *
+   * @param maxConcurrent Most tiles computed at once.
+   * @param fineTiles Unused; distinguishes this constructor from the one using a fixed pool of threads.
+   */
+  private BatchRenderer(int maxConcurrent, boolean fineTiles) {
+    threads = VirtualThreads.perTaskExecutor();
+    encoder = Executors.newSingleThreadExecutor();
+    permits = new Semaphore(maxConcurrent);
+    // Without virtual threads the tiles share a pool of platform threads, for which fine tiles only add overhead.
+    tilesPerSide = VirtualThreads.isAvailable() ? FINE_TILES_PER_SIDE : TILES_PER_SIDE;
+    parallelism = maxConcurrent;
+  }
+
+  /**
+   * Create a new renderer which splits each fractal into many small tiles and runs each tile on its own virtual thread.
+   * When virtual threads are not supported, the tiles are as coarse as usual and share a pool of platform threads.
+   *
+   * @param maxConcurrent Most tiles computed at once; this is normally the number of cores.
+   * @return New renderer using a thread for each tile.
+   */
+  public static BatchRenderer withThreadPerTile(int maxConcurrent) {
+    return new BatchRenderer(maxConcurrent, true);
+  }
+
+  /**
+   * Stop the threads used by this renderer. No further fractals can be rendered after this is called.
+   */
+  public void shutdown() {
+    // The per-tile executor is shared, so it is never shut down.
+    if (permits == null) {
+      threads.shutdown();
+    }
+    encoder.shutdown();
+  }
+
+  /**
+   * Calculate the escape times for the given fractal. The caller owns the buffer which is returned and must release it
+   * once it is no longer needed.
+   *
+   * @param request Settings of the fractal to compute.
+   * @param raster Image into which each tile is colored as it completes, or null if the fractal should not be colored.
+   * @return Buffer holding the escape times of the entire fractal.
+   * @throws ExecutionException Thrown if any tile could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for the tiles.
+   */
+  public EscapeBuffer compute(RenderRequest request, FractalRaster raster) throws ExecutionException,
+                                                                             InterruptedException {
+    EscapeBuffer escapes = EscapeBuffer.create(request.getRows(), request.getColumns(), request.getMaxIterations(),
+                                               ((long) request.getRows() * request.getColumns()) >=
+                                                                                           ComputePool.OFF_HEAP_PIXELS);
+    compute(request, raster, escapes, null);
+    return escapes;
+  }
+
+  /**
+   * Calculate the escape times for the given fractal, storing them in a buffer supplied by the caller. Pixels whose
+   * escape times are already in the buffer can be skipped. If the calculations fail, the buffer is released.
+   *
+   * @param request Settings of the fractal to compute.
+   * @param raster Image into which each tile is colored as it completes, or null if the fractal should not be colored.
+   * @param escapes Buffer, with the same size as the fractal, into which the escape times are written.
+   * @param known Pixels, indexed by their position in the buffer, whose escape times are already stored in the buffer
+   *          or null if every pixel must be calculated.
+   * @throws ExecutionException Thrown if any tile could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for the tiles.
+   */
+  public void compute(RenderRequest request, FractalRaster raster, EscapeBuffer escapes, BitSet known)
+      throws ExecutionException, InterruptedException {
+    int[][] costs = ComputeFractal.create(request).sampleCosts(TilePartitioner.SAMPLES_PER_SIDE,
+                                                               Math.min(request.getMaxIterations(),
+                                                                        TilePartitioner.SAMPLE_ITERATIONS));
+    Tile[] tiles = TilePartitioner.partition(costs, request.getRows(), request.getColumns(), tilesPerSide);
+    List<Future<WorkerResult>> results = new ArrayList<>(tiles.length);
+    for (Tile tile : tiles) {
+      final ComputeFractal worker = ComputeFractal.create(request);
+      worker.setTile(tile.getFirstRow(), tile.getRows(), tile.getFirstColumn(), tile.getColumns());
+      worker.setBuffer(escapes);
+      worker.setRaster(raster);
+      worker.setKnownPixels(known);
+      worker.markSubmitted();
+      results.add(threads.submit(new Callable<WorkerResult>() {
+        @Override
+        public WorkerResult call() {
+          if (permits == null) {
+            return worker.doInBackground();
+          }
+          permits.acquireUninterruptibly();
+          try {
+            return worker.doInBackground();
+          } finally {
+            permits.release();
+          }
+        }
+      }));
+    }
+    try {
+      for (Future<WorkerResult> result : results) {
+        // No orbits are needed since these fractals are never deepened.
+        result.get().release();
+      }
+    } catch (ExecutionException | InterruptedException e) {
+      for (Future<WorkerResult> result : results) {
+        result.cancel(true);
+      }
+      escapes.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Render the given fractal into a new image.
+   *
+   * @param request Settings of the fractal to render.
+   * @param colors Color model used to color the fractal.
+   * @return Image showing the fractal; each row of the fractal is a column of the image.
+   * @throws ExecutionException Thrown if any tile could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for the tiles.
+   */
+  public BufferedImage render(RenderRequest request, IndexColorModel colors) throws ExecutionException,
+                                                                               InterruptedException {
+    FractalRaster raster = FractalRaster.create(request.getRows(), request.getColumns(), colors);
+    compute(request, raster).release();
+    return raster.getImage();
+  }
+
+  /**
+   * Render the given fractal and write it to a PNG file without ever holding the entire image in memory. The image is
+   * computed in horizontal strips (ranges of the fractal's columns). Each strip is colored and then encoded while the
+   * next strip is being computed, so only two strips are ever held in memory, no matter how large the image.
+   *
+   * @param request Settings of the fractal to render.
+   * @param colors Color model used to color the fractal.
+   * @param target Stream to which the PNG file is written. This is closed once the image is complete.
+   * @throws IOException Thrown if the image could not be written.
+   * @throws ExecutionException Thrown if any tile could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for a strip.
+   */
+  public void exportPng(RenderRequest request, IndexColorModel colors, OutputStream target) throws IOException,
+                                                                                              ExecutionException,
+                                                                                              InterruptedException {
+    int width = request.getRows();
+    int height = request.getColumns();
+    // There are at most half as many strips as columns, so spreading the columns evenly gives every strip at least the
+    // 2 columns a valid request needs.
+    int numStrips = (int) Math.min(height / 2, (((long) width * height) + STRIP_PIXELS - 1) / STRIP_PIXELS);
+    numStrips = Math.max(numStrips, 1);
+    int stripHeight = (height + numStrips - 1) / numStrips;
+    double stepY = (request.getEndY() - request.getStartY()) / (height - 1);
+    // Alternate between two images so that one strip can be colored while the other is encoded.
+    FractalRaster[] rasters = { FractalRaster.create(width, stripHeight, colors),
+                                FractalRaster.create(width, stripHeight, colors) };
+    final PngStreamWriter png = new PngStreamWriter(target, width, height);
+    Future<?> encoding = null;
+    try {
+      for (int strip = 0; strip < numStrips; strip++ ) {
+        int firstColumn = (int) (((long) strip * height) / numStrips);
+        final int columns = (int) (((long) (strip + 1) * height) / numStrips) - firstColumn;
+        RenderRequest part = request.withBounds(request.getStartX(), request.getStartY() + (stepY * firstColumn),
+                                                request.getEndX(),
+                                                request.getStartY() + (stepY * (firstColumn + columns - 1)))
+                                    .withSize(width, columns);
+        final FractalRaster raster = rasters[strip % 2];
+        compute(part, raster).release();
+        if (encoding != null) {
+          encoding.get();
+        }
+        encoding = encoder.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            png.writeLines(raster.getPixels(), 0, raster.getScanline(), columns);
+            return null;
+          }
+        });
+      }
+      encoding.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    } finally {
+      if (encoding != null) {
+        encoding.cancel(false);
+      }
+    }
+    png.close();
+  }
+
+  /**
+   * Create the color model with the given name.
+   *
+   * @param name Name of the color model: Rainbow, Grays, or Blues.
+   * @param maxIterations Iteration limit of the fractal which will be colored.
+   * @return Color model with the given name.
+   */
+  public static IndexColorModel createColorModel(String name, int maxIterations) {
+    int numColors = Math.min(maxIterations, 255) + 1;
+    switch (name.toLowerCase()) {
+      case "grays":
+        return ColorModelFactory.createGrayColorModel(numColors);
+      case "blues":
+        return ColorModelFactory.createBluesColorModel(numColors);
+      case "rainbow":
+        return ColorModelFactory.createRainbowColorModel(numColors);
+      default:
+        throw new IllegalArgumentException("Unknown palette: " + name);
+    }
+  }
+
+  /**
+   * Write a colored fractal to disk.
+   *
+   * @param raster Image holding the colored fractal.
+   * @param format Format in which the file should be saved.
+   * @param file File to which the image is written.
+   * @throws IOException Thrown if the image could not be written.
+   */
+  static void writeImage(FractalRaster raster, FractalPanel.SaveFormat format, File file) throws IOException {
+    if (format == FractalPanel.SaveFormat.PNG) {
+      BufferedImage image = raster.getImage();
+      try (PngStreamWriter png = new PngStreamWriter(new FileOutputStream(file), image.getWidth(), image.getHeight())) {
+        png.writeLines(raster.getPixels(), 0, raster.getScanline(), image.getHeight());
+      }
+    } else {
+      ImageIO.write(raster.getImage(), format.name().toLowerCase(), file);
+    }
+  }
+
+  /**
+   * Render a single job and write the resulting image to disk.
+   *
+   * @param options Options describing the job.
+   * @return True if the image was saved successfully; false otherwise.
+   */
+  private boolean runJob(String[] options) {
+    String formula = "Mandelbrot";
+    String bounds = null;
+    int rows = DEFAULT_SIZE;
+    int columns = DEFAULT_SIZE;
+    int iterations = RenderRequest.DEFAULT_MAX_ITERATIONS;
+    int escape = RenderRequest.DEFAULT_ESCAPE_VALUE;
+    String palette = "Rainbow";
+    FractalPanel.SaveFormat format = FractalPanel.SaveFormat.PNG;
+    String output = null;
+    String escapeFile = null;
+    String loadFile = null;
+    int antialias = 1;
+    try {
+      for (String option : options) {
+        int split = option.indexOf('=');
+        if (!option.startsWith("--") || (split < 0)) {
+          throw new IllegalArgumentException("Options must look like --name=value, not " + option);
+        }
+        String value = option.substring(split + 1);
+        switch (option.substring(2, split)) {
+          case "formula":
+            formula = value;
+            break;
+          case "bounds":
+            bounds = value;
+            break;
+          case "size":
+            String[] dims = value.toLowerCase().split("x");
+            rows = Integer.parseInt(dims[0]);
+            columns = Integer.parseInt(dims[1]);
+            break;
+          case "iterations":
+            iterations = Integer.parseInt(value);
+            break;
+          case "escape":
+            escape = Integer.parseInt(value);
+            break;
+          case "palette":
+            palette = value;
+            break;
+          case "format":
+            format = FractalPanel.SaveFormat.valueOf(value.toUpperCase());
+            break;
+          case "output":
+            output = value;
+            break;
+          case "escapes":
+            escapeFile = value;
+            break;
+          case "load":
+            loadFile = value;
+            break;
+          case "antialias":
+            antialias = Integer.parseInt(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + option);
+        }
+      }
+      if (output == null) {
+        throw new IllegalArgumentException("Each job must specify --output");
+      }
+      String extension = format.name().toLowerCase();
+      File file = new File(output + "." + extension);
+      if (loadFile != null) {
+        // Recolor escape times which were already calculated rather than computing the fractal. Escape maps never
+        // compile formulas themselves, so one written out must first be registered using the formula option.
+        FractalOption.register(formula);
+        try (EscapeMap map = EscapeMap.open(new File(loadFile))) {
+          RenderRequest request = map.getRequest();
+          FractalRaster raster = FractalRaster.create(request.getRows(), request.getColumns(),
+                                                      createColorModel(palette, request.getMaxIterations()));
+          EscapeBuffer escapes = map.load();
+          try {
+            raster.colorAll(escapes, request.getMaxIterations());
+            EdgeSupersampler.supersample(request, escapes, raster, antialias, parallelism);
+          } finally {
+            escapes.release();
+          }
+          writeImage(raster, format, file);
+        }
+        return true;
+      }
+      RenderRequest request = RenderRequest.defaultView(FractalOption.register(formula), rows, columns, iterations,
+                                                        escape);
+      if (bounds != null) {
+        String[] coords = bounds.split(",");
+        request = request.withBounds(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]),
+                                     Double.parseDouble(coords[2]), Double.parseDouble(coords[3]));
+      }
+      IndexColorModel colors = createColorModel(palette, iterations);
+      if ((escapeFile != null) || (antialias > 1)) {
+        // Saving or supersampling the escape times requires all of them, so the image cannot be streamed.
+        FractalRaster raster = FractalRaster.create(rows, columns, colors);
+        EscapeBuffer escapes = compute(request, raster);
+        try {
+          if (escapeFile != null) {
+            EscapeMap.save(new File(escapeFile), request, escapes);
+          }
+          EdgeSupersampler.supersample(request, escapes, raster, antialias, parallelism);
+        } finally {
+          escapes.release();
+        }
+        writeImage(raster, format, file);
+      } else if (format == FractalPanel.SaveFormat.PNG) {
+        // Stream PNG images to disk so their size is not limited by the heap.
+        boolean exported = false;
+        try (OutputStream stream = new FileOutputStream(file)) {
+          exportPng(request, colors, stream);
+          exported = true;
+        } finally {
+          // Do not leave a truncated image behind.
+          if (!exported) {
+            file.delete();
+          }
+        }
+      } else {
+        ImageIO.write(render(request, colors), extension, file);
+      }
+      return true;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      return false;
+    } catch (IOException | ExecutionException | InterruptedException e) {
+      System.err.println("ERROR: Could not output fractal image");
+      e.printStackTrace();
+      System.err.println();
+      return false;
+    }
+  }
+
+  /**
+   * Main method to render fractals without a display.
+   *
+   * @param args Options for a single job or the file listing the jobs to run.
+   */
+  public static void main(String[] args) {
+    // Never try to connect to a display, even if one happens to be available.
+    System.setProperty("java.awt.headless", "true");
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    String jobFile = null;
+    List<String> options = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--threads=")) {
+        numThreads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if (arg.startsWith("--jobs=")) {
+        jobFile = arg.substring("--jobs=".length());
+      } else {
+        options.add(arg);
+      }
+    }
+    if ((jobFile == null) && options.isEmpty()) {
+      System.err.println("Usage: BatchRenderer [--threads=n] (--jobs=file | --output=name [--formula=Mandelbrot] " +
+                         "[--bounds=x0,y0,x1,y1] [--size=WxH] [--iterations=n] [--escape=n] [--palette=Rainbow] " +
+                         "[--format=PNG] [--escapes=file] [--load=file] [--antialias=n])");
+      System.exit(1);
+    }
+    BatchRenderer renderer = new BatchRenderer(numThreads);
+    int failures = 0;
+    try {
+      if (jobFile == null) {
+        failures += renderer.runJob(options.toArray(new String[options.size()])) ? 0 : 1;
+      } else {
+        try (BufferedReader reader = new BufferedReader(new FileReader(jobFile))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+              failures += renderer.runJob(line.split("\\s+")) ? 0 : 1;
+            }
+          }
+        } catch (IOException e) {
+          System.err.println("ERROR: Could not read job file " + jobFile);
+          e.printStackTrace();
+          failures++;
+        }
+      }
+    } finally {
+      renderer.shutdown();
+    }
+    System.exit((failures == 0) ? 0 : 1);
+  }
+}
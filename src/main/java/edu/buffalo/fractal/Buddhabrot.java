@@ -0,0 +1,345 @@
+package edu.buffalo.fractal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Renders the orbit density (&quot;Buddhabrot&quot;) of a fractal rather than its escape times. Random points are
+ * chosen across the formula's default view and iterated using the same formula as {@link ComputeFractal}. Each point
+ * whose orbit escapes has every step of its orbit added to a histogram covering the requested view, and the histogram
+ * is colored on a logarithmic scale. Every sampling thread writes into its own histogram, so the threads never contend
+ * with each other; the histograms are summed to color the image. Sums taken while sampling continues may miss the most
+ * recent hits, which is fine for the progressive updates reported as the worker's <code>"progress"</code> property; the
+ * final sum is exact.
+ *
+ * @author Matthew Hertz
+ */
+public class Buddhabrot extends SwingWorker<long[], Void> {
+  /** Number of points each thread samples between checks of whether the render was cancelled. */
+  private static final int SAMPLES_PER_BATCH = 10000;
+
+  /** Milliseconds between progressive updates of the image. */
+  private static final int REFRESH_MILLIS = 250;
+
+  /** Settings of the view whose orbit density is rendered. */
+  private final RenderRequest request;
+
+  /** Total number of points sampled. */
+  private final long samples;
+
+  /** Number of threads sampling points. */
+  private final int numThreads;
+
+  /** Instance of the formula used to iterate the points. */
+  private final ComputeFractal formula;
+
+  /** Image into which the density is colored; null if the density is only returned. */
+  private FractalRaster raster;
+
+  /** Number of the raster's frame to which the density belongs; it is not colored once a newer frame starts. */
+  private int frame;
+
+  /** Histogram most recently summed from the threads' histograms; guarded by this instance. */
+  private long[] merged;
+
+  /** Number of points claimed by the threads so far, including those still being sampled. */
+  private final AtomicLong claimed;
+
+  /** Number of points sampled so far across all threads. */
+  private final AtomicLong sampled;
+
+  /**
+   * Create a new instance which will render the orbit density of the given view.
+   *
+   * @param settings View whose orbit density is rendered; its limits are used when iterating each point.
+   * @param numSamples Total number of points to sample.
+   * @param threads Number of threads sampling points.
+   */
+  public Buddhabrot(RenderRequest settings, long numSamples, int threads) {
+    request = settings;
+    samples = numSamples;
+    numThreads = threads;
+    formula = ComputeFractal.create(settings);
+    claimed = new AtomicLong();
+    sampled = new AtomicLong();
+  }
+
+  /**
+   * Specify the image into which the density is colored as the samples accumulate. The density belongs to the raster's
+   * current frame, so it stops being colored once another frame is started.
+   *
+   * @param target Raster of the image displaying the density or null if the density is only returned.
+   */
+  public void setRaster(FractalRaster target) {
+    raster = target;
+    if (target != null) {
+      frame = target.getFrame();
+    }
+  }
+
+  /**
+   * @return the number of points sampled so far
+   */
+  public long getSampled() {
+    return sampled.get();
+  }
+
+  /**
+   * Color the image again using the latest histogram, e.g., after its palette was changed.
+   */
+  public void recolor() {
+    long[] counts;
+    synchronized (this) {
+      counts = merged;
+    }
+    if ((counts != null) && (raster != null)) {
+      raster.colorDensity(counts, request.getRows(), request.getColumns(), frame);
+    }
+  }
+
+  /**
+   * Return whether a point lies in the Mandelbrot set's main cardioid or its period-2 bulb. Such points never escape,
+   * so they can be skipped without iterating them.
+   *
+   * @param x Real part of the point.
+   * @param y Imaginary part of the point.
+   * @return True if the point is known never to escape; false otherwise.
+   */
+  private static boolean inMandelbrotInterior(double x, double y) {
+    double q = ((x - 0.25) * (x - 0.25)) + (y * y);
+    if ((q * (q + (x - 0.25))) <= (0.25 * y * y)) {
+      return true;
+    }
+    return (((x + 1) * (x + 1)) + (y * y)) <= 0.0625;
+  }
+
+  /**
+   * Sample points until every sample has been claimed or the render is cancelled, adding the escaping orbits to the
+   * given histogram.
+   *
+   * @param histogram Histogram owned by this thread, indexed like an {@link EscapeBuffer}.
+   * @param seed Seed for this thread's random numbers.
+   */
+  private void sample(int[] histogram, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    FractalOption option = request.getFormula();
+    // Points are chosen across the whole fractal, even when zoomed in, since orbits from anywhere can cross the view.
+    double sampleX = option.getStartX();
+    double sampleWidth = option.getEndX() - option.getStartX();
+    double sampleY = option.getStartY();
+    double sampleHeight = option.getEndY() - option.getStartY();
+    int rows = request.getRows();
+    int columns = request.getColumns();
+    double scaleX = (rows - 1) / (request.getEndX() - request.getStartX());
+    double scaleY = (columns - 1) / (request.getEndY() - request.getStartY());
+    double startX = request.getStartX();
+    double startY = request.getStartY();
+    int limit = request.getMaxIterations();
+    double escapeSquared = (double) request.getEscapeValue() * request.getEscapeValue();
+    boolean skipInterior = option == FractalOption.Mandelbrot;
+    double[] orbitX = new double[limit];
+    double[] orbitY = new double[limit];
+    while (!isCancelled()) {
+      long first = claimed.getAndAdd(SAMPLES_PER_BATCH);
+      if (first >= samples) {
+        return;
+      }
+      int batch = (int) Math.min(SAMPLES_PER_BATCH, samples - first);
+      for (int s = 0; s < batch; s++ ) {
+        double x0 = sampleX + (random.nextDouble() * sampleWidth);
+        double y0 = sampleY + (random.nextDouble() * sampleHeight);
+        if (skipInterior && inMandelbrotInterior(x0, y0)) {
+          continue;
+        }
+        double x = x0;
+        double y = y0;
+        int steps = 0;
+        while ((steps < limit) && (((x * x) + (y * y)) <= escapeSquared)) {
+          double xNext = formula.computeNextX(x, y, x0, y0);
+          y = formula.computeNextY(x, y, x0, y0);
+          x = xNext;
+          orbitX[steps] = x;
+          orbitY[steps] = y;
+          steps++;
+        }
+        if (steps == limit) {
+          // Only the orbits of points which escape are counted.
+          continue;
+        }
+        for (int i = 0; i < steps; i++ ) {
+          int row = (int) (((orbitX[i] - startX) * scaleX) + 0.5);
+          int col = (int) (((orbitY[i] - startY) * scaleY) + 0.5);
+          if ((row >= 0) && (row < rows) && (col >= 0) && (col < columns)) {
+            histogram[(row * columns) + col]++;
+          }
+        }
+      }
+      sampled.addAndGet(batch);
+    }
+  }
+
+  /**
+   * Sum the threads' histograms.
+   *
+   * @param histograms Histogram of each thread.
+   * @return Total number of times an orbit passed through each pixel.
+   */
+  private static long[] merge(List<int[]> histograms) {
+    long[] retVal = new long[histograms.get(0).length];
+    for (int[] histogram : histograms) {
+      for (int i = 0; i < retVal.length; i++ ) {
+        retVal[i] += histogram[i];
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Record the latest histogram and color it into the image.
+   *
+   * @param counts Total number of times an orbit passed through each pixel.
+   */
+  private void publishHistogram(long[] counts) {
+    synchronized (this) {
+      merged = counts;
+    }
+    if (raster != null) {
+      raster.colorDensity(counts, request.getRows(), request.getColumns(), frame);
+    }
+    setProgress((int) ((sampled.get() * 100) / samples));
+  }
+
+  @Override
+  public long[] doInBackground() throws InterruptedException, ExecutionException {
+    ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+    try {
+      final List<int[]> histograms = new ArrayList<>(numThreads);
+      List<Future<?>> running = new ArrayList<>(numThreads);
+      long seed = System.nanoTime();
+      for (int t = 0; t < numThreads; t++ ) {
+        final int[] histogram = new int[request.getRows() * request.getColumns()];
+        final long threadSeed = seed + t;
+        histograms.add(histogram);
+        running.add(threads.submit(new Runnable() {
+          @Override
+          public void run() {
+            sample(histogram, threadSeed);
+          }
+        }));
+      }
+      threads.shutdown();
+      while (!threads.awaitTermination(REFRESH_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (isCancelled()) {
+          return null;
+        }
+        publishHistogram(merge(histograms));
+      }
+      // Report any exception thrown by a sampling thread.
+      for (Future<?> thread : running) {
+        thread.get();
+      }
+      long[] retVal = merge(histograms);
+      publishHistogram(retVal);
+      return retVal;
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  /**
+   * Main method to render an orbit density image without a display.
+   *
+   * @param args Options describing the view, the number of samples, and the output file.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    String formulaName = "Mandelbrot";
+    String bounds = null;
+    int rows = 1024;
+    int columns = 1024;
+    int iterations = 1000;
+    long numSamples = 10000000;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    String palette = "Grays";
+    String output = null;
+    try {
+      for (String arg : args) {
+        int split = arg.indexOf('=');
+        if (!arg.startsWith("--") || (split < 0)) {
+          throw new IllegalArgumentException("Options must look like --name=value, not " + arg);
+        }
+        String value = arg.substring(split + 1);
+        switch (arg.substring(2, split)) {
+          case "formula":
+            formulaName = value;
+            break;
+          case "bounds":
+            bounds = value;
+            break;
+          case "size":
+            String[] dims = value.toLowerCase().split("x");
+            rows = Integer.parseInt(dims[0]);
+            columns = Integer.parseInt(dims[1]);
+            break;
+          case "iterations":
+            iterations = Integer.parseInt(value);
+            break;
+          case "samples":
+            numSamples = Long.parseLong(value);
+            break;
+          case "threads":
+            numThreads = Integer.parseInt(value);
+            break;
+          case "palette":
+            palette = value;
+            break;
+          case "output":
+            output = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      if (output == null) {
+        throw new IllegalArgumentException("Usage: Buddhabrot --output=name [--formula=Mandelbrot] " +
+                                           "[--bounds=x0,y0,x1,y1] [--size=WxH] [--iterations=n] [--samples=n] " +
+                                           "[--threads=n] [--palette=Grays]");
+      }
+      if (numSamples < 1) {
+        throw new IllegalArgumentException("Samples must be at least 1, not " + numSamples);
+      }
+      RenderRequest request = RenderRequest.defaultView(FractalOption.register(formulaName), rows, columns, iterations,
+                                                        RenderRequest.DEFAULT_ESCAPE_VALUE);
+      if (bounds != null) {
+        String[] coords = bounds.split(",");
+        request = request.withBounds(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]),
+                                     Double.parseDouble(coords[2]), Double.parseDouble(coords[3]));
+      }
+      FractalRaster raster = FractalRaster.create(rows, columns, BatchRenderer.createColorModel(palette, iterations));
+      Buddhabrot density = new Buddhabrot(request, numSamples, numThreads);
+      density.setRaster(raster);
+      long start = System.nanoTime();
+      density.doInBackground();
+      System.out.printf("Sampled %d points in %.1f s%n", numSamples, (System.nanoTime() - start) / 1e9);
+      BatchRenderer.writeImage(raster, FractalPanel.SaveFormat.PNG, new File(output + ".png"));
+    } catch (IllegalArgumentException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      System.exit(2);
+    } catch (IOException | InterruptedException | ExecutionException e) {
+      System.err.println("ERROR: Could not render the orbit density");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package edu.buffalo.fractal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recycles the storage used to hold escape times. During interactive zooming a new frame is generated every few hundred
+ * milliseconds; rather than allocating new storage each time (and leaving the old storage for the garbage collector),
+ * storage is returned here once its frame has been superseded and handed out again for the next frame of the same size.
+ * Recycled storage is not cleared, since the workers overwrite every entry of a frame. The memory kept outside of the
+ * heap is capped, and {@link #trim()} frees all of it once very large frames are no longer being generated.
+ *
+ * @author Matthew Hertz
+ */
+final class BufferPool {
+
+  /** Most pieces of storage of any single type and size which are kept for reuse. */
+  private static final int MAX_PER_SIZE = 2;
+
+  /** Most bytes of memory outside of the heap which are kept for reuse, across every size. */
+  private static final long MAX_DIRECT_BYTES = 1L << 31;
+
+  /** Storage available for reuse, organized by its type and size. */
+  private static final Map<String, ArrayDeque<Object>> available = new HashMap<>();
+
+  /** Number of bytes of memory outside of the heap currently kept for reuse. */
+  private static long directBytes;
+
+  /** Number of requests satisfied by recycled storage. */
+  private static long hits;
+
+  /** Number of requests which required newly allocated storage. */
+  private static long misses;
+
+  private BufferPool() {
+  }
+
+  /**
+   * Get an array of bytes of the given length.
+   *
+   * @param length Number of entries needed.
+   * @return Array of the given length whose contents are unspecified.
+   */
+  public static byte[] takeBytes(int length) {
+    Object retVal = take("byte", length);
+    return (retVal != null) ? (byte[]) retVal : new byte[length];
+  }
+
+  /**
+   * Get an array of shorts of the given length.
+   *
+   * @param length Number of entries needed.
+   * @return Array of the given length whose contents are unspecified.
+   */
+  public static short[] takeShorts(int length) {
+    Object retVal = take("short", length);
+    return (retVal != null) ? (short[]) retVal : new short[length];
+  }
+
+  /**
+   * Get an array of ints of the given length.
+   *
+   * @param length Number of entries needed.
+   * @return Array of the given length whose contents are unspecified.
+   */
+  public static int[] takeInts(int length) {
+    Object retVal = take("int", length);
+    return (retVal != null) ? (int[]) retVal : new int[length];
+  }
+
+  /**
+   * Get a block of memory outside of the heap with the given size.
+   *
+   * @param bytes Number of bytes needed.
+   * @return Buffer of the given size, using the platform's native byte order, whose contents are unspecified.
+   */
+  public static ByteBuffer takeDirect(int bytes) {
+    Object retVal = take("direct", bytes);
+    return (retVal != null) ? (ByteBuffer) retVal : DirectMemory.allocate(bytes);
+  }
+
+  /**
+   * Return an array so that it can be reused.
+   *
+   * @param array Array which is no longer being used.
+   */
+  public static void give(byte[] array) {
+    give("byte", array.length, array);
+  }
+
+  /**
+   * Return an array so that it can be reused.
+   *
+   * @param array Array which is no longer being used.
+   */
+  public static void give(short[] array) {
+    give("short", array.length, array);
+  }
+
+  /**
+   * Return an array so that it can be reused.
+   *
+   * @param array Array which is no longer being used.
+   */
+  public static void give(int[] array) {
+    give("int", array.length, array);
+  }
+
+  /**
+   * Return a block of memory outside of the heap so that it can be reused. When enough blocks of this size are already
+   * available, the memory is freed instead.
+   *
+   * @param buffer Buffer which is no longer being used.
+   */
+  public static void give(ByteBuffer buffer) {
+    if (!giveDirect(buffer)) {
+      DirectMemory.free(buffer);
+    }
+  }
+
+  /**
+   * Immediately free all of the memory outside of the heap which is kept for reuse. Arrays on the heap are kept, since
+   * the garbage collector can reclaim them whenever it needs to.
+   */
+  public static void trim() {
+    List<ByteBuffer> discarded = new ArrayList<>();
+    synchronized (BufferPool.class) {
+      Iterator<Map.Entry<String, ArrayDeque<Object>>> entries = available.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<String, ArrayDeque<Object>> entry = entries.next();
+        if (entry.getKey().startsWith("direct")) {
+          for (Object storage : entry.getValue()) {
+            discarded.add((ByteBuffer) storage);
+          }
+          entries.remove();
+        }
+      }
+      directBytes = 0;
+    }
+    for (ByteBuffer buffer : discarded) {
+      DirectMemory.free(buffer);
+    }
+  }
+
+  /**
+   * Return the fraction of requests which were satisfied by recycled storage.
+   *
+   * @return Fraction, between 0 and 1, of requests which did not need to allocate.
+   */
+  public static synchronized double getHitRatio() {
+    long total = hits + misses;
+    return (total == 0) ? 0 : (hits / (double) total);
+  }
+
+  private static synchronized Object take(String type, int length) {
+    ArrayDeque<Object> queue = available.get(type + length);
+    Object retVal = (queue == null) ? null : queue.poll();
+    if (retVal instanceof ByteBuffer) {
+      directBytes -= ((ByteBuffer) retVal).capacity();
+    }
+    if (retVal != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return retVal;
+  }
+
+  private static synchronized boolean giveDirect(ByteBuffer buffer) {
+    if (((directBytes + buffer.capacity()) > MAX_DIRECT_BYTES) || !give("direct", buffer.capacity(), buffer)) {
+      return false;
+    }
+    directBytes += buffer.capacity();
+    return true;
+  }
+
+  private static synchronized boolean give(String type, int length, Object storage) {
+    String key = type + length;
+    ArrayDeque<Object> queue = available.get(key);
+    if (queue == null) {
+      queue = new ArrayDeque<>();
+      available.put(key, queue);
+    }
+    if (queue.size() < MAX_PER_SIZE) {
+      queue.push(storage);
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,588 @@
+package edu.buffalo.fractal;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+public abstract class ComputeFractal extends SwingWorker<WorkerResult, Void> {
+
+  /**
+   * Create an image from the Burning ship class of fractals.
+   *
+   * @author Matthew Hertz
+   */
+  private static class BurningShip extends ComputeFractal {
+
+    public BurningShip(RenderRequest request) {
+      super(request);
+
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextX(double, double, double, double)
+     */
+    @Override
+    public double computeNextX(double x, double y, double x0, double y0) {
+      return ((x * x) - (y * y)) + x0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextY(double, double, double, double)
+     */
+    @Override
+    public double computeNextY(double x, double y, double x0, double y0) {
+      return Math.abs(2 * x * y) + y0;
+    }
+  }
+
+  /**
+   * Create an image from the Julia set.
+   *
+   * @author Matthew Hertz
+   */
+  private static class JuliaSet extends ComputeFractal {
+    private double xOffset;
+
+    private double yOffset;
+
+    public JuliaSet(double cx, double cy, RenderRequest request) {
+      super(request);
+      xOffset = cx;
+      yOffset = cy;
+
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextX(double, double, double, double)
+     */
+    @Override
+    public double computeNextX(double x, double y, double x0, double y0) {
+      return ((x * x) - (y * y)) + xOffset;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextY(double, double, double, double)
+     */
+    @Override
+    public double computeNextY(double x, double y, double x0, double y0) {
+      return (2 * x * y) + yOffset;
+    }
+  }
+
+  /**
+   * Create an image from the Mandelbrot set.
+   *
+   * @author Matthew Hertz
+   */
+  private static class MandlebrotSet extends ComputeFractal {
+    public MandlebrotSet(RenderRequest request) {
+
+      super(request);
+
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextX(double, double, double, double)
+     */
+    @Override
+    public double computeNextX(double x, double y, double x0, double y0) {
+      return ((x * x) - (y * y)) + x0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextY(double, double, double, double)
+     */
+    @Override
+    public double computeNextY(double x, double y, double x0, double y0) {
+      return (2 * x * y) + y0;
+    }
+
+  }
+
+  /**
+   * Create an image from the Multibrot set.
+   *
+   * @author Matthew Hertz
+   */
+  private static class Multibrot extends ComputeFractal {
+
+    public Multibrot(RenderRequest request) {
+      super(request);
+
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextX(double, double, double, double)
+     */
+    @Override
+    public double computeNextX(double x, double y, double x0, double y0) {
+      return ((x * x * x) - (3 * x * y * y)) + x0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see edu.canisius.graphics.ComputeFractal#computeNextY(double, double, double, double)
+     */
+    @Override
+    public double computeNextY(double x, double y, double x0, double y0) {
+      return ((3 * x * x * y) - (y * y * y)) + y0;
+    }
+
+  }
+
+  /**
+   * Create an image from a formula typed by the user, iterated by a kernel compiled at runtime.
+   *
+   * @author Matthew Hertz
+   */
+  private static class CustomFormula extends ComputeFractal {
+    /** Compiled kernel iterating the formula. */
+    private final FormulaKernel kernel;
+
+    public CustomFormula(FormulaKernel compiled, RenderRequest request) {
+      super(request);
+      kernel = compiled;
+    }
+
+    @Override
+    public double computeNextX(double x, double y, double x0, double y0) {
+      return kernel.nextX(x, y, x0, y0);
+    }
+
+    @Override
+    public double computeNextY(double x, double y, double x0, double y0) {
+      return kernel.nextY(x, y, x0, y0);
+    }
+  }
+
+  /** Settings, including the bounds and limits, of the fractal being generated. */
+  private final RenderRequest request;
+
+  private final double startX;
+
+  private final double startY;
+
+  private final double endX;
+
+  private final double endY;
+
+  /** Index of the first row of the full fractal which this instance computes. */
+  private int firstRow;
+
+  /** Number of rows in the tile this instance computes. */
+  private int tileRows;
+
+  /** Index of the first column of the full fractal which this instance computes. */
+  private int firstColumn;
+
+  /** Number of columns in the tile this instance computes. */
+  private int tileColumns;
+
+  /**
+   * Results previously computed for this tile with a lower iteration limit. When present, only the pixels which had not
+   * escaped are iterated further, starting from their saved orbits.
+   */
+  private WorkerResult previous;
+
+  /**
+   * Set once the previous results have been claimed, either by this worker continuing them or by
+   * {@link #discardPrevious()}, so exactly one of the two frees them.
+   */
+  private final AtomicBoolean previousClaimed = new AtomicBoolean();
+
+  /** Buffer holding the escape times for the entire fractal; this instance writes its tile directly into it. */
+  private EscapeBuffer escapes;
+
+  /** Image into which this instance colors its tile once it is calculated; null if the tile is not to be colored. */
+  private FractalRaster raster;
+
+  /** Number of the raster's frame to which this tile belongs; the tile is not colored once a newer frame starts. */
+  private int frame;
+
+  /**
+   * Pixels, indexed by their position in the buffer, whose escape times are already stored in the buffer and so are
+   * skipped; null if every pixel must be calculated.
+   */
+  private BitSet known;
+
+  /** Time, from {@link System#nanoTime()}, at which this instance was submitted for execution; 0 if not recorded. */
+  private long submitTime;
+
+  private ComputeFractal(RenderRequest request) {
+    this.request = request;
+    startX = request.getStartX();
+    startY = request.getStartY();
+    endX = request.getEndX();
+    endY = request.getEndY();
+  }
+
+  /**
+   * @return the settings of the fractal this instance generates
+   */
+  public RenderRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * @return the startX
+   */
+  public double getStartX() {
+    return startX;
+  }
+
+  /**
+   * @return the startY
+   */
+  public double getStartY() {
+    return startY;
+  }
+
+  /**
+   * @return the endX
+   */
+  public double getEndX() {
+    return endX;
+  }
+
+  /**
+   * @return the endY
+   */
+  public double getEndY() {
+    return endY;
+  }
+
+  /**
+   * Specify the rectangular tile of the full fractal which this instance will compute. This must be called before the
+   * instance is executed.
+   *
+   * @param startRow Index of the first row in the tile
+   * @param rows Number of rows in the tile
+   * @param startColumn Index of the first column in the tile
+   * @param columns Number of columns in the tile
+   */
+  public void setTile(int startRow, int rows, int startColumn, int columns) {
+    firstRow = startRow;
+    tileRows = rows;
+    firstColumn = startColumn;
+    tileColumns = columns;
+  }
+
+  /**
+   * Specify the buffer into which this instance writes the escape times of its tile. This must be called before the
+   * instance is executed.
+   *
+   * @param buffer Buffer holding the escape times of the entire fractal.
+   */
+  public void setBuffer(EscapeBuffer buffer) {
+    escapes = buffer;
+  }
+
+  /**
+   * Specify the image into which this instance colors its tile once the escape times are calculated. Coloring the tile
+   * on the worker thread means the event dispatch thread need only repaint the region. The tile belongs to the raster's
+   * current frame, so it is not colored if another frame is started before it completes.
+   *
+   * @param target Raster of the image displaying the fractal or null if the tile should not be colored.
+   */
+  public void setRaster(FractalRaster target) {
+    raster = target;
+    if (target != null) {
+      frame = target.getFrame();
+    }
+  }
+
+  /**
+   * Specify pixels whose escape times are already stored in the buffer (e.g., those copied from the previous frame of an
+   * animation). These pixels are skipped, so the results of an instance given known pixels cannot later be deepened.
+   *
+   * @param pixels Set bits mark the positions in the buffer whose escape times are already known, or null if every
+   *          pixel must be calculated.
+   */
+  public void setKnownPixels(BitSet pixels) {
+    known = pixels;
+  }
+
+  /**
+   * Record that this instance has just been submitted for execution, so the time it waits before starting can be
+   * measured.
+   */
+  public void markSubmitted() {
+    submitTime = System.nanoTime();
+  }
+
+  /**
+   * Create a new worker which continues this instance's calculations using a higher iteration limit. Pixels which
+   * already escaped keep their escape times and the remaining pixels resume from their saved orbits, so the new worker
+   * only performs the additional iterations. The new worker must be given the buffer holding this instance's escape
+   * times before it is executed.
+   *
+   * @param prior Results this instance computed using the lower iteration limit.
+   * @param deeper Request identical to this instance's, except for its higher iteration limit.
+   * @return New worker for the same fractal and tile which deepens the prior results.
+   */
+  public ComputeFractal deepen(WorkerResult prior, RenderRequest deeper) {
+    ComputeFractal retVal = create(deeper);
+    retVal.setTile(firstRow, tileRows, firstColumn, tileColumns);
+    retVal.previous = prior;
+    return retVal;
+  }
+
+  /**
+   * @return the index of the first row in this instance's tile
+   */
+  public int getFirstRow() {
+    return firstRow;
+  }
+
+  /**
+   * @return the number of rows in this instance's tile
+   */
+  public int getTileRows() {
+    return tileRows;
+  }
+
+  /**
+   * @return the index of the first column in this instance's tile
+   */
+  public int getFirstColumn() {
+    return firstColumn;
+  }
+
+  /**
+   * @return the number of columns in this instance's tile
+   */
+  public int getTileColumns() {
+    return tileColumns;
+  }
+
+  /**
+   * Create a worker which computes the fractal described by the given request.
+   *
+   * @param request Settings of the fractal to be generated.
+   * @return New worker computing the fractal; its tile must still be set.
+   */
+  public static ComputeFractal create(RenderRequest request) {
+    FractalOption formula = request.getFormula();
+    if (formula.isCustom()) {
+      return new CustomFormula(formula.getKernel(), request);
+    } else if (formula == FractalOption.BurningShip) {
+      return getBurningShip(request);
+    } else if (formula == FractalOption.JuliaSet) {
+      return getJuliaSet(request);
+    } else if (formula == FractalOption.Multibrot) {
+      return getMultibrotSet(request);
+    }
+    return getMandelbrotSet(request);
+  }
+
+  public static ComputeFractal getBurningShip(RenderRequest request) {
+    return new BurningShip(request);
+  }
+
+  public static ComputeFractal getJuliaSet(RenderRequest request) {
+
+    return new JuliaSet(-0.726895347709114071439, 0.188887129043845954792, request);
+  }
+
+  public static ComputeFractal getMandelbrotSet(RenderRequest request) {
+    return new MandlebrotSet(request);
+  }
+
+  public static ComputeFractal getMultibrotSet(RenderRequest request) {
+    return new Multibrot(request);
+
+  }
+
+  private double distance(double x, double y) {
+    return Math.pow(x, 2) + Math.pow(y, 2);
+  }
+
+  /**
+   * Estimate the cost of computing each region of the fractal by calculating the escape times of an evenly-spaced grid
+   * of points. This ignores the tile assigned to this instance and samples the entire fractal.
+   *
+   * @param samplesPerSide Number of points sampled along each side of the fractal.
+   * @param limit Most iterations computed for each point.
+   * @return Estimated cost of each region; each entry is at least 1 so no region is treated as free.
+   */
+  public int[][] sampleCosts(int samplesPerSide, int limit) {
+    int[][] retVal = new int[samplesPerSide][samplesPerSide];
+    double stepX = (endX - startX) / samplesPerSide;
+    double stepY = (endY - startY) / samplesPerSide;
+    for (int i = 0; i < samplesPerSide; i++ ) {
+      // Sample the centre of each region.
+      double x0 = startX + (stepX * (i + 0.5));
+      for (int j = 0; j < samplesPerSide; j++ ) {
+        double y0 = startY + (stepY * (j + 0.5));
+        double x = x0;
+        double y = y0;
+        int steps = 1;
+        while ((steps <= limit) && (Math.sqrt(distance(x, y)) <= request.getEscapeValue())) {
+          steps += 1;
+          double xNext = computeNextX(x, y, x0, y0);
+          y = computeNextY(x, y, x0, y0);
+          x = xNext;
+        }
+        retVal[i][j] = steps;
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Calculate the escape time of a single point, using the same iteration as the tiles. This ignores the tile assigned
+   * to this instance and is used to sample points between the pixels.
+   *
+   * @param x0 Real part of the point.
+   * @param y0 Imaginary part of the point.
+   * @return Number of iterations before the point escaped, or the iteration limit if it did not escape.
+   */
+  public int computeEscape(double x0, double y0) {
+    final int limit = request.getMaxIterations();
+    final int escapeValue = request.getEscapeValue();
+    double x = x0;
+    double y = y0;
+    int steps = 0;
+    while ((steps < limit) && (Math.sqrt(distance(x, y)) <= escapeValue)) {
+      steps += 1;
+      double xNext = computeNextX(x, y, x0, y0);
+      y = computeNextY(x, y, x0, y0);
+      x = xNext;
+    }
+    return steps;
+  }
+
+  /**
+   * Free the results this worker was to continue unless it has already started using them. This must be called when the
+   * worker is cancelled, since a worker cancelled before it starts never runs and so would never free them.
+   */
+  public void discardPrevious() {
+    if ((previous != null) && previousClaimed.compareAndSet(false, true)) {
+      previous.release();
+    }
+  }
+
+  @Override
+  public WorkerResult doInBackground() {
+    // The earlier results may already have been discarded if this worker was cancelled before it started.
+    WorkerResult continued = previousClaimed.compareAndSet(false, true) ? previous : null;
+    if ((previous != null) && (continued == null)) {
+      return null;
+    }
+    // The buffer may already have been released if this tile was superseded before it started.
+    if (!escapes.tryRetain()) {
+      if (continued != null) {
+        continued.release();
+      }
+      return null;
+    }
+    TileEvent event = new TileEvent();
+    event.begin();
+    // Orbits are written straight into storage of the same kind as the escape times, so large fractals keep them off
+    // the heap without ever copying them.
+    OrbitBuffer orbits = OrbitBuffer.create(escapes.isOffHeap());
+    WorkerResult myResult = null;
+    try {
+      long startTime = System.nanoTime();
+      long iterations = 0;
+      int escaped = 0;
+      final int limit = request.getMaxIterations();
+      final int escapeValue = request.getEscapeValue();
+      // Only resume from earlier results when they used a lower limit; otherwise they cannot be reused.
+      WorkerResult prior = ((continued != null) && (continued.getIterationLimit() < limit)) ? continued : null;
+      int priorOrbit = 0;
+      double stepX = ((endX - startX) / (request.getRows() - 1));
+      double stepY = ((endY - startY) / (request.getColumns() - 1));
+      double x0 = startX + (stepX * firstRow);
+      for (int i = 0; i < tileRows; i++ ) {
+        // Stop working as soon as a newer request has pre-empted this tile.
+        if (isCancelled()) {
+          return null;
+        }
+        double y0 = startY + (stepY * firstColumn);
+        int idx = escapes.index(firstRow + i, firstColumn);
+        for (int j = 0; j < tileColumns; j++, idx++ ) {
+          double x = x0;
+          double y = y0;
+          int steps = 0;
+          if ((known != null) && known.get(idx)) {
+            y0 += stepY;
+            continue;
+          }
+          if (prior != null) {
+            steps = escapes.get(idx);
+            if (steps < prior.getIterationLimit()) {
+              // This pixel already escaped and so cannot change.
+              y0 += stepY;
+              continue;
+            }
+            x = prior.getOrbitX(priorOrbit);
+            y = prior.getOrbitY(priorOrbit);
+            priorOrbit++;
+          }
+          int startSteps = steps;
+          double dist = distance(x, y);
+          while ((steps < limit) && (Math.sqrt(dist) <= escapeValue)) {
+            steps += 1;
+            double xNext = computeNextX(x, y, x0, y0);
+            double yNext = computeNextY(x, y, x0, y0);
+            y = yNext;
+            x = xNext;
+            dist = distance(x, y);
+          }
+          escapes.set(idx, steps);
+          iterations += steps - startSteps;
+          // Save the orbit of any pixel which reached the limit so that it can be continued later.
+          if (steps == limit) {
+            orbits.add(x, y);
+          } else {
+            escaped++;
+          }
+          y0 += stepY;
+        }
+        x0 += stepX;
+      }
+      myResult = new WorkerResult(firstRow, firstColumn, tileRows, tileColumns, limit, orbits,
+                                  System.nanoTime() - startTime);
+      myResult.setStatistics(iterations, escaped, (submitTime == 0) ? 0 : (startTime - submitTime));
+      event.end();
+      if (event.shouldCommit()) {
+        event.formula = request.getFormula().name();
+        event.firstRow = firstRow;
+        event.firstColumn = firstColumn;
+        event.pixels = tileRows * tileColumns;
+        event.iterations = iterations;
+        event.escapedPixels = escaped;
+        event.queueTime = myResult.getQueueTime();
+        event.commit();
+      }
+      // Checking for cancellation only saves work; the frame number is what keeps a superseded tile off the image.
+      if ((raster != null) && !isCancelled()) {
+        raster.colorTile(escapes, myResult, frame);
+      }
+      return myResult;
+    } finally {
+      escapes.release();
+      // A worker stopped part way through never hands its orbits to anyone.
+      if (myResult == null) {
+        orbits.release();
+      }
+      // The earlier orbits have either been continued or abandoned, so they are no longer needed.
+      if (continued != null) {
+        continued.release();
+      }
+    }
+  }
+
+  public abstract double computeNextX(double x, double y, double x0, double y0);
+
+  public abstract double computeNextY(double x, double y, double x0, double y0);
+}
\ No newline at end of file
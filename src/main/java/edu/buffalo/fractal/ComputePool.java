@@ -0,0 +1,497 @@
+package edu.buffalo.fractal;
+
+import java.awt.image.IndexColorModel;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.swing.SwingWorker;
+
+/**
+ * This class is used to manage sets of tasks that should be executed in parallel. In particular, it makes it much
+ * simpler to perform a set of related operations.
+ *
+ * @author Matthew Hertz
+ */
+public class ComputePool implements PropertyChangeListener {
+
+  /**
+   * Fractals with at least this many pixels store their escape times and orbits outside of the Java heap, so that very
+   * large renders neither inflate the heap nor lengthen garbage collection pauses.
+   */
+  public static final long OFF_HEAP_PIXELS = 4096L * 4096L;
+
+  /** Number of tiles along each side of the fractal; each tile is computed by its own worker. */
+  private static final int TILES_PER_SIDE = 8;
+
+  /**
+   * Number of tiles along each side of the fractal when each tile runs on its own virtual thread. Such fine tiles would
+   * swamp the small pool of threads used by SwingWorker, or any other pool of platform threads, but are cheap when each
+   * tile gets a virtual thread.
+   */
+  private static final int FINE_TILES_PER_SIDE = 32;
+
+  /** Enumeration of the ways in which the workers can be executed. */
+  public enum ExecutionMode {
+    /** Run the workers using SwingWorker's own pool of threads. */
+    SWING_WORKER,
+    /**
+     * Run each worker on its own virtual thread, with a semaphore limiting the number computing at once to the number
+     * of cores. Runtimes without virtual threads instead share a pool with a platform thread for each core.
+     */
+    THREAD_PER_TILE;
+  }
+
+  /** How the workers are executed. */
+  private ExecutionMode mode;
+
+  /**
+   * Limits the number of workers computing at once when each runs on its own thread. Permits are granted fairly, so
+   * workers start in the order they were submitted and the tiles nearest the focus are still computed first.
+   */
+  private final Semaphore cpuPermits;
+
+  /** Settings of the fractal most recently submitted. */
+  private RenderRequest currentRequest;
+
+  /**
+   * Panel used to display the fractal. This receives updates as soon as the workers complete.
+   */
+  private FractalPanel thePanel;
+
+  /**
+   * This records the fractal data as it is completed by the worker threads. The workers write their escape times
+   * directly into this buffer.
+   */
+  private EscapeBuffer generatedFractal;
+
+  /** Timing information recorded for the fractal most recently submitted. */
+  private FrameMetrics metrics;
+
+  /** Tasks submitted to the class to be executed as soon as possible. */
+  private ArrayList<ComputeFractal> submittedTasks;
+
+  /** Tasks from the current fractal which have completed; these are kept so that the fractal can later be deepened. */
+  private ArrayList<ComputeFractal> completedTasks;
+
+
+  /**
+   * Row of the fractal around which work is prioritized. A negative value means the tiles nearest the centre of the
+   * view are computed first.
+   */
+  private int focusRow;
+
+  /** Column of the fractal around which work is prioritized; only meaningful when {@link #focusRow} is not negative. */
+  private int focusColumn;
+
+  /**
+   * Create a new instance of this class that is ready to accept jobs to execute in parallel. This also takes in the
+   * panel to be updated whenever we completely calculate a fractal.
+   */
+  public ComputePool() {
+    // Create the space where we record all of the executing tasks.
+    submittedTasks = new ArrayList<>();
+    completedTasks = new ArrayList<>();
+    focusRow = -1;
+    mode = ExecutionMode.SWING_WORKER;
+    cpuPermits = new Semaphore(Runtime.getRuntime().availableProcessors(), true);
+  }
+
+  /**
+   * Specify how the workers will be executed. This takes effect with the next fractal that is generated.
+   *
+   * @param newMode Way in which the workers should be executed.
+   */
+  public void setExecutionMode(ExecutionMode newMode) {
+    mode = newMode;
+  }
+
+  /**
+   * @return how the workers are executed
+   */
+  public ExecutionMode getExecutionMode() {
+    return mode;
+  }
+
+  /**
+   * Specify the point in the fractal whose surrounding tiles should be computed first (e.g., the location of the
+   * mouse). This is used by the next call to {@link #generateFractal(RenderRequest)}.
+   *
+   * @param row Row of the fractal on which to focus.
+   * @param column Column of the fractal on which to focus.
+   */
+  public void setFocus(int row, int column) {
+    focusRow = row;
+    focusColumn = column;
+  }
+
+  /**
+   * Return to the default ordering in which the tiles in the centre of the view are computed first.
+   */
+  public void clearFocus() {
+    focusRow = -1;
+  }
+
+  /**
+   * This methods allows the program to change the instance of FractalPanel which will be updated when a fractal
+   * finishes generating.
+   *
+   * @param newPanel The new instance of FractalPanel used to display the fractal.
+   */
+  public void changePanel(FractalPanel newPanel) {
+    thePanel = newPanel;
+  }
+
+  /**
+   * Return the timing information recorded while generating the most recent fractal. This includes the frame's tail
+   * latency so the effectiveness of the tile partitioning can be monitored.
+   *
+   * @return Timing information for the most recently submitted fractal or null if no fractal has been submitted.
+   */
+  public FrameMetrics getFrameMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Clear the pool of any requests in preparation for a new set of tasks to perform. This will stop performing any
+   * on-going computations and cancel any requests for tasks that have not been completed.
+   */
+  public void clearPool() {
+    for (ComputeFractal task : submittedTasks) {
+      task.cancel(true);
+      task.discardPrevious();
+    }
+    submittedTasks.clear();
+    releaseCompletedTasks();
+    if (generatedFractal != null) {
+      generatedFractal.release();
+      generatedFractal = null;
+    }
+    currentRequest = null;
+  }
+
+  /**
+   * Free the orbits saved by the tasks which completed the current fractal and forget those tasks.
+   */
+  private void releaseCompletedTasks() {
+    for (ComputeFractal task : completedTasks) {
+      try {
+        task.get().release();
+      } catch (InterruptedException | ExecutionException e) {
+        // Only tasks which completed successfully are recorded, so this cannot happen.
+      }
+    }
+    completedTasks.clear();
+  }
+
+  /**
+   * Count the workers for the current fractal which are computing their tiles. Workers still waiting to be run are not
+   * included, nor are workers which have finished but whose results have not yet been recorded.
+   *
+   * @return the number of workers for the current fractal which have started but not yet finished
+   */
+  public int getRunningTiles() {
+    int running = 0;
+    for (ComputeFractal task : submittedTasks) {
+      if (task.getState() == SwingWorker.StateValue.STARTED) {
+        running++;
+      }
+    }
+    return running;
+  }
+
+  /**
+   * Return whether every tile of the current fractal has been computed.
+   *
+   * @return True if a fractal has been submitted and all of its escape times are known; false otherwise.
+   */
+  public boolean isComplete() {
+    return (generatedFractal != null) && submittedTasks.isEmpty();
+  }
+
+  /**
+   * Color the current fractal again using the panel's current color model. The escape times already calculated are
+   * reused, so this is far faster than generating the fractal again.
+   *
+   * @return True if the fractal was recolored; false if it is not complete and must be generated instead.
+   */
+  public boolean recolorFractal() {
+    if (!isComplete()) {
+      return false;
+    }
+    FractalRaster raster = thePanel.getRaster(generatedFractal.getRows(), generatedFractal.getColumns());
+    // Tiles of any superseded frame which are still running must not paint over these colors.
+    raster.startFrame();
+    raster.colorAll(generatedFractal, currentRequest.getMaxIterations());
+    thePanel.repaint();
+    return true;
+  }
+
+  /**
+   * Stop generating the current fractal and instead display escape times which were already calculated (e.g., those
+   * loaded from an {@link EscapeMap}).
+   *
+   * @param request Settings of the fractal whose escape times are being displayed.
+   * @param escapes Buffer holding the fractal's escape times. The pool takes ownership of this buffer.
+   */
+  public void showFractal(RenderRequest request, EscapeBuffer escapes) {
+    clearPool();
+    currentRequest = request;
+    generatedFractal = escapes;
+    metrics = null;
+    thePanel.setFrameMetrics(null);
+    recolorFractal();
+  }
+
+  /**
+   * Save the escape times of the current fractal to disk without blocking the calling thread. This is only possible once
+   * every tile has been computed.
+   *
+   * @param file File to which the escape times should be written.
+   * @return Worker which reports whether the escape times were saved, or null if the fractal is not complete.
+   */
+  public SwingWorker<Boolean, Void> saveEscapeMap(final File file) {
+    if (!isComplete() || !generatedFractal.tryRetain()) {
+      return null;
+    }
+    final RenderRequest request = currentRequest;
+    final EscapeBuffer escapes = generatedFractal;
+    SwingWorker<Boolean, Void> retVal = new SwingWorker<Boolean, Void>() {
+      @Override
+      protected Boolean doInBackground() {
+        try {
+          EscapeMap.save(file, request, escapes);
+          return true;
+        } catch (IOException e) {
+          System.err.println("ERROR: Could not save the escape times");
+          e.printStackTrace();
+          System.err.println();
+          return false;
+        } finally {
+          escapes.release();
+        }
+      }
+    };
+    retVal.execute();
+    return retVal;
+  }
+
+  /**
+   * Save an anti-aliased copy of the current fractal to disk without blocking the calling thread. The pixels along the
+   * fractal's edges are supersampled by an {@link EdgeSupersampler}, so this is only possible once every tile has been
+   * computed.
+   *
+   * @param format Format in which the file should be saved.
+   * @param fileName Full name, including path information but no extension, of the file to which the image should be
+   *          saved.
+   * @param factor Number of samples along each side of an edge pixel.
+   * @return Worker which reports whether the image was saved, or null if the fractal is not complete.
+   */
+  public SwingWorker<Boolean, Void> saveAntialiasedImage(final FractalPanel.SaveFormat format, final String fileName,
+                                                         final int factor) {
+    if (!isComplete() || !generatedFractal.tryRetain()) {
+      return null;
+    }
+    final RenderRequest request = currentRequest;
+    final EscapeBuffer escapes = generatedFractal;
+    final IndexColorModel colors = thePanel.getIndexColorModel();
+    SwingWorker<Boolean, Void> retVal = new SwingWorker<Boolean, Void>() {
+      @Override
+      protected Boolean doInBackground() {
+        try {
+          // Color a separate image, so the one on screen is left untouched.
+          FractalRaster raster = FractalRaster.create(request.getRows(), request.getColumns(), colors);
+          raster.colorAll(escapes, request.getMaxIterations());
+          EdgeSupersampler.supersample(request, escapes, raster, factor, Runtime.getRuntime().availableProcessors());
+          BatchRenderer.writeImage(raster, format, new File(fileName + "." + format.name().toLowerCase()));
+          return true;
+        } catch (IOException | InterruptedException | ExecutionException e) {
+          System.err.println("ERROR: Could not output fractal image");
+          e.printStackTrace();
+          System.err.println();
+          return false;
+        } finally {
+          escapes.release();
+        }
+      }
+    };
+    retVal.execute();
+    return retVal;
+  }
+
+  /**
+   * Return whether the current fractal can be deepened to produce the given fractal. This is only possible once every
+   * tile has been completed and when the new fractal differs only by using a higher iteration limit.
+   *
+   * @param deeper Settings of the fractal which is needed.
+   * @return True if {@link #deepenFractal(RenderRequest)} can reuse the current results; false otherwise.
+   */
+  public boolean canDeepen(RenderRequest deeper) {
+    return submittedTasks.isEmpty() && !completedTasks.isEmpty() && deeper.sameViewAs(currentRequest) &&
+           (deeper.getMaxIterations() > currentRequest.getMaxIterations());
+  }
+
+  /**
+   * Continue calculating the current fractal after the iteration limit was raised. Pixels which already escaped keep
+   * their escape times and only those which had not escaped are iterated further, so the work required is proportional
+   * to the fractal's interior rather than the entire image.
+   *
+   * @param deeper Settings of the fractal which is needed; this must differ only by using a higher iteration limit.
+   * @return True if the fractal is being deepened; false if it could not be and must be generated from scratch.
+   */
+  public boolean deepenFractal(RenderRequest deeper) {
+    if (!canDeepen(deeper)) {
+      return false;
+    }
+    ComputeFractal[] continuations = new ComputeFractal[completedTasks.size()];
+    try {
+      for (int i = 0; i < continuations.length; i++ ) {
+        ComputeFractal task = completedTasks.get(i);
+        continuations[i] = task.deepen(task.get(), deeper);
+      }
+    } catch (InterruptedException | ExecutionException e) {
+      // The tasks have all completed successfully, so this cannot happen.
+      return false;
+    }
+    completedTasks.clear();
+    // Keep the escape times already calculated, but make certain the buffer can hold the new limit.
+    EscapeBuffer widened = generatedFractal.widen(deeper.getMaxIterations());
+    if (widened != generatedFractal) {
+      generatedFractal.release();
+      generatedFractal = widened;
+    }
+    currentRequest = deeper;
+    submitTiles(continuations);
+    return true;
+  }
+
+  /**
+   * Start generating the given fractal. The fractal is split into tiles sized, using a coarse sampling of the fractal,
+   * so that each takes about the same time to compute. The tiles are then added to the list of tasks that should be
+   * completed by this worker pool in order of their distance from the focus point, so the area of interest is completed
+   * first.
+   *
+   * @param request Settings of the fractal to generate.
+   */
+  public void generateFractal(RenderRequest request) {
+    int[][] costs = ComputeFractal.create(request).sampleCosts(TilePartitioner.SAMPLES_PER_SIDE,
+                                                               Math.min(request.getMaxIterations(),
+                                                                        TilePartitioner.SAMPLE_ITERATIONS));
+    // Without virtual threads, each tile runs on a pool of platform threads and fine tiles would only add overhead.
+    boolean fine = (mode == ExecutionMode.THREAD_PER_TILE) && VirtualThreads.isAvailable();
+    int tilesPerSide = fine ? FINE_TILES_PER_SIDE : TILES_PER_SIDE;
+    Tile[] tiles = TilePartitioner.partition(costs, request.getRows(), request.getColumns(), tilesPerSide);
+    ComputeFractal[] instances = new ComputeFractal[tiles.length];
+    for (int i = 0; i < instances.length; i++ ) {
+      instances[i] = ComputeFractal.create(request);
+      instances[i].setTile(tiles[i].getFirstRow(), tiles[i].getRows(), tiles[i].getFirstColumn(),
+                           tiles[i].getColumns());
+    }
+    generateFractal(request, instances);
+  }
+
+  /**
+   * Add the given job to the end of the list of tasks that should be completed by this worker pool. Tiles are submitted
+   * in order of their distance from the focus point, so the area of interest is completed first.
+   *
+   * @param request Settings of the fractal being generated.
+   * @param instances Array of the workers that will actually generate the fractal. This adds information so that it can
+   *          track each worker instance and then tells it to start executing. This insures we process the data in a
+   *          thread-safe manner.
+   */
+  public void generateFractal(RenderRequest request, ComputeFractal[] instances) {
+    currentRequest = request;
+    boolean offHeap = ((long) request.getRows() * request.getColumns()) >= OFF_HEAP_PIXELS;
+    if (!offHeap) {
+      // Memory kept for very large frames would otherwise stay allocated for as long as the program runs.
+      BufferPool.trim();
+    }
+    generatedFractal = EscapeBuffer.create(request.getRows(), request.getColumns(), request.getMaxIterations(),
+                                           offHeap);
+    submitTiles(instances);
+  }
+
+  /**
+   * Start executing the workers for the current fractal, nearest the focus point first. Each worker writes into the
+   * buffer holding the current fractal.
+   *
+   * @param instances Workers which will compute the tiles of the current fractal.
+   */
+  private void submitTiles(ComputeFractal[] instances) {
+    metrics = new FrameMetrics(instances.length);
+    thePanel.setFrameMetrics(metrics);
+    final int centerRow = (focusRow < 0) ? (generatedFractal.getRows() / 2) : focusRow;
+    final int centerColumn = (focusRow < 0) ? (generatedFractal.getColumns() / 2) : focusColumn;
+    ComputeFractal[] ordered = Arrays.copyOf(instances, instances.length);
+    Arrays.sort(ordered, new Comparator<ComputeFractal>() {
+      @Override
+      public int compare(ComputeFractal a, ComputeFractal b) {
+        return Long.compare(distanceToTile(a, centerRow, centerColumn), distanceToTile(b, centerRow, centerColumn));
+      }
+    });
+    FractalRaster raster = thePanel.getRaster(generatedFractal.getRows(), generatedFractal.getColumns());
+    // Tiles of the superseded frame may still be running; starting a new frame stops them coloring the image.
+    raster.startFrame();
+    for (ComputeFractal instance : ordered) {
+      instance.setBuffer(generatedFractal);
+      instance.setRaster(raster);
+      submittedTasks.add(instance);
+      instance.addPropertyChangeListener(this);
+      instance.markSubmitted();
+      if (mode == ExecutionMode.THREAD_PER_TILE) {
+        // SwingWorker is itself a task, so running it on another thread still notifies us on the event dispatch thread.
+        VirtualThreads.perTaskExecutor().execute(VirtualThreads.bounded(cpuPermits, instance));
+      } else {
+        instance.execute();
+      }
+    }
+  }
+
+  /**
+   * Compute the squared distance between the centre of a worker's tile and the given point in the fractal.
+   *
+   * @param tile Worker whose tile is being measured.
+   * @param row Row of the point being measured against.
+   * @param column Column of the point being measured against.
+   * @return Squared distance, in pixels, from the centre of the tile to the point.
+   */
+  private static long distanceToTile(ComputeFractal tile, int row, int column) {
+    long dRow = (tile.getFirstRow() + (tile.getTileRows() / 2)) - row;
+    long dColumn = (tile.getFirstColumn() + (tile.getTileColumns() / 2)) - column;
+    return (dRow * dRow) + (dColumn * dColumn);
+  }
+
+  /**
+   * Triggered whenever a process completes its calculations. This records the completed worker and repaints the tile it
+   * has already colored into the panel's image, so that the image is refined as the workers finish.
+   *
+   * @param evt PropertyChangeEvent instance detailing what has just happened.
+   */
+  @Override
+  public void propertyChange(PropertyChangeEvent evt) {
+    // The following typecast is safe because this class is listening to property changes from exactly one type of
+    // object.
+    ComputeFractal updated = (ComputeFractal) evt.getSource();
+    // Remove the completed SwingWorker from the list of active workers. Workers which finished after being replaced by a
+    // newer request are no longer in the list and are ignored.
+    if (updated.isDone() && !updated.isCancelled() && submittedTasks.remove(updated)) {
+      try {
+        WorkerResult val = updated.get();
+        completedTasks.add(updated);
+        thePanel.repaintTile(generatedFractal.getRows(), generatedFractal.getColumns(), val);
+        metrics.tileCompleted(val);
+      } catch (InterruptedException e) {
+        // This can never happen, but is needed for compilation.
+      } catch (ExecutionException e) {
+        System.err.println("Oops. There was an error in generating this fractal.");
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package edu.buffalo.fractal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocates and frees memory outside of the Java heap. Very large fractals keep their escape times and orbits here so
+ * that they neither inflate the heap nor lengthen garbage collection pauses. Memory allocated by this class is freed
+ * as soon as {@link #free(ByteBuffer)} is called rather than waiting for the garbage collector to notice the buffer is
+ * unreachable.
+ *
+ * @author Matthew Hertz
+ */
+final class DirectMemory {
+
+  /** Instance of sun.misc.Unsafe used to free buffers or null when it is not available. */
+  private static final Object UNSAFE;
+
+  /** Method which immediately frees a direct buffer or null when it is not available. */
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method cleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+      cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Older JVMs cannot free buffers explicitly, so we leave it to the garbage collector.
+      unsafe = null;
+      cleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = cleaner;
+  }
+
+  private DirectMemory() {
+  }
+
+  /**
+   * Allocate a new block of memory outside of the heap. The memory is initially filled with zeroes.
+   *
+   * @param bytes Size, in bytes, of the block to allocate.
+   * @return Buffer covering the newly allocated memory, using the platform's native byte order.
+   */
+  public static ByteBuffer allocate(int bytes) {
+    return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Immediately free memory returned by {@link #allocate(int)}. The buffer must not be used after this is called.
+   *
+   * @param buffer Buffer whose memory should be freed.
+   */
+  public static void free(ByteBuffer buffer) {
+    if ((INVOKE_CLEANER != null) && (buffer != null) && buffer.isDirect()) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // The garbage collector will free the memory once the buffer is unreachable.
+      }
+    }
+  }
+}
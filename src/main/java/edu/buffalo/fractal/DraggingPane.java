@@ -65,34 +65,34 @@ public class DraggingPane extends JComponent implements MouseInputListener {
    */
   public void mouseReleased(MouseEvent e) {
     inDrag = false;
-    FractalOption active = daddy.getActive();
+    RenderRequest active = daddy.getActive();
     if ((active != null) && (start != null) && (current != null)) {
       double init = active.getStartX();
       double end = active.getEndX();
-      double newStart;
-      double newEnd;
+      double newStartX;
+      double newEndX;
       if (start.x < current.x) {
-        newStart = init + (((end - init) / getWidth()) * start.x);
-        newEnd = init + (((end - init) / getWidth()) * current.x);
+        newStartX = init + (((end - init) / getWidth()) * start.x);
+        newEndX = init + (((end - init) / getWidth()) * current.x);
       } else {
-        newStart = init + (((end - init) / getWidth()) * current.x);
-        newEnd = init + (((end - init) / getWidth()) * start.x);
+        newStartX = init + (((end - init) / getWidth()) * current.x);
+        newEndX = init + (((end - init) / getWidth()) * start.x);
       }
 
-      active.setStartX(newStart);
-      active.setEndX(newEnd);
       init = active.getStartY();
       end = active.getEndY();
+      double newStartY;
+      double newEndY;
       if (start.y < current.y) {
-        newStart = init + (((end - init) / getHeight()) * start.y);
-        newEnd = init + (((end - init) / getHeight()) * current.y);
+        newStartY = init + (((end - init) / getHeight()) * start.y);
+        newEndY = init + (((end - init) / getHeight()) * current.y);
       } else {
-        newStart = init + (((end - init) / getHeight()) * current.y);
-        newEnd = init + (((end - init) / getHeight()) * start.y);
+        newStartY = init + (((end - init) / getHeight()) * current.y);
+        newEndY = init + (((end - init) / getHeight()) * start.y);
       }
-      active.setStartY(newStart);
-      active.setEndY(newEnd);
-      daddy.switchTask(active);
+      // The whole of the new view is of interest, so compute it from the centre outward.
+      daddy.clearFocus();
+      daddy.switchTask(active.withBounds(newStartX, newStartY, newEndX, newEndY));
     }
 
     repaint();
@@ -172,12 +172,26 @@ public class DraggingPane extends JComponent implements MouseInputListener {
     // Do nothing
   }
 
+  /**
+   * Called when the mouse leaves the pane. Any later fractal will be computed from the centre of the view outward.
+   *
+   * @param arg0 Instance describing the mouse leaving.
+   */
   public void mouseExited(MouseEvent arg0) {
-    // Do nothing
-
+    daddy.clearFocus();
   }
 
-  public void mouseMoved(MouseEvent arg0) {
-    // Do nothing
+  /**
+   * Called when the mouse moves over the pane. This records the cursor location so that the region around it is
+   * computed first the next time the fractal is generated.
+   *
+   * @param e Instance describing the mouse being moved.
+   */
+  public void mouseMoved(MouseEvent e) {
+    Point location = e.getLocationOnScreen();
+    SwingUtilities.convertPointFromScreen(location, this);
+    if ((location.x >= 0) && (location.x < getWidth()) && (location.y >= 0) && (location.y < getHeight())) {
+      daddy.focusOn(location.x, location.y, getWidth(), getHeight());
+    }
   }
 }
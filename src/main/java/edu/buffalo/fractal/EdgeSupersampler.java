@@ -0,0 +1,171 @@
+package edu.buffalo.fractal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Anti-aliases a colored fractal by supersampling only the pixels along its edges. Supersampling every pixel multiplies
+ * the cost of a fractal by the number of samples per pixel, yet almost all of the aliasing occurs where neighbouring
+ * pixels have very different colors. The escape times already computed for the pixel grid are used to find those
+ * pixels, and only they are recomputed as the average of a grid of samples covering the pixel. Smooth gradients, where
+ * neighbours differ by a single color, and solid regions keep their original colors.
+ *
+ * @author Matthew Hertz
+ */
+public class EdgeSupersampler {
+  /** Number of samples taken along each side of an edge pixel when no other number is specified. */
+  public static final int DEFAULT_FACTOR = 4;
+
+  /** Number of pixels supersampled by each task; small enough to balance the load between the threads. */
+  private static final int PIXELS_PER_TASK = 4096;
+
+  /**
+   * Return whether two neighbouring pixels differ enough to form an edge. Adjacent palette entries blend smoothly, but
+   * any change between the interior color and an escape color is an edge.
+   *
+   * @param a Palette index of one pixel.
+   * @param b Palette index of its neighbour.
+   * @param interior Palette index used for pixels which never escaped.
+   * @return True if the pixels should be supersampled; false otherwise.
+   */
+  private static boolean isEdge(int a, int b, int interior) {
+    if (a == b) {
+      return false;
+    }
+    return (a == interior) || (b == interior) || (Math.abs(a - b) > 1);
+  }
+
+  /**
+   * Find the pixels whose colors differ sharply from a neighbour's. The pixels on both sides of each such boundary are
+   * included.
+   *
+   * @param escapes Buffer holding the escape times of the fractal.
+   * @param limit Iteration limit used when calculating the escape times.
+   * @param paletteSize Number of colors in the palette used to color the fractal.
+   * @return Index, counting along each row of the fractal in turn, of every pixel which should be supersampled.
+   */
+  static int[] findEdges(EscapeBuffer escapes, int limit, int paletteSize) {
+    int rows = escapes.getRows();
+    int columns = escapes.getColumns();
+    int interior = paletteSize - 1;
+    boolean[] marked = new boolean[rows * columns];
+    int[] above = new int[columns];
+    int[] current = new int[columns];
+    int count = 0;
+    for (int row = 0; row < rows; row++ ) {
+      int idx = escapes.index(row, 0);
+      for (int col = 0; col < columns; col++, idx++ ) {
+        current[col] = FractalRaster.paletteIndex(escapes.get(idx), limit, paletteSize);
+      }
+      int base = row * columns;
+      for (int col = 0; col < columns; col++ ) {
+        boolean left = (col > 0) && isEdge(current[col - 1], current[col], interior);
+        boolean up = (row > 0) && isEdge(above[col], current[col], interior);
+        if (left || up) {
+          if (!marked[base + col]) {
+            marked[base + col] = true;
+            count++;
+          }
+          if (left && !marked[(base + col) - 1]) {
+            marked[(base + col) - 1] = true;
+            count++;
+          }
+          if (up && !marked[(base + col) - columns]) {
+            marked[(base + col) - columns] = true;
+            count++;
+          }
+        }
+      }
+      int[] swap = above;
+      above = current;
+      current = swap;
+    }
+    int[] retVal = new int[count];
+    int filled = 0;
+    for (int i = 0; i < marked.length; i++ ) {
+      if (marked[i]) {
+        retVal[filled++] = i;
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Replace the color of each pixel along the fractal's edges with the average color of a grid of samples covering the
+   * pixel. The raster must already have been colored from the escape times, e.g., by
+   * {@link FractalRaster#colorAll(EscapeBuffer, int)}.
+   *
+   * @param request Settings used to calculate the escape times.
+   * @param escapes Buffer holding the escape times of the fractal.
+   * @param raster Image of the fractal, which is modified in place.
+   * @param factor Number of samples along each side of a pixel; 1 leaves the image unchanged.
+   * @param numThreads Number of threads computing the samples.
+   * @return Number of pixels which were supersampled.
+   * @throws InterruptedException Thrown if the calling thread was interrupted while waiting for the samples.
+   * @throws ExecutionException Thrown if computing the samples failed.
+   */
+  public static int supersample(RenderRequest request, EscapeBuffer escapes, final FractalRaster raster,
+                                final int factor, int numThreads) throws InterruptedException, ExecutionException {
+    if (factor <= 1) {
+      return 0;
+    }
+    final int[] palette = raster.getPalette();
+    final int limit = request.getMaxIterations();
+    final int[] edges = findEdges(escapes, limit, palette.length);
+    final int columns = request.getColumns();
+    final ComputeFractal formula = ComputeFractal.create(request);
+    final double startX = request.getStartX();
+    final double startY = request.getStartY();
+    final double stepX = (request.getEndX() - request.getStartX()) / (request.getRows() - 1);
+    final double stepY = (request.getEndY() - request.getStartY()) / (columns - 1);
+    ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int first = 0; first < edges.length; first += PIXELS_PER_TASK) {
+        final int from = first;
+        final int to = Math.min(edges.length, first + PIXELS_PER_TASK);
+        tasks.add(threads.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            int[] pixels = raster.getPixels();
+            int scanline = raster.getScanline();
+            int samples = factor * factor;
+            for (int e = from; e < to; e++ ) {
+              int row = edges[e] / columns;
+              int col = edges[e] % columns;
+              // Spread the samples evenly across the square centred on the pixel's own point.
+              double x = (startX + (stepX * row)) - (stepX * 0.5);
+              double y = (startY + (stepY * col)) - (stepY * 0.5);
+              int red = 0;
+              int green = 0;
+              int blue = 0;
+              for (int i = 0; i < factor; i++ ) {
+                double x0 = x + ((stepX * (i + 0.5)) / factor);
+                for (int j = 0; j < factor; j++ ) {
+                  double y0 = y + ((stepY * (j + 0.5)) / factor);
+                  int rgb = palette[FractalRaster.paletteIndex(formula.computeEscape(x0, y0), limit, palette.length)];
+                  red += (rgb >> 16) & 0xFF;
+                  green += (rgb >> 8) & 0xFF;
+                  blue += rgb & 0xFF;
+                }
+              }
+              pixels[(col * scanline) + row] = ((red / samples) << 16) | ((green / samples) << 8) | (blue / samples);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> task : tasks) {
+        task.get();
+      }
+      return edges.length;
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+}
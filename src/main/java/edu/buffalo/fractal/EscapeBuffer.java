@@ -0,0 +1,390 @@
+package edu.buffalo.fractal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contiguous storage for the escape times of an entire fractal. Rather than an array of row arrays, every escape time is
+ * held in a single primitive array, row by row, so that the workers can write their tiles directly into the frame and
+ * readers can walk it using stride arithmetic. To save memory, each buffer uses the narrowest type (byte, short, or
+ * int) that can hold the iteration limit it was created for. Very large fractals can instead be stored outside of the
+ * Java heap.
+ * <p>
+ * Each buffer counts the number of users it has. It is created with a single user (its owner) and any worker which
+ * writes into it must first call {@link #tryRetain()}. Once every user has called {@link #release()}, the buffer's
+ * storage is returned to the {@link BufferPool} so that the next frame of the same size can reuse it.
+ *
+ * @author Matthew Hertz
+ */
+public abstract class EscapeBuffer {
+
+  /**
+   * Buffer which uses one byte for each escape time.
+   *
+   * @author Matthew Hertz
+   */
+  private static class ByteEscapes extends EscapeBuffer {
+    /** Escape times, stored row by row. */
+    private final byte[] data;
+
+    public ByteEscapes(int rows, int columns) {
+      super(rows, columns, BYTE_MAX);
+      data = BufferPool.takeBytes(rows * columns);
+    }
+
+    @Override
+    public int get(int index) {
+      return data[index] & BYTE_MAX;
+    }
+
+    @Override
+    public void set(int index, int value) {
+      data[index] = (byte) value;
+    }
+
+    @Override
+    public int getBytesPerPixel() {
+      return 1;
+    }
+
+    @Override
+    protected void free() {
+      BufferPool.give(data);
+    }
+  }
+
+  /**
+   * Buffer which uses two bytes for each escape time.
+   *
+   * @author Matthew Hertz
+   */
+  private static class ShortEscapes extends EscapeBuffer {
+    /** Escape times, stored row by row. */
+    private final short[] data;
+
+    public ShortEscapes(int rows, int columns) {
+      super(rows, columns, SHORT_MAX);
+      data = BufferPool.takeShorts(rows * columns);
+    }
+
+    @Override
+    public int get(int index) {
+      return data[index] & SHORT_MAX;
+    }
+
+    @Override
+    public void set(int index, int value) {
+      data[index] = (short) value;
+    }
+
+    @Override
+    public int getBytesPerPixel() {
+      return 2;
+    }
+
+    @Override
+    protected void free() {
+      BufferPool.give(data);
+    }
+  }
+
+  /**
+   * Buffer which uses four bytes for each escape time.
+   *
+   * @author Matthew Hertz
+   */
+  private static class IntEscapes extends EscapeBuffer {
+    /** Escape times, stored row by row. */
+    private final int[] data;
+
+    public IntEscapes(int rows, int columns) {
+      super(rows, columns, Integer.MAX_VALUE);
+      data = BufferPool.takeInts(rows * columns);
+    }
+
+    @Override
+    public int get(int index) {
+      return data[index];
+    }
+
+    @Override
+    public void set(int index, int value) {
+      data[index] = value;
+    }
+
+    @Override
+    public int getBytesPerPixel() {
+      return 4;
+    }
+
+    @Override
+    protected void free() {
+      BufferPool.give(data);
+    }
+  }
+
+  /**
+   * Buffer whose escape times are held outside of the Java heap. The memory is split into chunks so that frames needing
+   * more than 2GB can be stored.
+   *
+   * @author Matthew Hertz
+   */
+  private static class OffHeapEscapes extends EscapeBuffer {
+    /** Base-2 logarithm of the number of bytes in each chunk. */
+    private static final int CHUNK_SHIFT = 30;
+
+    /** Mask used to find the offset of a byte within its chunk. */
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    /** Memory holding the escape times, stored row by row. */
+    private final ByteBuffer[] chunks;
+
+    /** Number of bytes used to store each escape time. */
+    private final int width;
+
+    public OffHeapEscapes(int rows, int columns, int limit) {
+      super(rows, columns, (limit <= BYTE_MAX) ? BYTE_MAX : ((limit <= SHORT_MAX) ? SHORT_MAX : Integer.MAX_VALUE));
+      width = (limit <= BYTE_MAX) ? 1 : ((limit <= SHORT_MAX) ? 2 : 4);
+      long bytes = (long) rows * columns * width;
+      chunks = new ByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT)];
+      for (int i = 0; i < chunks.length; i++ ) {
+        chunks[i] = BufferPool.takeDirect((int) Math.min(bytes - ((long) i << CHUNK_SHIFT), 1L << CHUNK_SHIFT));
+      }
+    }
+
+    @Override
+    public int get(int index) {
+      long offset = (long) index * width;
+      ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+      int pos = (int) (offset & CHUNK_MASK);
+      switch (width) {
+        case 1:
+          return chunk.get(pos) & BYTE_MAX;
+        case 2:
+          return chunk.getShort(pos) & SHORT_MAX;
+        default:
+          return chunk.getInt(pos);
+      }
+    }
+
+    @Override
+    public void set(int index, int value) {
+      long offset = (long) index * width;
+      ByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+      int pos = (int) (offset & CHUNK_MASK);
+      switch (width) {
+        case 1:
+          chunk.put(pos, (byte) value);
+          break;
+        case 2:
+          chunk.putShort(pos, (short) value);
+          break;
+        default:
+          chunk.putInt(pos, value);
+          break;
+      }
+    }
+
+    @Override
+    public int getBytesPerPixel() {
+      return width;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+      return true;
+    }
+
+    @Override
+    protected void free() {
+      for (int i = 0; i < chunks.length; i++ ) {
+        BufferPool.give(chunks[i]);
+        chunks[i] = null;
+      }
+    }
+  }
+
+  /** Largest escape time which can be stored using one byte per pixel. */
+  private static final int BYTE_MAX = 0xFF;
+
+  /** Largest escape time which can be stored using two bytes per pixel. */
+  private static final int SHORT_MAX = 0xFFFF;
+
+  /** Number of rows of escape times held in the buffer. */
+  private final int rows;
+
+  /** Number of escape times held in each row of the buffer. */
+  private final int columns;
+
+  /** Largest escape time which this buffer can hold. */
+  private final int capacity;
+
+  /** Number of owners and workers still using this buffer. */
+  private final AtomicInteger users;
+
+  private EscapeBuffer(int rows, int columns, int capacity) {
+    this.rows = rows;
+    this.columns = columns;
+    this.capacity = capacity;
+    users = new AtomicInteger(1);
+  }
+
+  /**
+   * Create a new buffer which uses the narrowest type able to hold every escape time up to the given limit.
+   *
+   * @param rows Number of rows in the fractal.
+   * @param columns Number of columns in the fractal.
+   * @param limit Largest escape time which will be stored in the buffer.
+   * @return New buffer; its contents are unspecified, since the storage may be recycled from an earlier frame.
+   */
+  public static EscapeBuffer create(int rows, int columns, int limit) {
+    return create(rows, columns, limit, false);
+  }
+
+  /**
+   * Create a new buffer which uses the narrowest type able to hold every escape time up to the given limit.
+   *
+   * @param rows Number of rows in the fractal.
+   * @param columns Number of columns in the fractal.
+   * @param limit Largest escape time which will be stored in the buffer.
+   * @param offHeap True if the escape times should be stored outside of the Java heap; false otherwise.
+   * @return New buffer; its contents are unspecified, since the storage may be recycled from an earlier frame.
+   */
+  public static EscapeBuffer create(int rows, int columns, int limit, boolean offHeap) {
+    if (((long) rows * columns) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot store a " + rows + "x" + columns + " fractal in a single buffer");
+    }
+    if (offHeap) {
+      return new OffHeapEscapes(rows, columns, limit);
+    } else if (limit <= BYTE_MAX) {
+      return new ByteEscapes(rows, columns);
+    } else if (limit <= SHORT_MAX) {
+      return new ShortEscapes(rows, columns);
+    }
+    return new IntEscapes(rows, columns);
+  }
+
+  /**
+   * Return a buffer holding the same escape times as this one which can also hold every escape time up to the given
+   * limit. This returns this buffer when it is already wide enough.
+   *
+   * @param limit Largest escape time which will need to be stored in the buffer.
+   * @return Buffer able to hold the new limit and containing this buffer's escape times.
+   */
+  public EscapeBuffer widen(int limit) {
+    if (limit <= capacity) {
+      return this;
+    }
+    EscapeBuffer retVal = create(rows, columns, limit, isOffHeap());
+    int size = rows * columns;
+    for (int i = 0; i < size; i++ ) {
+      retVal.set(i, get(i));
+    }
+    return retVal;
+  }
+
+  /**
+   * @return the number of rows held in this buffer
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the number of columns held in this buffer
+   */
+  public int getColumns() {
+    return columns;
+  }
+
+  /**
+   * Return the distance, in entries, between the same column in consecutive rows.
+   *
+   * @return Number of entries between the start of one row and the start of the next.
+   */
+  public int getStride() {
+    return columns;
+  }
+
+  /**
+   * Return the index at which the escape time for a pixel is stored.
+   *
+   * @param row Row of the pixel in the fractal.
+   * @param column Column of the pixel in the fractal.
+   * @return Index of the pixel's entry in the buffer.
+   */
+  public int index(int row, int column) {
+    return (row * columns) + column;
+  }
+
+  /**
+   * @return the largest escape time this buffer can hold
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Register another user of this buffer. This fails once every earlier user has released the buffer, since its memory
+   * may already have been freed.
+   *
+   * @return True if the caller may use the buffer and must later call {@link #release()}; false otherwise.
+   */
+  public boolean tryRetain() {
+    int count = users.get();
+    while (count > 0) {
+      if (users.compareAndSet(count, count + 1)) {
+        return true;
+      }
+      count = users.get();
+    }
+    return false;
+  }
+
+  /**
+   * Signal that one of the buffer's users is finished with it. The buffer's storage is recycled once every user has
+   * called this method.
+   */
+  public void release() {
+    if (users.decrementAndGet() == 0) {
+      free();
+    }
+  }
+
+  /**
+   * Return whether the escape times are stored outside of the Java heap.
+   *
+   * @return True if the buffer's memory is off the heap; false otherwise.
+   */
+  public boolean isOffHeap() {
+    return false;
+  }
+
+  /**
+   * Recycle the storage used by this buffer. This is called once every user has released the buffer.
+   */
+  protected abstract void free();
+
+  /**
+   * Get the escape time stored at the given index.
+   *
+   * @param index Entry in the buffer being read.
+   * @return Number of iterations before the pixel escaped.
+   */
+  public abstract int get(int index);
+
+  /**
+   * Record an escape time at the given index.
+   *
+   * @param index Entry in the buffer being written.
+   * @param value Number of iterations before the pixel escaped.
+   */
+  public abstract void set(int index, int value);
+
+  /**
+   * Return the number of bytes used to store each escape time in this buffer.
+   *
+   * @return 1, 2, or 4 depending on the limit for which the buffer was created.
+   */
+  public abstract int getBytesPerPixel();
+}
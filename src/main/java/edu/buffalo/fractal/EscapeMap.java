@@ -0,0 +1,436 @@
+package edu.buffalo.fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * File holding the raw escape times of a fractal along with the settings used to compute them. Saving escape times
+ * rather than colors means a fractal can be reloaded, or recolored using any palette, without recomputing it. The file
+ * starts with a header describing the fractal and an index giving the location of each tile. Each tile is compressed
+ * independently, storing runs of equal escape times as the difference from the previous run's escape time followed by
+ * the length of the run. The file is memory mapped when it is opened, so any tile can be read without reading the
+ * rest of the file.
+ *
+ * @author Matthew Hertz
+ */
+public class EscapeMap implements Closeable {
+  /** Value which starts every escape map file. */
+  private static final int MAGIC = 0x46455343;
+
+  /** Version of the file format written by this class. */
+  private static final int VERSION = 1;
+
+  /** Number of rows and columns in each tile. */
+  private static final int TILE_SIZE = 256;
+
+  /** Settings of the fractal whose escape times are stored in the file. */
+  private final RenderRequest request;
+
+  /** Number of tiles along the rows of the fractal. */
+  private final int tilesPerRow;
+
+  /** Number of tiles along the columns of the fractal. */
+  private final int tilesPerColumn;
+
+  /** Location in the file at which each tile starts; one final entry gives the end of the last tile. */
+  private final long[] offsets;
+
+  /** File from which the escape times are read. */
+  private final FileChannel channel;
+
+  /** Entire file mapped into memory, or null if the file is too large to map at once and tiles are mapped separately. */
+  private final MappedByteBuffer mapped;
+
+  /**
+   * Create a new instance reading from a file which has already been opened.
+   *
+   * @param settings Settings of the fractal whose escape times are stored in the file.
+   * @param tileOffsets Location in the file at which each tile starts, plus the end of the last tile.
+   * @param file File from which the escape times are read.
+   * @throws IOException Thrown if the file could not be mapped into memory.
+   */
+  private EscapeMap(RenderRequest settings, long[] tileOffsets, FileChannel file) throws IOException {
+    request = settings;
+    tilesPerRow = numTiles(settings.getRows());
+    tilesPerColumn = numTiles(settings.getColumns());
+    offsets = tileOffsets;
+    channel = file;
+    long size = file.size();
+    mapped = (size <= Integer.MAX_VALUE) ? file.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+  }
+
+  /**
+   * Compute the number of tiles needed to cover the given number of pixels.
+   *
+   * @param pixels Number of rows or columns in the fractal.
+   * @return Number of tiles needed to cover that many rows or columns.
+   */
+  private static int numTiles(int pixels) {
+    return (pixels + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  /**
+   * Save the escape times of a completed fractal to a file.
+   *
+   * @param file File to which the escape times are written. Any data which previously existed in the file is lost.
+   * @param request Settings of the fractal whose escape times are being saved.
+   * @param escapes Buffer holding the fractal's escape times.
+   * @throws IOException Thrown if the file could not be written.
+   */
+  public static void save(File file, RenderRequest request, EscapeBuffer escapes) throws IOException {
+    int tilesPerRow = numTiles(request.getRows());
+    int tilesPerColumn = numTiles(request.getColumns());
+    long[] tileOffsets = new long[(tilesPerRow * tilesPerColumn) + 1];
+    try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+      output.setLength(0);
+      FileChannel channel = output.getChannel();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(bytes);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeUTF(request.getFormula().name());
+      header.writeDouble(request.getStartX());
+      header.writeDouble(request.getStartY());
+      header.writeDouble(request.getEndX());
+      header.writeDouble(request.getEndY());
+      header.writeInt(request.getRows());
+      header.writeInt(request.getColumns());
+      header.writeInt(request.getMaxIterations());
+      header.writeInt(request.getEscapeValue());
+      header.writeInt(TILE_SIZE);
+      int indexStart = bytes.size();
+      // Leave space for the index, which is filled in once the size of each tile is known.
+      for (int i = 0; i < tileOffsets.length; i++ ) {
+        header.writeLong(0);
+      }
+      writeFully(channel, bytes);
+      long position = bytes.size();
+      for (int tile = 0; tile < (tileOffsets.length - 1); tile++ ) {
+        tileOffsets[tile] = position;
+        bytes.reset();
+        int firstRow = (tile / tilesPerColumn) * TILE_SIZE;
+        int firstColumn = (tile % tilesPerColumn) * TILE_SIZE;
+        encodeRegion(escapes, firstRow, Math.min(firstRow + TILE_SIZE, escapes.getRows()), firstColumn,
+                     Math.min(firstColumn + TILE_SIZE, escapes.getColumns()), bytes);
+        writeFully(channel, bytes);
+        position += bytes.size();
+      }
+      tileOffsets[tileOffsets.length - 1] = position;
+      ByteBuffer index = ByteBuffer.allocate(tileOffsets.length * Long.BYTES);
+      index.asLongBuffer().put(tileOffsets);
+      channel.write(index, indexStart);
+    }
+  }
+
+  /**
+   * Write all of the bytes collected in a stream to the current position of a file.
+   *
+   * @param channel File to which the bytes are written.
+   * @param bytes Bytes which should be written.
+   * @throws IOException Thrown if the bytes could not be written.
+   */
+  private static void writeFully(FileChannel channel, ByteArrayOutputStream bytes) throws IOException {
+    ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+
+  /**
+   * Compress the escape times of a rectangular region of a fractal. Besides writing the tiles of an escape map, this is
+   * used to send tiles between processes.
+   *
+   * @param escapes Buffer holding the fractal's escape times.
+   * @param firstRow Row of the fractal at which the region starts.
+   * @param lastRow Row of the fractal just after the region ends.
+   * @param firstColumn Column of the fractal at which the region starts.
+   * @param lastColumn Column of the fractal just after the region ends.
+   * @param out Stream to which the compressed region is written.
+   */
+  static void encodeRegion(EscapeBuffer escapes, int firstRow, int lastRow, int firstColumn, int lastColumn,
+                           ByteArrayOutputStream out) {
+    int previous = 0;
+    int runValue = -1;
+    int runLength = 0;
+    for (int row = firstRow; row < lastRow; row++ ) {
+      int idx = escapes.index(row, firstColumn);
+      for (int col = firstColumn; col < lastColumn; col++, idx++ ) {
+        int steps = escapes.get(idx);
+        if (steps == runValue) {
+          runLength++;
+        } else {
+          if (runLength > 0) {
+            writeVarint(out, zigzag(runValue - previous));
+            writeVarint(out, runLength);
+            previous = runValue;
+          }
+          runValue = steps;
+          runLength = 1;
+        }
+      }
+    }
+    if (runLength > 0) {
+      writeVarint(out, zigzag(runValue - previous));
+      writeVarint(out, runLength);
+    }
+  }
+
+  /**
+   * Open a file holding a fractal's escape times.
+   *
+   * @param file File which should be opened.
+   * @return Instance reading from the file; this must be closed once it is no longer needed.
+   * @throws IOException Thrown if the file could not be read or is not an escape map.
+   */
+  public static EscapeMap open(File file) throws IOException {
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      ByteBuffer start = ByteBuffer.allocate(Integer.BYTES * 2 + Short.BYTES);
+      readFully(channel, start, 0);
+      if ((start.getInt(0) != MAGIC) || (start.getInt(Integer.BYTES) != VERSION)) {
+        throw new IOException(file + " is not an escape map");
+      }
+      int nameLength = start.getShort(Integer.BYTES * 2) & 0xffff;
+      int fixedSize = (Double.BYTES * 4) + (Integer.BYTES * 5);
+      ByteBuffer header = ByteBuffer.allocate(nameLength + fixedSize);
+      readFully(channel, header, start.capacity());
+      byte[] name = new byte[nameLength];
+      header.get(name);
+      String formulaName = new String(name, StandardCharsets.UTF_8);
+      FractalOption formula;
+      try {
+        // Only look the formula up; a file must never be able to make this process compile and load classes.
+        formula = FractalOption.valueOf(formulaName);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(file + " uses the formula " + formulaName + ", which has not been entered", e);
+      }
+      double startX = header.getDouble();
+      double startY = header.getDouble();
+      double endX = header.getDouble();
+      double endY = header.getDouble();
+      int rows = header.getInt();
+      int columns = header.getInt();
+      int maxIterations = header.getInt();
+      int escapeValue = header.getInt();
+      if (header.getInt() != TILE_SIZE) {
+        throw new IOException(file + " uses an unsupported tile size");
+      }
+      RenderRequest request;
+      try {
+        request = new RenderRequest(formula, startX, startY, endX, endY, rows, columns, maxIterations, escapeValue);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(file + " describes an invalid fractal: " + e.getMessage(), e);
+      }
+      long numTiles = (long) numTiles(rows) * numTiles(columns);
+      long indexStart = start.capacity() + header.capacity();
+      if ((indexStart + ((numTiles + 1) * Long.BYTES)) > channel.size()) {
+        throw new IOException(file + " is too short to hold the index of a " + rows + "x" + columns + " fractal");
+      }
+      long[] offsets = new long[(int) numTiles + 1];
+      ByteBuffer index = ByteBuffer.allocate(offsets.length * Long.BYTES);
+      readFully(channel, index, indexStart);
+      index.asLongBuffer().get(offsets);
+      // Tiles follow the index in order, so any other offsets mean the file is corrupt.
+      long previous = indexStart + index.capacity();
+      for (long offset : offsets) {
+        if ((offset < previous) || (offset > channel.size())) {
+          throw new IOException(file + " has a corrupt tile index");
+        }
+        previous = offset;
+      }
+      return new EscapeMap(request, offsets, channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Fill a buffer with bytes read from the given position of a file.
+   *
+   * @param channel File from which the bytes are read.
+   * @param buffer Buffer which is filled; its position is reset to 0 once it is full.
+   * @param position Location in the file from which to start reading.
+   * @throws IOException Thrown if the file ends before the buffer is full.
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Escape map ended unexpectedly");
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * @return the settings of the fractal whose escape times are stored in the file
+   */
+  public RenderRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * @return the number of rows and columns in each tile stored in the file
+   */
+  public int getTileSize() {
+    return TILE_SIZE;
+  }
+
+  /**
+   * Read the escape times for one tile of the fractal. Only the tile's portion of the file is read.
+   *
+   * @param tileRow Index of the tile along the rows of the fractal.
+   * @param tileColumn Index of the tile along the columns of the fractal.
+   * @param escapes Buffer, with the same size as the fractal, into which the tile's escape times are stored.
+   * @throws IOException Thrown if the tile could not be read.
+   */
+  public void readTile(int tileRow, int tileColumn, EscapeBuffer escapes) throws IOException {
+    int tile = (tileRow * tilesPerColumn) + tileColumn;
+    ByteBuffer data;
+    if (mapped != null) {
+      data = mapped.duplicate();
+      data.limit((int) offsets[tile + 1]).position((int) offsets[tile]);
+    } else {
+      data = channel.map(FileChannel.MapMode.READ_ONLY, offsets[tile], offsets[tile + 1] - offsets[tile]);
+    }
+    int firstRow = tileRow * TILE_SIZE;
+    int firstColumn = tileColumn * TILE_SIZE;
+    decodeRegion(data, escapes, firstRow, Math.min(firstRow + TILE_SIZE, escapes.getRows()), firstColumn,
+                 Math.min(firstColumn + TILE_SIZE, escapes.getColumns()), request.getMaxIterations());
+  }
+
+  /**
+   * Decompress escape times written by
+   * {@link #encodeRegion(EscapeBuffer, int, int, int, int, ByteArrayOutputStream)} into a region of a buffer.
+   *
+   * @param data Buffer holding the compressed escape times; they are read from its current position.
+   * @param escapes Buffer into which the region's escape times are stored.
+   * @param firstRow Row of the fractal at which the region starts.
+   * @param lastRow Row of the fractal just after the region ends.
+   * @param firstColumn Column of the fractal at which the region starts.
+   * @param lastColumn Column of the fractal just after the region ends.
+   * @param maxIterations Largest escape time which the region may hold.
+   * @throws IOException Thrown if the compressed data ends before the region is filled, holds an escape time outside of
+   *           the fractal's limit, or has a run extending past the end of the region.
+   */
+  static void decodeRegion(ByteBuffer data, EscapeBuffer escapes, int firstRow, int lastRow, int firstColumn,
+                           int lastColumn, int maxIterations) throws IOException {
+    int steps = 0;
+    int runLength = 0;
+    for (int row = firstRow; row < lastRow; row++ ) {
+      int idx = escapes.index(row, firstColumn);
+      for (int col = firstColumn; col < lastColumn; col++, idx++ ) {
+        if (runLength == 0) {
+          // Narrower buffers would silently wrap a bad escape time, so every run is checked before it is stored.
+          steps += unzigzag(readVarint(data));
+          runLength = readVarint(data);
+          if ((steps < 0) || (steps > maxIterations) || (runLength <= 0)) {
+            throw new IOException("Escape times starting at " + firstRow + "," + firstColumn + " are corrupt");
+          }
+        }
+        escapes.set(idx, steps);
+        runLength--;
+      }
+    }
+    if (runLength != 0) {
+      throw new IOException("Escape times starting at " + firstRow + "," + firstColumn + " overrun their region");
+    }
+  }
+
+  /**
+   * Read the escape times for the entire fractal. The caller owns the buffer which is returned and must release it once
+   * it is no longer needed.
+   *
+   * @return Buffer holding the escape times of the entire fractal.
+   * @throws IOException Thrown if the file could not be read.
+   */
+  public EscapeBuffer load() throws IOException {
+    EscapeBuffer escapes = EscapeBuffer.create(request.getRows(), request.getColumns(), request.getMaxIterations(),
+                                               ((long) request.getRows() * request.getColumns()) >=
+                                                                                           ComputePool.OFF_HEAP_PIXELS);
+    try {
+      for (int tileRow = 0; tileRow < tilesPerRow; tileRow++ ) {
+        for (int tileColumn = 0; tileColumn < tilesPerColumn; tileColumn++ ) {
+          readTile(tileRow, tileColumn, escapes);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      escapes.release();
+      throw e;
+    }
+    return escapes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Map a signed value onto an unsigned one so that values near 0 have short encodings.
+   *
+   * @param value Value to be encoded.
+   * @return Unsigned value used to store the value.
+   */
+  private static int zigzag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  /**
+   * Reverse the mapping performed by {@link #zigzag(int)}.
+   *
+   * @param value Unsigned value read from the file.
+   * @return Signed value which was encoded.
+   */
+  private static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Write an unsigned value using 7 bits per byte, so that small values take only a single byte.
+   *
+   * @param out Stream to which the value is written.
+   * @param value Value to be written.
+   */
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Read a value written by {@link #writeVarint(ByteArrayOutputStream, int)}.
+   *
+   * @param in Buffer from which the value is read.
+   * @return Value which was read.
+   * @throws IOException Thrown if the buffer ends before the value does or the value is longer than any int.
+   */
+  private static int readVarint(ByteBuffer in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (!in.hasRemaining()) {
+        throw new IOException("Escape times are truncated");
+      }
+      if (shift > 28) {
+        throw new IOException("Escape times hold a value too large for an int");
+      }
+      b = in.get();
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
@@ -0,0 +1,552 @@
+package edu.buffalo.fractal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Renders fractals too large for a single machine by splitting them into tiles which are computed by
+ * {@link FarmWorker} processes. The coordinator connects to every worker and hands out tiles as workers finish their
+ * previous ones, so faster machines compute more of the fractal. Each worker is kept a tile ahead so it never waits for
+ * the network. Workers send back each tile's escape times compressed in the format used by {@link EscapeMap}. If a
+ * worker's connection fails, or it takes longer than the timeout to answer, its unfinished tiles are given to the
+ * remaining workers. The render only fails if every worker is lost. To try this on one machine, start several workers
+ * on different ports and list them all:
+ *
+ * <pre>
+ * FarmWorker --port=7001 &amp;
+ * FarmWorker --port=7002 &amp;
+ * FarmCoordinator --workers=localhost:7001,localhost:7002 --output=poster [--formula=Mandelbrot]
+ *     [--bounds=x0,y0,x1,y1] [--size=WxH] [--iterations=n] [--escape=n] [--palette=Rainbow] [--escapes=file]
+ *     [--timeout=seconds]
+ * </pre>
+ *
+ * A written-out formula, such as <code>--formula=z^4+c</code>, must also be given to every worker when it is started.
+ *
+ * @author Matthew Hertz
+ */
+public class FarmCoordinator {
+  /** Preferred number of rows and columns in each tile sent to a worker. */
+  private static final int TILE_SIZE = 512;
+
+  /** Most tiles sent to a worker before it has answered the first of them. */
+  private static final int PIPELINE_DEPTH = 2;
+
+  /** Seconds a worker may take to answer before it is treated as lost, unless another timeout is given. */
+  private static final int DEFAULT_TIMEOUT_SECONDS = 120;
+
+  /** Addresses of the workers computing the tiles. */
+  private final List<InetSocketAddress> workers;
+
+  /** Milliseconds a worker may take to connect or to answer before it is treated as lost. */
+  private final int timeoutMillis;
+
+  /** Number of tiles each worker computed during the most recent successful render, in worker order. */
+  private volatile int[] tilesComputed;
+
+  /** Whether each worker was lost during the most recent successful render, in worker order. */
+  private volatile boolean[] workersLost;
+
+  /**
+   * Create a new coordinator which distributes tiles to the given workers.
+   *
+   * @param workerAddresses Addresses of the workers computing the tiles.
+   * @param timeoutSeconds Seconds a worker may take to answer before it is treated as lost.
+   */
+  public FarmCoordinator(List<InetSocketAddress> workerAddresses, int timeoutSeconds) {
+    if (workerAddresses.isEmpty()) {
+      throw new IllegalArgumentException("At least one worker is needed");
+    }
+    workers = new ArrayList<>(workerAddresses);
+    timeoutMillis = timeoutSeconds * 1000;
+  }
+
+  /**
+   * Split the fractal into tiles of roughly {@link #TILE_SIZE} pixels along each side. Every tile has at least 2 rows
+   * and columns, so that a worker can compute it as a fractal of its own.
+   *
+   * @param rows Number of rows in the fractal.
+   * @param columns Number of columns in the fractal.
+   * @return Tiles covering the entire fractal.
+   */
+  static Tile[] partition(int rows, int columns) {
+    int rowTiles = Math.max(1, Math.min((rows + TILE_SIZE - 1) / TILE_SIZE, rows / 2));
+    int columnTiles = Math.max(1, Math.min((columns + TILE_SIZE - 1) / TILE_SIZE, columns / 2));
+    Tile[] retVal = new Tile[rowTiles * columnTiles];
+    for (int i = 0; i < rowTiles; i++ ) {
+      int firstRow = (int) (((long) rows * i) / rowTiles);
+      int lastRow = (int) (((long) rows * (i + 1)) / rowTiles);
+      for (int j = 0; j < columnTiles; j++ ) {
+        int firstColumn = (int) (((long) columns * j) / columnTiles);
+        int lastColumn = (int) (((long) columns * (j + 1)) / columnTiles);
+        retVal[(i * columnTiles) + j] = new Tile(firstRow, lastRow - firstRow, firstColumn, lastColumn - firstColumn);
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Compute a fractal's escape times using the workers. The caller owns the buffer which is returned and must release
+   * it once it is no longer needed.
+   *
+   * @param request Settings of the fractal to be computed.
+   * @return Buffer holding the fractal's escape times.
+   * @throws IOException Thrown if a worker could not compute a tile or every worker was lost.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for the workers.
+   */
+  public EscapeBuffer render(RenderRequest request) throws IOException, InterruptedException {
+    EscapeBuffer escapes = EscapeBuffer.create(request.getRows(), request.getColumns(), request.getMaxIterations(),
+                                               ((long) request.getRows() * request.getColumns()) >=
+                                                                                           ComputePool.OFF_HEAP_PIXELS);
+    Job job = new Job(request, partition(request.getRows(), request.getColumns()), escapes, workers.size());
+    List<WorkerLink> links = new ArrayList<>(workers.size());
+    List<Thread> threads = new ArrayList<>(workers.size());
+    for (InetSocketAddress address : workers) {
+      WorkerLink link = new WorkerLink(address, job);
+      Thread thread = new Thread(link, "Farm link " + address);
+      thread.setDaemon(true);
+      links.add(link);
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      job.await();
+    } finally {
+      // Wake any links still waiting on a worker so that no thread writes into the buffer once it is released.
+      for (WorkerLink link : links) {
+        link.close();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+    String failure = job.getFailure();
+    if (failure != null) {
+      escapes.release();
+      throw new IOException(failure);
+    }
+    int[] computed = new int[links.size()];
+    boolean[] lost = new boolean[links.size()];
+    for (int i = 0; i < computed.length; i++ ) {
+      computed[i] = links.get(i).completed;
+      lost[i] = links.get(i).lost;
+    }
+    tilesComputed = computed;
+    workersLost = lost;
+    return escapes;
+  }
+
+  /**
+   * @return the addresses of the workers computing the tiles, in the order they were given
+   */
+  public List<InetSocketAddress> getWorkers() {
+    return Collections.unmodifiableList(workers);
+  }
+
+  /**
+   * Return the number of tiles each worker computed during the most recent successful render.
+   *
+   * @param worker Index of the worker, in the order the workers were given.
+   * @return Number of tiles the worker computed, or 0 if nothing has been rendered.
+   */
+  public int getTilesComputed(int worker) {
+    int[] computed = tilesComputed;
+    return (computed == null) ? 0 : computed[worker];
+  }
+
+  /**
+   * Return whether a worker's connection failed before the most recent successful render was finished.
+   *
+   * @param worker Index of the worker, in the order the workers were given.
+   * @return True if the worker was lost and its unfinished tiles were given to other workers; false otherwise.
+   */
+  public boolean wasLost(int worker) {
+    boolean[] lost = workersLost;
+    return (lost != null) && lost[worker];
+  }
+
+  /**
+   * Progress of a single fractal being computed by the workers. Tiles waiting to be sent are kept in a queue shared by
+   * every worker; tiles belonging to a lost worker are returned to the front of the queue.
+   */
+  private static class Job {
+    /** Settings of the fractal being computed. */
+    private final RenderRequest request;
+
+    /** Tiles into which the fractal is split; a tile's index is the id sent to the workers. */
+    private final Tile[] tiles;
+
+    /** Buffer into which the tiles' escape times are stored. */
+    private final EscapeBuffer escapes;
+
+    /** Ids of the tiles which have not yet been sent to any worker still connected. */
+    private final Deque<Integer> pending;
+
+    /** Marks the tiles whose escape times have been stored. */
+    private final boolean[] done;
+
+    /** Number of tiles whose escape times have not yet been stored. */
+    private int remaining;
+
+    /** Number of workers still computing tiles. */
+    private int liveWorkers;
+
+    /** Reason the job failed, or null if it has not failed. */
+    private String failure;
+
+    /**
+     * Create a new job with none of its tiles yet computed.
+     *
+     * @param settings Settings of the fractal being computed.
+     * @param parts Tiles into which the fractal is split.
+     * @param buffer Buffer into which the tiles' escape times are stored.
+     * @param numWorkers Number of workers computing the tiles.
+     */
+    public Job(RenderRequest settings, Tile[] parts, EscapeBuffer buffer, int numWorkers) {
+      request = settings;
+      tiles = parts;
+      escapes = buffer;
+      pending = new ArrayDeque<>(tiles.length);
+      for (int i = 0; i < tiles.length; i++ ) {
+        pending.add(i);
+      }
+      done = new boolean[tiles.length];
+      remaining = tiles.length;
+      liveWorkers = numWorkers;
+    }
+
+    /**
+     * Take the next tile to be sent, waiting until one is available.
+     *
+     * @return Id of the next tile, or null if the job has completed or failed.
+     * @throws InterruptedException Thrown if this thread is interrupted while waiting.
+     */
+    public synchronized Integer take() throws InterruptedException {
+      while (pending.isEmpty() && (remaining > 0) && (failure == null)) {
+        wait();
+      }
+      return (failure == null) ? pending.poll() : null;
+    }
+
+    /**
+     * Take the next tile to be sent without waiting.
+     *
+     * @return Id of the next tile, or null if none is available.
+     */
+    public synchronized Integer poll() {
+      return (failure == null) ? pending.poll() : null;
+    }
+
+    /**
+     * Store the escape times a worker computed for a tile.
+     *
+     * @param id Id of the tile.
+     * @param compressed Tile's escape times, as sent by the worker.
+     * @throws IOException Thrown if the escape times are corrupt.
+     */
+    public void store(int id, byte[] compressed) throws IOException {
+      Tile tile = tiles[id];
+      // Tiles never overlap, so any number of links can store them at once.
+      EscapeMap.decodeRegion(ByteBuffer.wrap(compressed), escapes, tile.getFirstRow(),
+                             tile.getFirstRow() + tile.getRows(), tile.getFirstColumn(),
+                             tile.getFirstColumn() + tile.getColumns(), request.getMaxIterations());
+      synchronized (this) {
+        if (!done[id]) {
+          done[id] = true;
+          remaining--;
+          if (remaining == 0) {
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    /**
+     * Record that a worker has stopped computing tiles, returning any it had not finished to the queue.
+     *
+     * @param unfinished Ids of the tiles sent to the worker which it had not finished.
+     */
+    public synchronized void workerStopped(Deque<Integer> unfinished) {
+      while (!unfinished.isEmpty()) {
+        pending.addFirst(unfinished.removeLast());
+      }
+      liveWorkers--;
+      notifyAll();
+    }
+
+    /**
+     * Record that the job cannot be completed.
+     *
+     * @param reason Description of why the job failed.
+     */
+    public synchronized void fail(String reason) {
+      if (failure == null) {
+        failure = reason;
+      }
+      notifyAll();
+    }
+
+    /**
+     * Wait until every tile has been computed, the job has failed, or every worker was lost.
+     *
+     * @throws InterruptedException Thrown if this thread is interrupted while waiting.
+     */
+    public synchronized void await() throws InterruptedException {
+      while ((remaining > 0) && (failure == null) && (liveWorkers > 0)) {
+        wait();
+      }
+      if ((remaining > 0) && (failure == null)) {
+        failure = "Every worker was lost with " + remaining + " of " + tiles.length + " tiles left";
+      }
+    }
+
+    /**
+     * @return the reason the job failed, or null if it did not fail
+     */
+    public synchronized String getFailure() {
+      return failure;
+    }
+  }
+
+  /**
+   * Connection to one worker, sending it tiles and storing the escape times it returns.
+   */
+  private class WorkerLink implements Runnable {
+    /** Address of the worker. */
+    private final InetSocketAddress address;
+
+    /** Job whose tiles are sent to the worker. */
+    private final Job job;
+
+    /** Connection to the worker. */
+    private final Socket socket;
+
+    /** Number of tiles the worker has computed. */
+    private int completed;
+
+    /** True if the connection to the worker failed before the job was finished. */
+    private boolean lost;
+
+    /** True once the coordinator has closed the connection because it no longer needs the worker. */
+    private volatile boolean closed;
+
+    /**
+     * Create a new link which will send the job's tiles to the given worker.
+     *
+     * @param worker Address of the worker.
+     * @param work Job whose tiles are sent to the worker.
+     */
+    public WorkerLink(InetSocketAddress worker, Job work) {
+      address = worker;
+      job = work;
+      socket = new Socket();
+    }
+
+    /**
+     * Close the connection, interrupting any wait for the worker to answer.
+     */
+    public void close() {
+      closed = true;
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing more can be done with the connection.
+      }
+    }
+
+    @Override
+    public void run() {
+      Deque<Integer> unfinished = new ArrayDeque<>(PIPELINE_DEPTH);
+      try {
+        socket.connect(address, timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        FarmProtocol.handshake(out, in);
+        while (true) {
+          // Keep the worker a tile ahead, but wait for a tile only when it has nothing else to do.
+          Integer next;
+          while ((unfinished.size() < PIPELINE_DEPTH) &&
+                 ((next = unfinished.isEmpty() ? job.take() : job.poll()) != null)) {
+            FarmProtocol.writeTile(out, next, job.request, job.tiles[next]);
+            unfinished.addLast(next);
+          }
+          if (unfinished.isEmpty()) {
+            break;
+          }
+          out.flush();
+          int id = in.readInt();
+          if (id != unfinished.peekFirst()) {
+            throw new IOException("Worker answered tile " + id + " rather than tile " + unfinished.peekFirst());
+          }
+          if (in.readByte() == FarmProtocol.TILE_DONE) {
+            int length = in.readInt();
+            // Each run takes at most ten bytes, so a longer tile could only come from a corrupt stream.
+            Tile tile = job.tiles[id];
+            if ((length < 0) || ((length / 10) > ((long) tile.getRows() * tile.getColumns()))) {
+              throw new IOException("Worker sent " + length + " bytes for tile " + id);
+            }
+            byte[] compressed = new byte[length];
+            in.readFully(compressed);
+            job.store(id, compressed);
+            unfinished.removeFirst();
+            completed++;
+          } else {
+            // The worker is healthy but cannot compute the fractal, so no other worker would be able to either.
+            job.fail(address + " could not compute tile " + id + ": " + in.readUTF());
+            break;
+          }
+        }
+      } catch (IOException e) {
+        if (!closed && (job.getFailure() == null)) {
+          lost = true;
+          System.err.println("Lost worker " + address + " (" + e + "); reassigning " + unfinished.size() +
+                             " tiles");
+        }
+      } catch (InterruptedException e) {
+        job.fail("Interrupted while waiting for tiles");
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // The worker is no longer needed, so there is nothing more to do with the connection.
+        }
+        job.workerStopped(unfinished);
+      }
+    }
+  }
+
+  /**
+   * Parse a list of worker addresses.
+   *
+   * @param list Comma-separated list of addresses, each written as host:port.
+   * @return Addresses of the workers.
+   */
+  private static List<InetSocketAddress> parseWorkers(String list) {
+    List<InetSocketAddress> retVal = new ArrayList<>();
+    for (String worker : list.split(",")) {
+      int split = worker.lastIndexOf(':');
+      if (split < 0) {
+        throw new IllegalArgumentException("Workers must be given as host:port, not " + worker);
+      }
+      retVal.add(new InetSocketAddress(worker.substring(0, split), Integer.parseInt(worker.substring(split + 1))));
+    }
+    return retVal;
+  }
+
+  /**
+   * Main method to render a single fractal using the workers and write the resulting image to disk.
+   *
+   * @param args Options listing the workers and describing the fractal.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    String workerList = null;
+    String formula = "Mandelbrot";
+    String bounds = null;
+    int rows = BatchRenderer.DEFAULT_SIZE;
+    int columns = BatchRenderer.DEFAULT_SIZE;
+    int iterations = RenderRequest.DEFAULT_MAX_ITERATIONS;
+    int escape = RenderRequest.DEFAULT_ESCAPE_VALUE;
+    String palette = "Rainbow";
+    String output = null;
+    String escapeFile = null;
+    int timeout = DEFAULT_TIMEOUT_SECONDS;
+    try {
+      for (String arg : args) {
+        int split = arg.indexOf('=');
+        if (!arg.startsWith("--") || (split < 0)) {
+          throw new IllegalArgumentException("Options must look like --name=value, not " + arg);
+        }
+        String value = arg.substring(split + 1);
+        switch (arg.substring(2, split)) {
+          case "workers":
+            workerList = value;
+            break;
+          case "formula":
+            formula = value;
+            break;
+          case "bounds":
+            bounds = value;
+            break;
+          case "size":
+            String[] dims = value.toLowerCase().split("x");
+            rows = Integer.parseInt(dims[0]);
+            columns = Integer.parseInt(dims[1]);
+            break;
+          case "iterations":
+            iterations = Integer.parseInt(value);
+            break;
+          case "escape":
+            escape = Integer.parseInt(value);
+            break;
+          case "palette":
+            palette = value;
+            break;
+          case "output":
+            output = value;
+            break;
+          case "escapes":
+            escapeFile = value;
+            break;
+          case "timeout":
+            timeout = Integer.parseInt(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      if ((workerList == null) || (output == null)) {
+        throw new IllegalArgumentException("Usage: FarmCoordinator --workers=host:port,... --output=name " +
+                                           "[--formula=Mandelbrot] [--bounds=x0,y0,x1,y1] [--size=WxH] " +
+                                           "[--iterations=n] [--escape=n] [--palette=Rainbow] [--escapes=file] " +
+                                           "[--timeout=seconds]");
+      }
+      RenderRequest request = RenderRequest.defaultView(FractalOption.register(formula), rows, columns, iterations,
+                                                        escape);
+      if (bounds != null) {
+        String[] coords = bounds.split(",");
+        request = request.withBounds(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]),
+                                     Double.parseDouble(coords[2]), Double.parseDouble(coords[3]));
+      }
+      FarmCoordinator coordinator = new FarmCoordinator(parseWorkers(workerList), timeout);
+      long start = System.nanoTime();
+      EscapeBuffer escapes = coordinator.render(request);
+      try {
+        System.out.printf("Computed %dx%d fractal in %.1f s%n", rows, columns, (System.nanoTime() - start) / 1e9);
+        List<InetSocketAddress> addresses = coordinator.getWorkers();
+        for (int i = 0; i < addresses.size(); i++ ) {
+          System.out.printf("%s computed %d tiles%s%n", addresses.get(i), coordinator.getTilesComputed(i),
+                            coordinator.wasLost(i) ? " before it was lost" : "");
+        }
+        if (escapeFile != null) {
+          EscapeMap.save(new File(escapeFile), request, escapes);
+        }
+        FractalRaster raster = FractalRaster.create(rows, columns, BatchRenderer.createColorModel(palette, iterations));
+        raster.colorAll(escapes, iterations);
+        BatchRenderer.writeImage(raster, FractalPanel.SaveFormat.PNG, new File(output + ".png"));
+      } finally {
+        escapes.release();
+      }
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      System.exit(2);
+    } catch (IOException | InterruptedException e) {
+      System.err.println("ERROR: Could not render the fractal");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
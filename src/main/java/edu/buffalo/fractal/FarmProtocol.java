@@ -0,0 +1,116 @@
+package edu.buffalo.fractal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Messages exchanged between a {@link FarmCoordinator} and its {@link FarmWorker}s. After connecting, the coordinator
+ * sends {@link #MAGIC} and {@link #VERSION} and the worker echoes them back. The coordinator then sends tiles, each as
+ * an id followed by the request and the tile's bounds. The worker answers each tile, in the order they were sent, with
+ * the id and a status. A successful status is followed by the length and bytes of the tile's compressed escape times
+ * (in the format used by {@link EscapeMap}); a failed status is followed by an error message.
+ *
+ * @author Matthew Hertz
+ */
+final class FarmProtocol {
+  /** Value sent by both sides when a connection is opened. */
+  static final int MAGIC = 0x46464152;
+
+  /** Version of the protocol; both sides must use the same version. */
+  static final int VERSION = 1;
+
+  /** Status sent by a worker which computed its tile. */
+  static final byte TILE_DONE = 0;
+
+  /** Status sent by a worker which could not compute its tile. */
+  static final byte TILE_FAILED = 1;
+
+  /** Prevent this class from being instantiated. */
+  private FarmProtocol() {
+  }
+
+  /**
+   * Send a tile which should be computed.
+   *
+   * @param out Stream to the worker.
+   * @param id Number identifying the tile in the worker's response.
+   * @param request Settings of the entire fractal.
+   * @param tile Region of the fractal which should be computed.
+   * @throws IOException Thrown if the tile could not be sent.
+   */
+  static void writeTile(DataOutput out, int id, RenderRequest request, Tile tile) throws IOException {
+    out.writeInt(id);
+    out.writeUTF(request.getFormula().name());
+    out.writeDouble(request.getStartX());
+    out.writeDouble(request.getStartY());
+    out.writeDouble(request.getEndX());
+    out.writeDouble(request.getEndY());
+    out.writeInt(request.getRows());
+    out.writeInt(request.getColumns());
+    out.writeInt(request.getMaxIterations());
+    out.writeInt(request.getEscapeValue());
+    out.writeInt(tile.getFirstRow());
+    out.writeInt(tile.getRows());
+    out.writeInt(tile.getFirstColumn());
+    out.writeInt(tile.getColumns());
+  }
+
+  /**
+   * Read the settings of the fractal sent by {@link #writeTile(DataOutput, int, RenderRequest, Tile)}. The tile's id
+   * must already have been read.
+   *
+   * @param in Stream from the coordinator.
+   * @return Settings of the entire fractal.
+   * @throws IOException Thrown if the request could not be read.
+   * @throws IllegalArgumentException Thrown if the formula has not been registered by this process or the settings are
+   *           invalid; the entire request has still been read.
+   */
+  static RenderRequest readRequest(DataInput in) throws IOException {
+    String name = in.readUTF();
+    double startX = in.readDouble();
+    double startY = in.readDouble();
+    double endX = in.readDouble();
+    double endY = in.readDouble();
+    int rows = in.readInt();
+    int columns = in.readInt();
+    int maxIterations = in.readInt();
+    int escapeValue = in.readInt();
+    // Formulas are only looked up, so a coordinator cannot make this process compile and load classes.
+    FractalOption formula = FractalOption.valueOf(name);
+    return new RenderRequest(formula, startX, startY, endX, endY, rows, columns, maxIterations, escapeValue);
+  }
+
+  /**
+   * Read the bounds of the tile sent by {@link #writeTile(DataOutput, int, RenderRequest, Tile)}. The tile's request
+   * must already have been read.
+   *
+   * @param in Stream from the coordinator.
+   * @return Region of the fractal which should be computed.
+   * @throws IOException Thrown if the tile could not be read.
+   */
+  static Tile readTile(DataInput in) throws IOException {
+    int firstRow = in.readInt();
+    int rows = in.readInt();
+    int firstColumn = in.readInt();
+    int columns = in.readInt();
+    return new Tile(firstRow, rows, firstColumn, columns);
+  }
+
+  /**
+   * Send the greeting which starts every connection and check that the other side sent the same greeting.
+   *
+   * @param out Stream to the other side.
+   * @param in Stream from the other side.
+   * @throws IOException Thrown if the greeting could not be exchanged or the other side uses another protocol.
+   */
+  static void handshake(DataOutputStream out, DataInput in) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.flush();
+    if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+      throw new IOException("Other side of the connection is not a compatible render farm process");
+    }
+  }
+}
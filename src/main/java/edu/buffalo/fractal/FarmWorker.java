@@ -0,0 +1,212 @@
+package edu.buffalo.fractal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process which computes tiles of fractals on behalf of a {@link FarmCoordinator}. The worker listens on a port and
+ * handles each coordinator which connects on its own thread. Every tile it is sent is computed using all of this
+ * machine's cores and its escape times are sent back compressed. Start one worker on each machine (or several on one
+ * machine for testing) with:
+ *
+ * <pre>
+ * FarmWorker --port=7001 [--threads=n] [--formula=z^4+c ...]
+ * </pre>
+ *
+ * Workers only compute the built-in fractals and the formulas given by their <code>--formula</code> options; a formula
+ * sent by a coordinator is never compiled.
+ *
+ * @author Matthew Hertz
+ */
+public class FarmWorker {
+  /** Renderer computing the tiles sent to this worker. */
+  private final BatchRenderer renderer;
+
+  /** Socket on which coordinators connect. */
+  private final ServerSocket server;
+
+  /**
+   * Create a new worker listening on the given port.
+   *
+   * @param port Port on which the worker listens; 0 chooses any free port.
+   * @param numThreads Number of threads used to compute each tile.
+   * @throws IOException Thrown if the port could not be opened.
+   */
+  public FarmWorker(int port, int numThreads) throws IOException {
+    server = new ServerSocket(port);
+    renderer = new BatchRenderer(numThreads);
+  }
+
+  /**
+   * @return the port on which this worker listens
+   */
+  public int getPort() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * Accept coordinators until the worker is closed, serving each on its own thread.
+   */
+  public void serve() {
+    while (!server.isClosed()) {
+      final Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        // The socket is closed when the worker is shut down.
+        if (!server.isClosed()) {
+          e.printStackTrace();
+        }
+        continue;
+      }
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try (Socket connection = socket) {
+            serveConnection(connection);
+          } catch (IOException e) {
+            System.err.println("Lost connection to " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+          }
+        }
+      }, "Farm worker " + socket.getRemoteSocketAddress());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stop accepting coordinators and stop the threads computing tiles.
+   *
+   * @throws IOException Thrown if the socket could not be closed.
+   */
+  public void shutdown() throws IOException {
+    server.close();
+    renderer.shutdown();
+  }
+
+  /**
+   * Compute the tiles sent over a connection until the coordinator closes it.
+   *
+   * @param socket Connection to the coordinator.
+   * @throws IOException Thrown if the connection fails.
+   */
+  private void serveConnection(Socket socket) throws IOException {
+    socket.setTcpNoDelay(true);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    FarmProtocol.handshake(out, in);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    while (true) {
+      int id;
+      try {
+        id = in.readInt();
+      } catch (EOFException e) {
+        // The coordinator has finished with this worker.
+        return;
+      }
+      RenderRequest request = null;
+      String error = null;
+      try {
+        request = FarmProtocol.readRequest(in);
+      } catch (IllegalArgumentException e) {
+        // The tile must still be read so the stream stays in step; it is then reported as failed.
+        error = String.valueOf(e.getMessage());
+      }
+      Tile tile = FarmProtocol.readTile(in);
+      bytes.reset();
+      if (request != null) {
+        try {
+          EscapeBuffer escapes = renderer.compute(tileRequest(request, tile), null);
+          try {
+            EscapeMap.encodeRegion(escapes, 0, tile.getRows(), 0, tile.getColumns(), bytes);
+          } finally {
+            escapes.release();
+          }
+        } catch (ExecutionException | RuntimeException e) {
+          error = String.valueOf(e.getMessage());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while computing a tile", e);
+        }
+      }
+      out.writeInt(id);
+      if (error == null) {
+        out.writeByte(FarmProtocol.TILE_DONE);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+      } else {
+        out.writeByte(FarmProtocol.TILE_FAILED);
+        out.writeUTF(error);
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Create the request for just one tile of a fractal. The tile's first pixel becomes the request's first pixel, so only
+   * a buffer the size of the tile is needed.
+   *
+   * @param request Settings of the entire fractal.
+   * @param tile Region of the fractal which is computed; it must be at least 2 pixels along each side.
+   * @return Request covering only the tile.
+   */
+  static RenderRequest tileRequest(RenderRequest request, Tile tile) {
+    double stepX = (request.getEndX() - request.getStartX()) / (request.getRows() - 1);
+    double stepY = (request.getEndY() - request.getStartY()) / (request.getColumns() - 1);
+    return request.withBounds(request.getStartX() + (stepX * tile.getFirstRow()),
+                              request.getStartY() + (stepY * tile.getFirstColumn()),
+                              request.getStartX() + (stepX * (tile.getFirstRow() + tile.getRows() - 1)),
+                              request.getStartY() + (stepY * (tile.getFirstColumn() + tile.getColumns() - 1)))
+                  .withSize(tile.getRows(), tile.getColumns());
+  }
+
+  /**
+   * Main method to run a worker until the process is killed.
+   *
+   * @param args Options giving the port and number of threads.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    int port = -1;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    for (String arg : args) {
+      if (arg.startsWith("--port=")) {
+        port = Integer.parseInt(arg.substring("--port=".length()));
+      } else if (arg.startsWith("--threads=")) {
+        numThreads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if (arg.startsWith("--formula=")) {
+        try {
+          FractalOption.register(arg.substring("--formula=".length()));
+        } catch (IllegalArgumentException e) {
+          System.err.println("ERROR: " + e.getMessage());
+          port = -1;
+          break;
+        }
+      } else {
+        port = -1;
+        break;
+      }
+    }
+    if (port < 0) {
+      System.err.println("Usage: FarmWorker --port=n [--threads=n] [--formula=f ...]");
+      System.exit(2);
+    }
+    try {
+      FarmWorker worker = new FarmWorker(port, numThreads);
+      System.out.println("Worker listening on port " + worker.getPort());
+      worker.serve();
+    } catch (IOException e) {
+      System.err.println("ERROR: Could not start the worker");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
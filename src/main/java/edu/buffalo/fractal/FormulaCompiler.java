@@ -0,0 +1,862 @@
+package edu.buffalo.fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a formula typed by the user into a {@link FormulaKernel}. Rather than interpreting the formula for every
+ * step of every orbit, the formula is expanded into separate expressions for the real and imaginary parts of the next
+ * point, and each expression is translated into the bytecode of a method. The class holding those methods is loaded as
+ * a hidden class (or, before Java 15, an ordinary class in this package), so the JIT compiles and inlines the formula
+ * exactly as it would a hand-written kernel. Formulas use this grammar:
+ *
+ * <pre>
+ * formula := term (('+' | '-') term)*
+ * term    := unary ('*' unary)*
+ * unary   := '-' unary | power
+ * power   := primary ('^' integer)?
+ * primary := number | 'z' | 'c' | 'i' | function '(' formula ')' | '(' formula ')'
+ * </pre>
+ *
+ * Here <code>z</code> is the current point of the orbit and <code>c</code> the point being calculated; each orbit
+ * starts at <code>z = c</code>. The functions are <code>re</code> and <code>im</code>, which return the real or imaginary
+ * part; <code>conj</code>, the complex conjugate; and <code>abs</code>, which takes the absolute value of the real and
+ * imaginary parts separately, as burning-ship variants need. For example, the Mandelbrot set is <code>z^2+c</code> and
+ * the burning ship is <code>abs(z)^2+c</code>. Whitespace is ignored and names are not case sensitive.
+ *
+ * @author Matthew Hertz
+ */
+public class FormulaCompiler {
+  /** Largest exponent allowed; larger powers produce formulas too long to be worth compiling. */
+  private static final int MAX_EXPONENT = 64;
+
+  /** Longest formula, in characters after normalizing, which will be compiled. */
+  private static final int MAX_LENGTH = 256;
+
+  /** Deepest nesting of parentheses, function calls, and negations; this keeps the parser's recursion shallow. */
+  private static final int MAX_NESTING = 32;
+
+  /** Largest method the class file format allows, in bytes. */
+  private static final int MAX_CODE_LENGTH = 65535;
+
+  /** Internal name of the interface implemented by the compiled kernels. */
+  private static final String KERNEL_INTERFACE = FormulaKernel.class.getName().replace('.', '/');
+
+  /** Descriptor of the methods of {@link FormulaKernel}. */
+  private static final String STEP_DESCRIPTOR = "(DDDD)D";
+
+  /** Number used to give each compiled kernel its own class name. */
+  private static final AtomicInteger kernelsCompiled = new AtomicInteger();
+
+  /** Enumeration of the operations in the expression for one part of the next point. */
+  private enum Op {
+    CONSTANT, X, Y, X0, Y0, ADD, SUB, MUL, NEG, ABS;
+  }
+
+  /**
+   * Node of the expression calculating the real or imaginary part of the next point. Complex operations reuse the
+   * nodes of their operands, so the expression is a graph in which a node may have many parents.
+   */
+  private static final class Node {
+    /** Operation performed by this node. */
+    private final Op op;
+
+    /** Value of a constant; unused for other operations. */
+    private final double value;
+
+    /** First operand; null for constants and variables. */
+    private final Node left;
+
+    /** Second operand; null unless the operation is binary. */
+    private final Node right;
+
+    /**
+     * Create a new node.
+     *
+     * @param operation Operation performed by the node.
+     * @param constant Value of a constant.
+     * @param first First operand.
+     * @param second Second operand.
+     */
+    private Node(Op operation, double constant, Node first, Node second) {
+      op = operation;
+      value = constant;
+      left = first;
+      right = second;
+    }
+
+    /**
+     * Return whether this node is the given constant. Signed zeros are distinguished, so <code>-0.0</code> is not
+     * replaced by <code>0.0</code>.
+     *
+     * @param constant Value being checked.
+     * @return True if this node is a constant with exactly the given value; false otherwise.
+     */
+    private boolean is(double constant) {
+      return (op == Op.CONSTANT) && (Double.compare(value, constant) == 0);
+    }
+  }
+
+  /** Node for the real part of z. */
+  private static final Node X = new Node(Op.X, 0, null, null);
+
+  /** Node for the imaginary part of z. */
+  private static final Node Y = new Node(Op.Y, 0, null, null);
+
+  /** Node for the real part of c. */
+  private static final Node X0 = new Node(Op.X0, 0, null, null);
+
+  /** Node for the imaginary part of c. */
+  private static final Node Y0 = new Node(Op.Y0, 0, null, null);
+
+  /** Node for the constant 0. */
+  private static final Node ZERO = constant(0);
+
+  /** Node for the constant 1. */
+  private static final Node ONE = constant(1);
+
+  /** Complex value whose real and imaginary parts are each calculated by an expression. */
+  private static final class Complex {
+    /** Expression calculating the real part. */
+    private final Node re;
+
+    /** Expression calculating the imaginary part. */
+    private final Node im;
+
+    /**
+     * Create a new complex value.
+     *
+     * @param real Expression calculating the real part.
+     * @param imaginary Expression calculating the imaginary part.
+     */
+    private Complex(Node real, Node imaginary) {
+      re = real;
+      im = imaginary;
+    }
+  }
+
+  /** Formula being compiled, after being normalized. */
+  private final String text;
+
+  /** Index of the next character of the formula to be parsed. */
+  private int pos;
+
+  /** Number of parentheses, function calls, and negations enclosing the current position. */
+  private int nesting;
+
+  /**
+   * Create a new instance which parses the given formula.
+   *
+   * @param formula Normalized formula being compiled.
+   */
+  private FormulaCompiler(String formula) {
+    text = formula;
+  }
+
+  /**
+   * Normalize a formula so that formulas differing only in spacing or case share a name.
+   *
+   * @param formula Formula as typed by the user.
+   * @return Formula without whitespace and in lower case.
+   */
+  public static String normalize(String formula) {
+    return formula.replaceAll("\\s+", "").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Compile a formula into a kernel.
+   *
+   * @param formula Formula to be compiled; see the class description for its grammar.
+   * @return Kernel calculating each step of the formula.
+   * @throws IllegalArgumentException Thrown if the formula is invalid or too long to compile.
+   */
+  public static FormulaKernel compile(String formula) {
+    String normalized = normalize(formula);
+    if (normalized.length() > MAX_LENGTH) {
+      throw new IllegalArgumentException("Formulas may be at most " + MAX_LENGTH + " characters long");
+    }
+    FormulaCompiler parser = new FormulaCompiler(normalized);
+    Complex step = parser.parse();
+    String className = FormulaCompiler.class.getPackage().getName().replace('.', '/') + "/CompiledFormula" +
+                       kernelsCompiled.incrementAndGet();
+    byte[] classFile = writeClass(className, step);
+    try {
+      return (FormulaKernel) defineClass(classFile).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not load the kernel for " + formula, e);
+    }
+  }
+
+  /**
+   * Load a generated class into this package. Hidden classes are used when the runtime supports them, since they are
+   * unloaded once no kernel refers to them; otherwise the class is defined like any other.
+   *
+   * @param classFile Contents of the class file.
+   * @return Class which was loaded.
+   * @throws ReflectiveOperationException Thrown if the class could not be defined.
+   */
+  private static Class<?> defineClass(byte[] classFile) throws ReflectiveOperationException {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      Class<?> optionType = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      Method define = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                                                           Array.newInstance(optionType, 0).getClass());
+      MethodHandles.Lookup hidden = (MethodHandles.Lookup) define.invoke(lookup, classFile, true,
+                                                                         Array.newInstance(optionType, 0));
+      return hidden.lookupClass();
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      return lookup.defineClass(classFile);
+    }
+  }
+
+  // Parsing
+
+  /**
+   * Parse the entire formula.
+   *
+   * @return Expressions calculating the next point of the orbit.
+   */
+  private Complex parse() {
+    if (text.isEmpty()) {
+      throw new IllegalArgumentException("The formula is empty");
+    }
+    Complex retVal = parseSum();
+    if (pos < text.length()) {
+      throw error("Unexpected '" + text.charAt(pos) + "'");
+    }
+    return retVal;
+  }
+
+  /**
+   * Create an exception describing a syntax error at the current position.
+   *
+   * @param message Description of the error.
+   * @return Exception which should be thrown.
+   */
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + (pos + 1) + " of " + text);
+  }
+
+  /**
+   * Consume the next character if it is the one given.
+   *
+   * @param expected Character which may come next.
+   * @return True if the character was consumed; false otherwise.
+   */
+  private boolean accept(char expected) {
+    if ((pos < text.length()) && (text.charAt(pos) == expected)) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Consume the next character, which must be the one given.
+   *
+   * @param expected Character which must come next.
+   */
+  private void expect(char expected) {
+    if (!accept(expected)) {
+      throw error("Expected '" + expected + "'");
+    }
+  }
+
+  /**
+   * Record that the parser is entering another level of nesting.
+   */
+  private void enter() {
+    if (++nesting > MAX_NESTING) {
+      throw error("Formulas may be nested at most " + MAX_NESTING + " deep");
+    }
+  }
+
+  /**
+   * Parse a sum or difference of terms.
+   *
+   * @return Expressions calculating the value of the terms.
+   */
+  private Complex parseSum() {
+    Complex retVal = parseProduct();
+    while (true) {
+      if (accept('+')) {
+        Complex term = parseProduct();
+        retVal = new Complex(add(retVal.re, term.re), add(retVal.im, term.im));
+      } else if (accept('-')) {
+        Complex term = parseProduct();
+        retVal = new Complex(sub(retVal.re, term.re), sub(retVal.im, term.im));
+      } else {
+        return retVal;
+      }
+    }
+  }
+
+  /**
+   * Parse a product of factors.
+   *
+   * @return Expressions calculating the value of the product.
+   */
+  private Complex parseProduct() {
+    Complex retVal = parseUnary();
+    while (accept('*')) {
+      retVal = multiply(retVal, parseUnary());
+    }
+    return retVal;
+  }
+
+  /**
+   * Parse a factor, which may be negated.
+   *
+   * @return Expressions calculating the value of the factor.
+   */
+  private Complex parseUnary() {
+    if (accept('-')) {
+      enter();
+      Complex operand = parseUnary();
+      nesting--;
+      return new Complex(neg(operand.re), neg(operand.im));
+    }
+    return parsePower();
+  }
+
+  /**
+   * Parse a value which may be raised to a whole-numbered power.
+   *
+   * @return Expressions calculating the value of the power.
+   */
+  private Complex parsePower() {
+    Complex base = parsePrimary();
+    if (!accept('^')) {
+      return base;
+    }
+    int start = pos;
+    while ((pos < text.length()) && Character.isDigit(text.charAt(pos))) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Exponents must be whole numbers");
+    }
+    if (((pos - start) > 2) || (Integer.parseInt(text.substring(start, pos)) > MAX_EXPONENT)) {
+      pos = start;
+      throw error("Exponents may be at most " + MAX_EXPONENT);
+    }
+    int exponent = Integer.parseInt(text.substring(start, pos));
+    // Raise the base to the power by repeated squaring.
+    Complex retVal = new Complex(ONE, ZERO);
+    boolean first = true;
+    while (exponent > 0) {
+      if ((exponent & 1) != 0) {
+        retVal = first ? base : multiply(retVal, base);
+        first = false;
+      }
+      exponent >>= 1;
+      if (exponent > 0) {
+        base = multiply(base, base);
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Parse a number, variable, function call, or parenthesized formula.
+   *
+   * @return Expressions calculating the value parsed.
+   */
+  private Complex parsePrimary() {
+    if (pos == text.length()) {
+      throw error("Unexpected end");
+    }
+    char next = text.charAt(pos);
+    if (Character.isDigit(next) || (next == '.')) {
+      int start = pos;
+      while ((pos < text.length()) && (Character.isDigit(text.charAt(pos)) || (text.charAt(pos) == '.'))) {
+        pos++;
+      }
+      try {
+        return new Complex(constant(Double.parseDouble(text.substring(start, pos))), ZERO);
+      } catch (NumberFormatException e) {
+        pos = start;
+        throw error("Invalid number");
+      }
+    }
+    if (accept('(')) {
+      enter();
+      Complex retVal = parseSum();
+      expect(')');
+      nesting--;
+      return retVal;
+    }
+    int start = pos;
+    while ((pos < text.length()) && Character.isLetter(text.charAt(pos))) {
+      pos++;
+    }
+    String name = text.substring(start, pos);
+    switch (name) {
+      case "z":
+        return new Complex(X, Y);
+      case "c":
+        return new Complex(X0, Y0);
+      case "i":
+        return new Complex(ZERO, ONE);
+      case "re":
+      case "im":
+      case "conj":
+      case "abs":
+        expect('(');
+        enter();
+        Complex arg = parseSum();
+        expect(')');
+        nesting--;
+        if ("re".equals(name)) {
+          return new Complex(arg.re, ZERO);
+        } else if ("im".equals(name)) {
+          return new Complex(arg.im, ZERO);
+        } else if ("conj".equals(name)) {
+          return new Complex(arg.re, neg(arg.im));
+        }
+        return new Complex(abs(arg.re), abs(arg.im));
+      default:
+        pos = start;
+        throw error(name.isEmpty() ? ("Unexpected '" + next + "'") : ("Unknown name '" + name + "'"));
+    }
+  }
+
+  // Building expressions; constants are folded so, for example, z^2+c needs no more work than the built-in kernel.
+
+  /**
+   * @param value Value of the constant.
+   * @return Node for the constant
+   */
+  private static Node constant(double value) {
+    return new Node(Op.CONSTANT, value, null, null);
+  }
+
+  /**
+   * @param a First operand.
+   * @param b Second operand.
+   * @return Node calculating <code>a + b</code>
+   */
+  private static Node add(Node a, Node b) {
+    if ((a.op == Op.CONSTANT) && (b.op == Op.CONSTANT)) {
+      return constant(a.value + b.value);
+    } else if (a.is(0)) {
+      return b;
+    } else if (b.is(0)) {
+      return a;
+    }
+    return new Node(Op.ADD, 0, a, b);
+  }
+
+  /**
+   * @param a First operand.
+   * @param b Second operand.
+   * @return Node calculating <code>a - b</code>
+   */
+  private static Node sub(Node a, Node b) {
+    if ((a.op == Op.CONSTANT) && (b.op == Op.CONSTANT)) {
+      return constant(a.value - b.value);
+    } else if (a.is(0)) {
+      return neg(b);
+    } else if (b.is(0)) {
+      return a;
+    }
+    return new Node(Op.SUB, 0, a, b);
+  }
+
+  /**
+   * @param a First operand.
+   * @param b Second operand.
+   * @return Node calculating <code>a * b</code>
+   */
+  private static Node mul(Node a, Node b) {
+    if ((a.op == Op.CONSTANT) && (b.op == Op.CONSTANT)) {
+      return constant(a.value * b.value);
+    } else if (a.is(0) || b.is(0)) {
+      return ZERO;
+    } else if (a.is(1)) {
+      return b;
+    } else if (b.is(1)) {
+      return a;
+    } else if (a.is(-1)) {
+      return neg(b);
+    } else if (b.is(-1)) {
+      return neg(a);
+    }
+    return new Node(Op.MUL, 0, a, b);
+  }
+
+  /**
+   * @param a Operand.
+   * @return Node calculating <code>-a</code>
+   */
+  private static Node neg(Node a) {
+    if (a.op == Op.CONSTANT) {
+      return constant(-a.value);
+    } else if (a.op == Op.NEG) {
+      return a.left;
+    }
+    return new Node(Op.NEG, 0, a, null);
+  }
+
+  /**
+   * @param a Operand.
+   * @return Node calculating <code>Math.abs(a)</code>
+   */
+  private static Node abs(Node a) {
+    if (a.op == Op.CONSTANT) {
+      return constant(Math.abs(a.value));
+    } else if ((a.op == Op.ABS) || (a.op == Op.NEG)) {
+      return abs(a.left);
+    }
+    return new Node(Op.ABS, 0, a, null);
+  }
+
+  /**
+   * @param a First operand.
+   * @param b Second operand.
+   * @return Expressions calculating the complex product <code>a * b</code>
+   */
+  private static Complex multiply(Complex a, Complex b) {
+    return new Complex(sub(mul(a.re, b.re), mul(a.im, b.im)), add(mul(a.re, b.im), mul(a.im, b.re)));
+  }
+
+  // Writing the class file
+
+  /** Builds the constant pool of the class file, reusing entries which are needed more than once. */
+  private static final class ConstantPool {
+    /** Index of each entry added so far, keyed by a description of the entry. */
+    private final Map<String, Integer> entries = new HashMap<>();
+
+    /** Bytes of the entries added so far. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    /** Writes the entries into the bytes. */
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /** Number of slots used so far; slot 0 is never used and doubles take two slots. */
+    private int size = 1;
+
+    /**
+     * @param value Text of the entry.
+     * @return Index of the UTF-8 entry holding the text
+     * @throws IOException Never thrown, since the entries are written to memory.
+     */
+    private int utf8(String value) throws IOException {
+      Integer index = entries.get("U" + value);
+      if (index == null) {
+        out.writeByte(1);
+        out.writeUTF(value);
+        index = size++;
+        entries.put("U" + value, index);
+      }
+      return index;
+    }
+
+    /**
+     * @param internalName Internal name of the class, using slashes between packages.
+     * @return Index of the entry referring to the class
+     * @throws IOException Never thrown, since the entries are written to memory.
+     */
+    private int classRef(String internalName) throws IOException {
+      Integer index = entries.get("C" + internalName);
+      if (index == null) {
+        int name = utf8(internalName);
+        out.writeByte(7);
+        out.writeShort(name);
+        index = size++;
+        entries.put("C" + internalName, index);
+      }
+      return index;
+    }
+
+    /**
+     * @param owner Internal name of the class declaring the method.
+     * @param name Name of the method.
+     * @param descriptor Descriptor of the method's parameters and result.
+     * @return Index of the entry referring to the method
+     * @throws IOException Never thrown, since the entries are written to memory.
+     */
+    private int methodRef(String owner, String name, String descriptor) throws IOException {
+      String key = "M" + owner + "." + name + descriptor;
+      Integer index = entries.get(key);
+      if (index == null) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        int nameAndType = size++;
+        out.writeByte(10);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+        index = size++;
+        entries.put(key, index);
+      }
+      return index;
+    }
+
+    /**
+     * @param value Value of the constant.
+     * @return Index of the entry holding the constant
+     * @throws IOException Never thrown, since the entries are written to memory.
+     */
+    private int doubleConstant(double value) throws IOException {
+      String key = "D" + Double.doubleToRawLongBits(value);
+      Integer index = entries.get(key);
+      if (index == null) {
+        out.writeByte(6);
+        out.writeDouble(value);
+        index = size;
+        size += 2;
+        entries.put(key, index);
+      }
+      return index;
+    }
+  }
+
+  /** Writes the bytecode of a method calculating one part of the next point. */
+  private static final class MethodWriter {
+    /** Constant pool of the class being written. */
+    private final ConstantPool pool;
+
+    /** Bytes of the method's code. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    /** Writes the instructions into the bytes. */
+    private final DataOutputStream code = new DataOutputStream(bytes);
+
+    /** Number of parents of each node which is an operation. */
+    private final Map<Node, Integer> uses = new IdentityHashMap<>();
+
+    /** Local variable holding the value of each node used more than once, once it has been calculated. */
+    private final Map<Node, Integer> saved = new IdentityHashMap<>();
+
+    /** Next free local variable; the first 9 hold this and the four arguments, each double taking two. */
+    private int nextLocal = 9;
+
+    /** Words currently on the operand stack. */
+    private int stack;
+
+    /** Most words ever on the operand stack. */
+    private int maxStack;
+
+    /**
+     * Create a new instance adding constants to the given pool.
+     *
+     * @param constants Constant pool of the class being written.
+     */
+    private MethodWriter(ConstantPool constants) {
+      pool = constants;
+    }
+
+    /**
+     * Count the parents of each operation in the expression.
+     *
+     * @param node Root of the expression being counted.
+     */
+    private void countUses(Node node) {
+      if ((node.left == null) && (node.right == null)) {
+        return;
+      }
+      Integer count = uses.get(node);
+      uses.put(node, (count == null) ? 1 : (count + 1));
+      if (count == null) {
+        countUses(node.left);
+        if (node.right != null) {
+          countUses(node.right);
+        }
+      }
+    }
+
+    /**
+     * Change the depth of the operand stack.
+     *
+     * @param words Number of words pushed, or popped if negative.
+     */
+    private void push(int words) {
+      stack += words;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    /**
+     * Write an instruction loading or storing a double in a local variable.
+     *
+     * @param opcode Opcode of the instruction using a one-byte index.
+     * @param local Index of the local variable.
+     * @throws IOException Never thrown, since the code is written to memory.
+     */
+    private void local(int opcode, int local) throws IOException {
+      if (local > 255) {
+        code.writeByte(0xc4); // wide
+        code.writeByte(opcode);
+        code.writeShort(local);
+      } else {
+        code.writeByte(opcode);
+        code.writeByte(local);
+      }
+    }
+
+    /**
+     * Write the instructions calculating an expression, leaving its value on the operand stack.
+     *
+     * @param node Root of the expression.
+     * @throws IOException Never thrown, since the code is written to memory.
+     */
+    private void emit(Node node) throws IOException {
+      Integer local = saved.get(node);
+      if (local != null) {
+        local(0x18, local); // dload
+        push(2);
+        return;
+      }
+      switch (node.op) {
+        case CONSTANT:
+          if (node.is(0)) {
+            code.writeByte(0x0e); // dconst_0
+          } else if (node.is(1)) {
+            code.writeByte(0x0f); // dconst_1
+          } else {
+            code.writeByte(0x14); // ldc2_w
+            code.writeShort(pool.doubleConstant(node.value));
+          }
+          push(2);
+          return;
+        case X:
+          code.writeByte(0x27); // dload_1
+          push(2);
+          return;
+        case Y:
+          code.writeByte(0x29); // dload_3
+          push(2);
+          return;
+        case X0:
+          local(0x18, 5);
+          push(2);
+          return;
+        case Y0:
+          local(0x18, 7);
+          push(2);
+          return;
+        case NEG:
+          emit(node.left);
+          code.writeByte(0x77); // dneg
+          break;
+        case ABS:
+          emit(node.left);
+          code.writeByte(0xb8); // invokestatic
+          code.writeShort(pool.methodRef("java/lang/Math", "abs", "(D)D"));
+          break;
+        default:
+          emit(node.left);
+          emit(node.right);
+          code.writeByte((node.op == Op.ADD) ? 0x63 : ((node.op == Op.SUB) ? 0x67 : 0x6b)); // dadd, dsub, dmul
+          push(-2);
+          break;
+      }
+      if (uses.get(node) > 1) {
+        // Keep the value for the node's other parents rather than calculating it again.
+        code.writeByte(0x5c); // dup2
+        push(2);
+        local(0x39, nextLocal); // dstore
+        push(-2);
+        saved.put(node, nextLocal);
+        nextLocal += 2;
+      }
+    }
+
+    /**
+     * Write a complete method returning the value of an expression.
+     *
+     * @param out Stream to which the method is written.
+     * @param name Name of the method.
+     * @param expression Expression whose value the method returns.
+     * @throws IOException Never thrown, since the method is written to memory.
+     */
+    private void write(DataOutputStream out, String name, Node expression) throws IOException {
+      countUses(expression);
+      emit(expression);
+      code.writeByte(0xaf); // dreturn
+      if (bytes.size() > MAX_CODE_LENGTH) {
+        throw new IllegalArgumentException("The formula is too long to compile");
+      }
+      out.writeShort(0x0001); // public
+      out.writeShort(pool.utf8(name));
+      out.writeShort(pool.utf8(STEP_DESCRIPTOR));
+      out.writeShort(1);
+      out.writeShort(pool.utf8("Code"));
+      out.writeInt(12 + bytes.size());
+      out.writeShort(maxStack);
+      out.writeShort(nextLocal);
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+    }
+  }
+
+  /**
+   * Write a class file defining a kernel which calculates the given step.
+   *
+   * @param className Internal name of the class.
+   * @param step Expressions calculating the next point of the orbit.
+   * @return Contents of the class file.
+   */
+  private static byte[] writeClass(String className, Complex step) {
+    try {
+      ConstantPool pool = new ConstantPool();
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(body);
+      out.writeShort(0x0031); // public final super
+      out.writeShort(pool.classRef(className));
+      out.writeShort(pool.classRef("java/lang/Object"));
+      out.writeShort(1);
+      out.writeShort(pool.classRef(KERNEL_INTERFACE));
+      out.writeShort(0); // fields
+      out.writeShort(3); // methods
+      // public CompiledFormula() { super(); }
+      out.writeShort(0x0001);
+      out.writeShort(pool.utf8("<init>"));
+      out.writeShort(pool.utf8("()V"));
+      out.writeShort(1);
+      out.writeShort(pool.utf8("Code"));
+      out.writeInt(17);
+      out.writeShort(1);
+      out.writeShort(1);
+      out.writeInt(5);
+      out.writeByte(0x2a); // aload_0
+      out.writeByte(0xb7); // invokespecial
+      out.writeShort(pool.methodRef("java/lang/Object", "<init>", "()V"));
+      out.writeByte(0xb1); // return
+      out.writeShort(0);
+      out.writeShort(0);
+      new MethodWriter(pool).write(out, "nextX", step.re);
+      new MethodWriter(pool).write(out, "nextY", step.im);
+      out.writeShort(0); // attributes
+      if (pool.size > 0xffff) {
+        throw new IllegalArgumentException("The formula is too long to compile");
+      }
+      ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(retVal);
+      header.writeInt(0xcafebabe);
+      header.writeShort(0); // minor version
+      header.writeShort(52); // Java 8, so no stack map frames are needed
+      header.writeShort(pool.size);
+      pool.bytes.writeTo(header);
+      body.writeTo(header);
+      return retVal.toByteArray();
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+  }
+}
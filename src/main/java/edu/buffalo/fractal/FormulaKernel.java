@@ -0,0 +1,31 @@
+package edu.buffalo.fractal;
+
+/**
+ * A single step of a fractal's formula, generated at runtime by {@link FormulaCompiler}. Both methods take the current
+ * point of the orbit, z = x + yi, and the point being calculated, c = x0 + y0i.
+ *
+ * @author Matthew Hertz
+ */
+interface FormulaKernel {
+  /**
+   * Calculate the real part of the next point of the orbit.
+   *
+   * @param x Real part of the current point.
+   * @param y Imaginary part of the current point.
+   * @param x0 Real part of the point being calculated.
+   * @param y0 Imaginary part of the point being calculated.
+   * @return Real part of the next point.
+   */
+  double nextX(double x, double y, double x0, double y0);
+
+  /**
+   * Calculate the imaginary part of the next point of the orbit.
+   *
+   * @param x Real part of the current point.
+   * @param y Imaginary part of the current point.
+   * @param x0 Real part of the point being calculated.
+   * @param y0 Imaginary part of the point being calculated.
+   * @return Imaginary part of the next point.
+   */
+  double nextY(double x, double y, double x0, double y0);
+}
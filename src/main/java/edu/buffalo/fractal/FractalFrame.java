@@ -0,0 +1,557 @@
+package edu.buffalo.fractal;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Event;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.IndexColorModel;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLayeredPane;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.KeyStroke;
+import javax.swing.OverlayLayout;
+import javax.swing.filechooser.FileFilter;
+
+/**
+ * Defines a very simple application with which I display the fractal.
+ *
+ * @author Matthew Hertz
+ */
+@SuppressWarnings("serial")
+public class FractalFrame extends JFrame {
+  /** Fractal image displayed on this frame. */
+  private FractalPanel fractal;
+
+  /** Refers to the settings of the active fractal which we are computing; null until a fractal is selected. */
+  private RenderRequest activeRequest;
+
+  /** Most iterations computed before deciding a point does not escape. */
+  private int maxIterations = RenderRequest.DEFAULT_MAX_ITERATIONS;
+
+  /** Distance from the origin beyond which a point has escaped. */
+  private int escapeValue = RenderRequest.DEFAULT_ESCAPE_VALUE;
+
+  /** Number of rows and columns in the fractal being computed. */
+  private static final int FRACTAL_SIZE = 2048;
+
+  private enum ColorOption {
+    Rainbow, Grays, Blues;
+  }
+
+  private ColorOption colorUsed;
+
+  /** Extension used for files holding a fractal's escape times. */
+  private static final String ESCAPE_MAP_EXTENSION = ".fesc";
+
+  /** Filter used when selecting files holding a fractal's escape times. */
+  private static final FileFilter ESCAPE_MAP_FILTER = new FileFilter() {
+    @Override
+    public boolean accept(File f) {
+      return f.isDirectory() || f.getName().endsWith(ESCAPE_MAP_EXTENSION);
+    }
+
+    @Override
+    public String getDescription() {
+      return "Escape Maps";
+    }
+  };
+
+  /** The thread pool with which we will generate our fractals. */
+  private ComputePool poolOfWorkers;
+
+  /** Menu from which the fractal is selected. */
+  private JMenu algorithmMenu;
+
+  /** Group ensuring only one fractal is selected in the menu. */
+  private ButtonGroup algorithmGroup;
+
+  /** Menu item selecting each fractal offered, in the order they appear in the menu. */
+  private final Map<FractalOption, JRadioButtonMenuItem> formulaItems = new LinkedHashMap<>();
+
+  /** Points sampled for each pixel when rendering a fractal's orbit density. */
+  private static final int DENSITY_SAMPLES_PER_PIXEL = 20;
+
+  /** True when fractals are displayed by their orbit density rather than their escape times. */
+  private boolean densityMode;
+
+  /** Orbit density being rendered or last rendered; null unless fractals are displayed by their orbit density. */
+  private Buddhabrot densityRender;
+
+  /** Menu item selecting whether fractals are displayed by their orbit density. */
+  private JCheckBoxMenuItem densityItem;
+
+  /** Returns the settings of the fractal that is current being generated */
+  public RenderRequest getActive() {
+    return activeRequest;
+  }
+
+  /** Create a new frame and provide the user with options. */
+  public FractalFrame() {
+    // Setup our JFrame
+    super();
+
+    // Create the menu bar
+    JMenuBar menuBar = new JMenuBar();
+    setJMenuBar(menuBar);
+    // Create the "File" menu
+    JMenu fileMenu = new JMenu("File");
+    JMenuItem saveItem = new JMenuItem("Save", KeyEvent.VK_S);
+    saveItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, Event.CTRL_MASK));
+    saveItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser saveDlg = new JFileChooser();
+        FileFilter fltr = new FileFilter() {
+
+          @Override
+          public boolean accept(File f) {
+            return f.getName().endsWith(".png");
+          }
+
+          @Override
+          public String getDescription() {
+            return "PNG Files";
+          }
+        };
+        saveDlg.setFileFilter(fltr);
+        int valu = saveDlg.showSaveDialog(null);
+        if (valu == JFileChooser.APPROVE_OPTION) {
+          // Save on a worker thread so the interface stays responsive while the image is compressed.
+          fractal.saveImageInBackground(FractalPanel.SaveFormat.PNG, saveDlg.getSelectedFile().getAbsolutePath());
+        }
+      }
+    });
+    fileMenu.add(saveItem);
+    JMenuItem saveSmoothItem = new JMenuItem("Save Anti-aliased", KeyEvent.VK_A);
+    saveSmoothItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser saveDlg = new JFileChooser();
+        if (saveDlg.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+          String fileName = saveDlg.getSelectedFile().getAbsolutePath();
+          if (poolOfWorkers.saveAntialiasedImage(FractalPanel.SaveFormat.PNG, fileName,
+                                                 EdgeSupersampler.DEFAULT_FACTOR) == null) {
+            JOptionPane.showMessageDialog(null, "Wait for the fractal to finish before saving it anti-aliased",
+                                          "Error!", JOptionPane.ERROR_MESSAGE);
+          }
+        }
+      }
+    });
+    fileMenu.add(saveSmoothItem);
+    JMenuItem saveEscapesItem = new JMenuItem("Save Escape Map", KeyEvent.VK_E);
+    saveEscapesItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser saveDlg = new JFileChooser();
+        saveDlg.setFileFilter(ESCAPE_MAP_FILTER);
+        if (saveDlg.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+          String fileName = saveDlg.getSelectedFile().getAbsolutePath();
+          if (!fileName.endsWith(ESCAPE_MAP_EXTENSION)) {
+            fileName += ESCAPE_MAP_EXTENSION;
+          }
+          if (poolOfWorkers.saveEscapeMap(new File(fileName)) == null) {
+            JOptionPane.showMessageDialog(null, "Wait for the fractal to finish before saving its escape map", "Error!",
+                                          JOptionPane.ERROR_MESSAGE);
+          }
+        }
+      }
+    });
+    fileMenu.add(saveEscapesItem);
+    JMenuItem openEscapesItem = new JMenuItem("Open Escape Map", KeyEvent.VK_O);
+    openEscapesItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        JFileChooser openDlg = new JFileChooser();
+        openDlg.setFileFilter(ESCAPE_MAP_FILTER);
+        if (openDlg.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+          openEscapeMap(openDlg.getSelectedFile());
+        }
+      }
+    });
+    fileMenu.add(openEscapesItem);
+    fileMenu.addSeparator();
+    JMenuItem exitItem = new JMenuItem("Exit", KeyEvent.VK_X);
+    exitItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F4, Event.ALT_MASK));
+    exitItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        System.exit(0);
+      }
+    });
+    fileMenu.add(exitItem);
+    menuBar.add(fileMenu);
+
+    // Create the "Algorithm" menu
+    algorithmMenu = new JMenu("Algorithm");
+    algorithmGroup = new ButtonGroup();
+    for (FractalOption option : FractalOption.values()) {
+      addFormulaItem(option);
+    }
+    formulaItems.get(FractalOption.Mandelbrot).setSelected(true);
+    JMenuItem customItem = new JMenuItem("Custom Formula...", KeyEvent.VK_F);
+    customItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        String formula = JOptionPane.showInputDialog("Formula to iterate, such as z^4+c or abs(z)^2+c",
+                                                     (activeRequest == null) ? "z^4+c" :
+                                                         activeRequest.getFormula().getFormula());
+        if (formula != null) {
+          FractalOption option;
+          try {
+            option = FractalOption.register(formula);
+          } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(null, ex.getMessage(), "Error!", JOptionPane.ERROR_MESSAGE);
+            return;
+          }
+          if (!formulaItems.containsKey(option)) {
+            addFormulaItem(option);
+          }
+          formulaItems.get(option).setSelected(true);
+          switchTask(option);
+        }
+      }
+    });
+    algorithmMenu.add(customItem);
+    algorithmMenu.addSeparator();
+    densityItem = new JCheckBoxMenuItem("Orbit Density (Buddhabrot)", false);
+    densityItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        densityMode = densityItem.isSelected();
+        if (activeRequest != null) {
+          switchTask(activeRequest);
+        }
+      }
+    });
+    algorithmMenu.add(densityItem);
+    menuBar.add(algorithmMenu);
+
+    JMenu colorMenu = new JMenu("Color");
+    ButtonGroup colorGroup = new ButtonGroup();
+    JRadioButtonMenuItem defaultItem = new JRadioButtonMenuItem("Rainbow", true);
+    defaultItem.setMnemonic(KeyEvent.VK_D);
+    defaultItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        redoRainbow();
+        recolor();
+      }
+    });
+    colorGroup.add(defaultItem);
+    colorMenu.add(defaultItem);
+    JRadioButtonMenuItem grayItem = new JRadioButtonMenuItem("Grays", false);
+    grayItem.setMnemonic(KeyEvent.VK_M);
+    grayItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        redoGrays();
+        recolor();
+      }
+    });
+    colorGroup.add(grayItem);
+    colorMenu.add(grayItem);
+    JRadioButtonMenuItem bluesItem = new JRadioButtonMenuItem("Blues", false);
+    bluesItem.setMnemonic(KeyEvent.VK_M);
+    bluesItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        redoBlues();
+        recolor();
+      }
+    });
+    colorGroup.add(bluesItem);
+    colorMenu.add(bluesItem);
+    colorUsed = ColorOption.Rainbow;
+    menuBar.add(colorMenu);
+
+    // Create the "View" menu
+    JMenu viewMenu = new JMenu("View");
+    final JCheckBoxMenuItem hudItem = new JCheckBoxMenuItem("Performance HUD", false);
+    hudItem.setMnemonic(KeyEvent.VK_H);
+    viewMenu.add(hudItem);
+    final JCheckBoxMenuItem threadItem = new JCheckBoxMenuItem("Thread per Tile", false);
+    threadItem.setMnemonic(KeyEvent.VK_T);
+    viewMenu.add(threadItem);
+    menuBar.add(viewMenu);
+
+    // Create the image in which our fractal is displayed, the dragging panel in the middle, and overlay that goes on
+    // top.
+    fractal = new FractalPanel();
+    fractal.setSize(new Dimension(FRACTAL_SIZE, FRACTAL_SIZE));
+    poolOfWorkers = new ComputePool();
+    poolOfWorkers.changePanel(fractal);
+    DraggingPane drag = new DraggingPane(this);
+    final OverlayPane overlay = new OverlayPane();
+    overlay.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent me) {
+        if (me.getY() <= ((OverlayPane) me.getSource()).getResetHeight()) {
+          if (activeRequest != null) {
+            switchTask(activeRequest.getFormula());
+          }
+        } else if (me.getY() <= ((OverlayPane) me.getSource()).getEscapeHeight()) {
+          String escape = JOptionPane.showInputDialog("What is the new escape value to use?", escapeValue);
+          if (escape != null) {
+            escapeValue = Integer.parseInt(escape);
+            if (activeRequest != null) {
+              switchTask(activeRequest.withLimits(maxIterations, escapeValue));
+            }
+          }
+        } else if (me.getY() <= ((OverlayPane) me.getSource()).getIterationHeight()) {
+          String iterate = JOptionPane.showInputDialog("What is the new iteration value to use?", maxIterations);
+          if (iterate != null) {
+            int iters = Integer.parseInt(iterate);
+            if (iters < 1) {
+              JOptionPane.showMessageDialog(null, "Iterations must be at least 1, not " + iterate, "Error!",
+                                            JOptionPane.ERROR_MESSAGE);
+            } else {
+              maxIterations = iters;
+              redoColors();
+              if (activeRequest != null) {
+                RenderRequest deeper = activeRequest.withLimits(maxIterations, escapeValue);
+                // Raising the limit on a completed fractal only needs to continue the pixels which had not escaped.
+                if (poolOfWorkers.deepenFractal(deeper)) {
+                  activeRequest = deeper;
+                } else {
+                  switchTask(deeper);
+                }
+              }
+            }
+          }
+        }
+      }
+    });
+
+    hudItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        overlay.setHud(hudItem.isSelected() ? poolOfWorkers : null);
+      }
+    });
+    threadItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        poolOfWorkers.setExecutionMode(threadItem.isSelected() ? ComputePool.ExecutionMode.THREAD_PER_TILE :
+            ComputePool.ExecutionMode.SWING_WORKER);
+      }
+    });
+
+    // Now create the layered pane that holds everything.
+    JLayeredPane layerPane = new JLayeredPane();
+    layerPane.setLayout(new OverlayLayout(layerPane));
+    layerPane.add(overlay, Integer.valueOf(JLayeredPane.DRAG_LAYER + 50));
+    layerPane.add(drag, JLayeredPane.DRAG_LAYER);
+    layerPane.add(fractal, JLayeredPane.DEFAULT_LAYER);
+
+    getContentPane().add(layerPane);
+
+    addMouseListener(drag);
+    addMouseMotionListener(drag);
+  }
+
+  /**
+   * Add an item selecting the given fractal to the menu, after those already offered.
+   *
+   * @param option Fractal which the item selects.
+   */
+  private void addFormulaItem(final FractalOption option) {
+    JRadioButtonMenuItem item = new JRadioButtonMenuItem(option.getLabel(), false);
+    item.setToolTipText(option.getFormula());
+    item.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        switchTask(option);
+      }
+    });
+    algorithmGroup.add(item);
+    algorithmMenu.insert(item, formulaItems.size());
+    formulaItems.put(option, item);
+  }
+
+  /**
+   * Return the number of colors to include in each color model. Each escape time gets its own color when possible, but
+   * the 8-bit color models hold at most 256 colors.
+   *
+   * @return Number of colors the color models should contain.
+   */
+  private int paletteSize() {
+    return Math.min(maxIterations, 255) + 1;
+  }
+
+  private void redoRainbow() {
+    int numColors = paletteSize();
+    byte[] reds = new byte[numColors];
+    byte[] greens = new byte[numColors];
+    byte[] blues = new byte[numColors];
+    for (int i = 0; i < (reds.length - 1); i++ ) {
+      int rgb = Color.HSBtoRGB(i / ((float) reds.length - 1), 0.6F, 1);
+      reds[i] = (byte) ((rgb & 0xFF0000) >> 16);
+      greens[i] = (byte) ((rgb & 0xFF00) >> 8);
+      blues[i] = (byte) (rgb & 0xFF);
+    }
+    IndexColorModel retVal = new IndexColorModel(8, reds.length, reds, greens, blues);
+    colorUsed = ColorOption.Rainbow;
+    fractal.setIndexColorModel(retVal);
+  }
+
+  private void redoGrays() {
+    IndexColorModel retVal = ColorModelFactory.createGrayColorModel(paletteSize());
+    colorUsed = ColorOption.Grays;
+    fractal.setIndexColorModel(retVal);
+  }
+
+  private void redoBlues() {
+    IndexColorModel retVal = ColorModelFactory.createBluesColorModel(paletteSize());
+    colorUsed = ColorOption.Blues;
+    fractal.setIndexColorModel(retVal);
+  }
+
+  /** Rebuild the color model currently in use so that it matches the current iteration limit. */
+  private void redoColors() {
+    switch (colorUsed) {
+      case Rainbow:
+        redoRainbow();
+        break;
+      case Grays:
+        redoGrays();
+        break;
+      case Blues:
+        redoBlues();
+        break;
+    }
+  }
+
+  /** Color the active fractal using the current color model, reusing its escape times when they are all known. */
+  private void recolor() {
+    if (densityRender != null) {
+      densityRender.recolor();
+      fractal.repaint();
+    } else if ((activeRequest != null) && !poolOfWorkers.recolorFractal()) {
+      switchTask(activeRequest);
+    }
+  }
+
+  /**
+   * Display the fractal whose escape times are stored in the given file. Escape maps hold escape times rather than
+   * orbit densities, so any orbit density being rendered is stopped and the escape times are displayed instead.
+   *
+   * @param file Escape map which should be displayed.
+   */
+  private void openEscapeMap(File file) {
+    try (EscapeMap map = EscapeMap.open(file)) {
+      EscapeBuffer escapes = map.load();
+      stopDensity();
+      densityMode = false;
+      densityItem.setSelected(false);
+      activeRequest = map.getRequest();
+      maxIterations = activeRequest.getMaxIterations();
+      escapeValue = activeRequest.getEscapeValue();
+      redoColors();
+      poolOfWorkers.showFractal(activeRequest, escapes);
+    } catch (IOException | IllegalArgumentException e) {
+      JOptionPane.showMessageDialog(null, "Could not open " + file + ": " + e.getMessage(), "Error!",
+                                    JOptionPane.ERROR_MESSAGE);
+    }
+  }
+
+  /**
+   * Start generating the default view of the given fractal using the current limits.
+   *
+   * @param newOption Fractal which should be generated.
+   */
+  protected void switchTask(FractalOption newOption) {
+    switchTask(RenderRequest.defaultView(newOption, FRACTAL_SIZE, FRACTAL_SIZE, maxIterations, escapeValue));
+  }
+
+  /**
+   * Prioritize the region of the fractal around the given point of the display when the next fractal is computed.
+   *
+   * @param x Horizontal location, in the displayed component, around which work should be focused.
+   * @param y Vertical location, in the displayed component, around which work should be focused.
+   * @param width Width of the component in which the location was measured.
+   * @param height Height of the component in which the location was measured.
+   */
+  protected void focusOn(int x, int y, int width, int height) {
+    if ((width > 0) && (height > 0)) {
+      poolOfWorkers.setFocus((x * FRACTAL_SIZE) / width, (y * FRACTAL_SIZE) / height);
+    }
+  }
+
+  /** Return to computing the centre of the view first. */
+  protected void clearFocus() {
+    poolOfWorkers.clearFocus();
+  }
+
+  /**
+   * Stop generating the current fractal and start generating the given one instead.
+   *
+   * @param request Settings of the fractal which should be generated.
+   */
+  protected void switchTask(RenderRequest request) {
+    poolOfWorkers.clearPool();
+    stopDensity();
+    activeRequest = request;
+    // Make the new task active.
+    if (densityMode) {
+      startDensity(request);
+    } else {
+      poolOfWorkers.generateFractal(request);
+    }
+  }
+
+  /** Stop rendering the current orbit density, if there is one, so that it is no longer displayed or recolored. */
+  private void stopDensity() {
+    if (densityRender != null) {
+      densityRender.cancel(false);
+      densityRender = null;
+    }
+  }
+
+  /**
+   * Start rendering the orbit density of the given view, redrawing the image each time the render reports progress.
+   *
+   * @param request Settings of the view whose orbit density should be rendered.
+   */
+  private void startDensity(RenderRequest request) {
+    final Buddhabrot render = new Buddhabrot(request, (long) request.getRows() * request.getColumns() *
+                                                      DENSITY_SAMPLES_PER_PIXEL,
+                                             Runtime.getRuntime().availableProcessors());
+    FractalRaster raster = fractal.getRaster(request.getRows(), request.getColumns());
+    // Stop any tiles or densities still running for an earlier view from painting over this one.
+    raster.startFrame();
+    render.setRaster(raster);
+    render.addPropertyChangeListener(new PropertyChangeListener() {
+      @Override
+      public void propertyChange(PropertyChangeEvent evt) {
+        if ((render == densityRender) && "progress".equals(evt.getPropertyName())) {
+          fractal.repaint();
+        }
+      }
+    });
+    densityRender = render;
+    render.execute();
+  }
+
+  /**
+   * Main method to start our program.
+   *
+   * @param args Command-line arguments, these do not get used.
+   */
+  @SuppressWarnings("cast")
+  public static void main(String[] args) {
+    Component ff = new FractalFrame();
+    if (ff instanceof JFrame) {
+      JFrame jf = (JFrame) ff;
+      jf.setTitle("Fractal Explorer");
+      jf.pack();
+      jf.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+    }
+    ff.setVisible(true);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,185 @@
+package edu.buffalo.fractal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the fractals which can be generated. Each also records the bounds of the fractal's default view. The
+ * built-in fractals are constants computed by hand-written kernels. Formulas typed by the user, such as
+ * <code>z^4+c</code>, are compiled into kernels (see {@link FormulaCompiler}) and registered by {@link #register}; every
+ * later use of the same formula returns the same instance, so fractals can be compared using <code>==</code>. Names
+ * received from other machines, such as a tile server's URLs, are only looked up using {@link #valueOf}, so clients
+ * cannot make this process compile and load classes.
+ *
+ * @author Matthew Hertz
+ */
+public final class FractalOption {
+  public static final FractalOption Mandelbrot = new FractalOption("Mandelbrot", "Mandelbrot", "z^2+c", -2.15, -1.3,
+                                                                   0.6, 1.3, null);
+
+  public static final FractalOption BurningShip = new FractalOption("BurningShip", "Burning Ship", "abs(z)^2+c", -1.8,
+                                                                    -0.08, -1.7, 0.025, null);
+
+  public static final FractalOption JuliaSet = new FractalOption("JuliaSet", "Julia",
+                                                                 "z^2+(-0.726895347709114+0.188887129043846*i)", -1.7,
+                                                                 -1, 1.7, 1, null);
+
+  public static final FractalOption Multibrot = new FractalOption("Multibrot", "Multibrot", "z^3+c", -1, -1.3, 1, 1.3,
+                                                                  null);
+
+  /** Built-in fractals, in the order they are offered to the user. */
+  private static final FractalOption[] BUILT_IN = { Mandelbrot, JuliaSet, BurningShip, Multibrot };
+
+  /** Bounds of the default view of fractals typed by the user. */
+  private static final double CUSTOM_EXTENT = 2;
+
+  /** Most formulas which can be registered; each loads a class, so they cannot be allowed to grow without bound. */
+  private static final int MAX_CUSTOM = 64;
+
+  /** Fractals typed by the user, keyed by their normalized formula. */
+  private static final ConcurrentMap<String, FractalOption> custom = new ConcurrentHashMap<>();
+
+  /** Name identifying the fractal; for a fractal typed by the user, this is its normalized formula. */
+  private final String name;
+
+  /** Name of the fractal shown to the user. */
+  private final String label;
+
+  /** Formula iterated to generate the fractal, written as the user would type it. */
+  private final String formula;
+
+  private final double startX, startY, endX, endY;
+
+  /** Compiled kernel iterating the formula; null for the built-in fractals, which have their own kernels. */
+  private final FormulaKernel kernel;
+
+  private FractalOption(String name, String label, String formula, double startX, double startY, double endX,
+                        double endY, FormulaKernel kernel) {
+    this.name = name;
+    this.label = label;
+    this.formula = formula;
+    this.startX = startX;
+    this.startY = startY;
+    this.endX = endX;
+    this.endY = endY;
+    this.kernel = kernel;
+  }
+
+  /**
+   * @return the built-in fractals, in the order they are offered to the user
+   */
+  public static FractalOption[] values() {
+    return BUILT_IN.clone();
+  }
+
+  /**
+   * Return the built-in or registered fractal with the given name. This never compiles a formula.
+   *
+   * @param name Name of a built-in fractal or a formula which has been registered.
+   * @return Fractal with the given name.
+   * @throws IllegalArgumentException Thrown if no fractal with the name has been registered.
+   */
+  public static FractalOption valueOf(String name) {
+    for (FractalOption option : BUILT_IN) {
+      if (option.name.equals(name)) {
+        return option;
+      }
+    }
+    FractalOption retVal = custom.get(FormulaCompiler.normalize(name));
+    if (retVal == null) {
+      throw new IllegalArgumentException("Unknown fractal: " + name);
+    }
+    return retVal;
+  }
+
+  /**
+   * Return the fractal with the given name, compiling and registering it as a formula if it is not already known. Only
+   * names given by the local user should be passed here; see {@link #valueOf(String)}.
+   *
+   * @param name Name of a built-in fractal or a formula, such as <code>z^4+c</code>.
+   * @return Fractal with the given name.
+   * @throws IllegalArgumentException Thrown if the name is neither a built-in fractal nor a valid formula, or if too
+   *           many formulas have already been registered.
+   */
+  public static synchronized FractalOption register(String name) {
+    for (FractalOption option : BUILT_IN) {
+      if (option.name.equals(name)) {
+        return option;
+      }
+    }
+    String normalized = FormulaCompiler.normalize(name);
+    FractalOption retVal = custom.get(normalized);
+    if (retVal == null) {
+      // Registered formulas stay in use by open windows and cached tiles, so the oldest cannot simply be evicted.
+      if (custom.size() >= MAX_CUSTOM) {
+        throw new IllegalArgumentException("At most " + MAX_CUSTOM + " formulas may be used at once");
+      }
+      FormulaKernel compiled = FormulaCompiler.compile(normalized);
+      retVal = new FractalOption(normalized, normalized, normalized, -CUSTOM_EXTENT, -CUSTOM_EXTENT, CUSTOM_EXTENT,
+                                 CUSTOM_EXTENT, compiled);
+      custom.put(normalized, retVal);
+    }
+    return retVal;
+  }
+
+  /**
+   * @return the name identifying this fractal
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @return the name of this fractal shown to the user
+   */
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * @return the formula iterated to generate this fractal, written as the user would type it
+   */
+  public String getFormula() {
+    return formula;
+  }
+
+  /**
+   * @return true if this fractal was typed by the user; false if it is built in
+   */
+  public boolean isCustom() {
+    return kernel != null;
+  }
+
+  /**
+   * @return the compiled kernel iterating the formula, or null for the built-in fractals
+   */
+  FormulaKernel getKernel() {
+    return kernel;
+  }
+
+  public double getStartX() {
+    return startX;
+  }
+
+  public double getStartY() {
+    return startY;
+  }
+
+  public double getEndX() {
+    return endX;
+  }
+
+  public double getEndY() {
+    return endY;
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
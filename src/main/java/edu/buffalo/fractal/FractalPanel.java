@@ -0,0 +1,280 @@
+package edu.buffalo.fractal;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+
+/**
+ * Class that displays (and optionally saves) a generated image. The image is constructed in a
+ * &quot;color-by-number&quot; style -- it is specified as a series of integers. These integers are then mapped to a
+ * color using an {@link IndexColorModel}. These images are therefore easy to recolor and will automatically fit the
+ * entire image into the panel (and so are easy to resize).
+ *
+ * @author Matthew Hertz
+ */
+@SuppressWarnings("serial")
+public class FractalPanel extends JPanel {
+  /** Enumeration of the file formats that we can use to save a fractal image. */
+  public enum SaveFormat {
+    /**
+     * Save the file as a &quot;.gif&quot; file. This provides translucency and could be used for animation, but we only
+     * support 256 colors.
+     */
+    GIF,
+    /**
+     * Save the file as a &quot;.png&quot; file. This is a good, detailed image format that can be read by most, but not
+     * all, web browsers.
+     */
+    PNG,
+    /**
+     * Save the file as a &quot;jpg&quot; file which uses good, but lossy, compression. Its compression makes saving
+     * many files easier, but cannot by used for applications where details are critical.
+     */
+    JPG;
+  }
+
+  /** Image size to which we will default. */
+  private static final Dimension DEFAULT_DIMENSION = new Dimension(512, 512);
+
+  /** Store the model which specifies how each value will be colored. */
+  private IndexColorModel colorModel;
+
+  /** Actual image for which we are providing a facade. */
+  private BufferedImage fractal;
+
+  /** Gives the workers direct access to the image's pixels; null until a fractal is first generated. */
+  private FractalRaster raster;
+
+  /** Record of the fractal being displayed, which is told how long painting takes; null when nothing is recorded. */
+  private FrameMetrics metrics;
+
+  /** Create a new, blank image which uses the default size &amp; color scheme. */
+  public FractalPanel() {
+    this(DEFAULT_DIMENSION, getDefaultColorModel());
+  }
+
+  /**
+   * Create a new, blank image with the given size and given color scheme.
+   *
+   * @param d Size for this image.
+   * @param cMod Color scheme initially used to color in the image specified by this program.
+   */
+  public FractalPanel(Dimension d, IndexColorModel cMod) {
+    super(null);
+    setSize(d);
+    colorModel = cMod;
+  }
+
+  @Override
+  public void setSize(Dimension d) {
+    super.setSize(d);
+    setPreferredSize(d);
+    fractal = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_RGB);
+    fractal.setAccelerationPriority(0.7f);
+    raster = null;
+  }
+
+  /**
+   * Create the default color model we will use.
+   *
+   * @return Default color model used to color our pictures.
+   */
+  private static IndexColorModel getDefaultColorModel() {
+    byte[] reds = new byte[101];
+    byte[] greens = new byte[101];
+    byte[] blues = new byte[101];
+    for (int i = 0; i < (reds.length - 1); i++ ) {
+      int rgb = Color.HSBtoRGB(i / 100f, 0.6F, 1);
+      reds[i] = (byte) ((rgb & 0xFF0000) >> 16);
+      greens[i] = (byte) ((rgb & 0xFF00) >> 8);
+      blues[i] = (byte) (rgb & 0xFF);
+    }
+    IndexColorModel retVal = new IndexColorModel(8, 101, reds, greens, blues);
+    return retVal;
+  }
+
+  /**
+   * Save a copy of the current image to disk. The caller must select a supported format and provide the filename to use
+   * (do not specify an extension -- this will be done automatically). This method overwrites any data that previously
+   * existed in that file. Upon completion, the method returns whether it was successful. This method will also print
+   * out a message if an error occurs.
+   *
+   * @param format Format in which the file should be saved.
+   * @param fileName Full name, including path information but no extension, of the file to which the image should be
+   *          saved.
+   * @return True if the image was saved successfully; false otherwise.
+   */
+  public boolean saveImage(SaveFormat format, String fileName) {
+    return writeImage(fractal, format, fileName);
+  }
+
+  /**
+   * Save a copy of the current image to disk without blocking the calling thread. A snapshot of the image is taken
+   * immediately, so the image may continue to change while it is being saved. The returned worker reports whether the
+   * image was saved successfully.
+   *
+   * @param format Format in which the file should be saved.
+   * @param fileName Full name, including path information but no extension, of the file to which the image should be
+   *          saved.
+   * @return Worker which is saving the image.
+   */
+  public SwingWorker<Boolean, Void> saveImageInBackground(final SaveFormat format, final String fileName) {
+    final BufferedImage snapshot = new BufferedImage(fractal.getWidth(), fractal.getHeight(),
+                                                     BufferedImage.TYPE_INT_RGB);
+    int[] source = ((DataBufferInt) fractal.getRaster().getDataBuffer()).getData();
+    int[] copy = ((DataBufferInt) snapshot.getRaster().getDataBuffer()).getData();
+    System.arraycopy(source, 0, copy, 0, copy.length);
+    SwingWorker<Boolean, Void> retVal = new SwingWorker<Boolean, Void>() {
+      @Override
+      protected Boolean doInBackground() {
+        return writeImage(snapshot, format, fileName);
+      }
+    };
+    retVal.execute();
+    return retVal;
+  }
+
+  /**
+   * Write an image to disk. PNG images are compressed in parallel by a {@link PngStreamWriter}; other formats are
+   * written using {@link ImageIO}.
+   *
+   * @param image Image, of type {@link BufferedImage#TYPE_INT_RGB}, which should be saved.
+   * @param format Format in which the file should be saved.
+   * @param fileName Full name, including path information but no extension, of the file to which the image should be
+   *          saved.
+   * @return True if the image was saved successfully; false otherwise.
+   */
+  private static boolean writeImage(BufferedImage image, SaveFormat format, String fileName) {
+    String extension = format.name().toLowerCase();
+    File outputFile = new File(fileName + "." + extension);
+    try {
+      if (format == SaveFormat.PNG) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        try (PngStreamWriter png = new PngStreamWriter(new FileOutputStream(outputFile), image.getWidth(),
+                                                       image.getHeight())) {
+          png.writeLines(pixels, 0, image.getWidth(), image.getHeight());
+        }
+      } else {
+        ImageIO.write(image, extension, outputFile);
+      }
+      return true;
+    } catch (IOException e) {
+      System.err.println("ERROR: Could not output fractal image");
+      e.printStackTrace();
+      System.err.println();
+      return false;
+    }
+  }
+
+  /**
+   * Specify the record of the fractal being displayed, which will be told how long each paint takes.
+   *
+   * @param frameMetrics Record of the fractal being displayed or null if paints should not be recorded.
+   */
+  public void setFrameMetrics(FrameMetrics frameMetrics) {
+    metrics = frameMetrics;
+  }
+
+  @Override
+  public void paint(Graphics g) {
+    long startTime = System.nanoTime();
+    if ((fractal.getWidth() != getWidth()) || (fractal.getHeight() != getHeight())) {
+      // Scale while drawing, so that only the dirty region being repainted is resampled rather than the entire image.
+      Graphics2D g2 = (Graphics2D) g;
+      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g2.drawImage(fractal, 0, 0, getWidth(), getHeight(), Color.LIGHT_GRAY, null);
+    } else {
+      g.drawImage(fractal, 0, 0, Color.LIGHT_GRAY, null);
+    }
+    if (metrics != null) {
+      metrics.framePainted(System.nanoTime() - startTime);
+    }
+  }
+
+  /**
+   * Set the color model used to render the fractal. Escape times are scaled onto the model's colors, so the model need
+   * not have a slot for every possible escape time.
+   *
+   * @param newModel Color model with which we will render the fractal.
+   */
+  public void setIndexColorModel(IndexColorModel newModel) {
+    colorModel = newModel;
+    if (raster != null) {
+      raster.setPalette(newModel);
+    }
+  }
+
+  /**
+   * @return the color model with which the fractal is rendered
+   */
+  public IndexColorModel getIndexColorModel() {
+    return colorModel;
+  }
+
+  /**
+   * Get the current width of the component in which the image is displayed.
+   *
+   * @return Actual width, in pixels, of the component displaying the image.
+   */
+  public int getImageWidth() {
+    // return fractal.getWidth();
+    int wide = getWidth();
+    return Math.max(wide, DEFAULT_DIMENSION.width);
+  }
+
+  /**
+   * Get the current height of the component in which the image is displayed.
+   *
+   * @return Actual height, in pixels, of the component displaying the image.
+   */
+  public int getImageHeight() {
+    // return fractal.getHeight();
+    int high = getHeight();
+    return Math.max(high, DEFAULT_DIMENSION.height);
+  }
+
+  /**
+   * Return the raster into which the workers should color a fractal of the given size. The image is replaced when it
+   * does not match the size of the fractal.
+   *
+   * @param rows Number of rows in the fractal; this is the width of the image.
+   * @param columns Number of columns in the fractal; this is the height of the image.
+   * @return Raster writing directly into the image displayed by this panel.
+   */
+  public FractalRaster getRaster(int rows, int columns) {
+    if ((raster == null) || (fractal.getWidth() != rows) || (fractal.getHeight() != columns)) {
+      raster = FractalRaster.create(rows, columns, colorModel);
+      fractal = raster.getImage();
+    }
+    return raster;
+  }
+
+  /**
+   * Redraw the region of the panel covering the given tile. The workers have already colored the tile into the image,
+   * so this only marks the region as needing to be painted.
+   *
+   * @param rows Number of rows in the entire fractal.
+   * @param columns Number of columns in the entire fractal.
+   * @param tile Results describing the tile of the fractal which was just calculated.
+   */
+  public void repaintTile(int rows, int columns, WorkerResult tile) {
+    double scaleX = getWidth() / (double) rows;
+    double scaleY = getHeight() / (double) columns;
+    int x = (int) Math.floor(tile.getFractalStartRow() * scaleX);
+    int y = (int) Math.floor(tile.getFractalStartColumn() * scaleY);
+    repaint(x, y, (int) Math.ceil(tile.getNumberRows() * scaleX) + 1,
+            (int) Math.ceil(tile.getNumberColumns() * scaleY) + 1);
+  }
+}
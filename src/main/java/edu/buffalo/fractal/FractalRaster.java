@@ -0,0 +1,251 @@
+package edu.buffalo.fractal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Gives the workers direct access to the pixels of the image displaying a fractal. Rather than copying escape times
+ * into the image on the event dispatch thread, each worker colors its own tile straight into the image's backing
+ * {@link DataBufferInt} using a precomputed palette. The image is laid out so that each row of the fractal is a column
+ * of the image. The same image is reused for each new frame, so every frame started in it is numbered; a worker only
+ * colors its tile if no newer frame has been started since it was created, so a superseded tile never paints over the
+ * current frame.
+ *
+ * @author Matthew Hertz
+ */
+public class FractalRaster {
+  /** Image whose pixels are written by this instance. */
+  private final BufferedImage image;
+
+  /** Pixels of the image, stored one scan line after another. */
+  private final int[] pixels;
+
+  /** Number of entries between the start of one scan line and the start of the next. */
+  private final int scanline;
+
+  /** RGB value of each color in the palette used to color the fractal. */
+  private volatile int[] palette;
+
+  /** Held for reading while a tile is colored and for writing while a new frame is started. */
+  private final ReadWriteLock frameLock = new ReentrantReadWriteLock();
+
+  /** Number of the frame currently being shown; guarded by the frame lock. */
+  private int frame;
+
+  /**
+   * Create a new instance which writes into the pixels of the given image.
+   *
+   * @param target Image, of type {@link BufferedImage#TYPE_INT_RGB}, which will display the fractal.
+   * @param colors Color model used to color the fractal.
+   */
+  public FractalRaster(BufferedImage target, IndexColorModel colors) {
+    image = target;
+    pixels = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+    scanline = target.getWidth();
+    setPalette(colors);
+  }
+
+  /**
+   * Create a new image, and an instance writing into it, large enough to display the given fractal.
+   *
+   * @param rows Number of rows in the fractal; this is the width of the image.
+   * @param columns Number of columns in the fractal; this is the height of the image.
+   * @param colors Color model used to color the fractal.
+   * @return New instance writing into a newly created image.
+   */
+  public static FractalRaster create(int rows, int columns, IndexColorModel colors) {
+    return new FractalRaster(new BufferedImage(rows, columns, BufferedImage.TYPE_INT_RGB), colors);
+  }
+
+  /**
+   * @return the image into which this instance writes
+   */
+  public BufferedImage getImage() {
+    return image;
+  }
+
+  /**
+   * @return the pixels of the image, stored one scan line after another
+   */
+  public int[] getPixels() {
+    return pixels;
+  }
+
+  /**
+   * @return the number of entries between the start of one scan line and the start of the next
+   */
+  public int getScanline() {
+    return scanline;
+  }
+
+  /**
+   * @return the RGB value of each color in the palette used to color the fractal
+   */
+  public int[] getPalette() {
+    return palette;
+  }
+
+  /**
+   * Change the colors used for the tiles colored from now on.
+   *
+   * @param colors Color model used to color the fractal.
+   */
+  public void setPalette(IndexColorModel colors) {
+    int[] lookup = new int[colors.getMapSize()];
+    colors.getRGBs(lookup);
+    palette = lookup;
+  }
+
+  /**
+   * @return the number of the frame currently being shown
+   */
+  public int getFrame() {
+    frameLock.readLock().lock();
+    try {
+      return frame;
+    } finally {
+      frameLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Start a new frame, so tiles of every earlier frame are no longer colored. This waits for any tile being colored to
+   * finish, so once it returns no earlier frame's colors can reach the image.
+   *
+   * @return Number of the new frame.
+   */
+  public int startFrame() {
+    frameLock.writeLock().lock();
+    try {
+      return ++frame;
+    } finally {
+      frameLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Color the pixels of the given tile using the escape times in the buffer, unless a newer frame has since been
+   * started. This is safe to call from the worker threads so long as no two threads color the same tile at the same
+   * time.
+   *
+   * @param escapes Buffer holding the escape times of the fractal.
+   * @param tile Results describing the tile of the fractal which should be colored.
+   * @param tileFrame Number of the frame to which the tile belongs, from {@link #getFrame()}.
+   * @return True if the tile was colored; false if its frame has been superseded.
+   */
+  public boolean colorTile(EscapeBuffer escapes, WorkerResult tile, int tileFrame) {
+    frameLock.readLock().lock();
+    try {
+      if (tileFrame != frame) {
+        return false;
+      }
+      colorRegion(escapes, tile.getFractalStartRow(), tile.getNumberRows(), tile.getFractalStartColumn(),
+                  tile.getNumberColumns(), tile.getIterationLimit());
+      return true;
+    } finally {
+      frameLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Color every pixel using the escape times in the buffer. This is used to recolor a completed fractal without
+   * recomputing it.
+   *
+   * @param escapes Buffer holding the escape times of the fractal.
+   * @param limit Iteration limit used when calculating the escape times.
+   */
+  public void colorAll(EscapeBuffer escapes, int limit) {
+    colorRegion(escapes, 0, escapes.getRows(), 0, escapes.getColumns(), limit);
+  }
+
+  /**
+   * Color the pixels of a rectangular region using the escape times in the buffer.
+   *
+   * @param escapes Buffer holding the escape times of the fractal.
+   * @param firstRow Row of the fractal at which the region starts.
+   * @param rows Number of rows in the region.
+   * @param firstColumn Column of the fractal at which the region starts.
+   * @param columns Number of columns in the region.
+   * @param limit Iteration limit used when calculating the escape times.
+   */
+  private void colorRegion(EscapeBuffer escapes, int firstRow, int rows, int firstColumn, int columns, int limit) {
+    int[] lookup = palette;
+    // Walk the region one scan line of the image (one column of the fractal) at a time.
+    for (int col = firstColumn; col < (firstColumn + columns); col++ ) {
+      int idx = escapes.index(firstRow, col);
+      int pixel = (col * scanline) + firstRow;
+      for (int row = 0; row < rows; row++, idx += escapes.getStride(), pixel++ ) {
+        pixels[pixel] = lookup[paletteIndex(escapes.get(idx), limit, lookup.length)];
+      }
+    }
+  }
+
+  /**
+   * Color every pixel by the number of orbits which passed through it, as computed by {@link Buddhabrot}. Densities
+   * span several orders of magnitude, so they are scaled logarithmically, with the densest pixel using the last color
+   * before the final entry; pixels no orbit reached use the final entry, like pixels which never escaped. The image is
+   * left unchanged if a newer frame has since been started.
+   *
+   * @param counts Number of orbits through each pixel, indexed like an {@link EscapeBuffer}.
+   * @param rows Number of rows in the fractal.
+   * @param columns Number of columns in the fractal.
+   * @param densityFrame Number of the frame to which the density belongs, from {@link #getFrame()}.
+   * @return True if the density was colored; false if its frame has been superseded.
+   */
+  public boolean colorDensity(long[] counts, int rows, int columns, int densityFrame) {
+    frameLock.readLock().lock();
+    try {
+      if (densityFrame != frame) {
+        return false;
+      }
+      colorCounts(counts, rows, columns);
+      return true;
+    } finally {
+      frameLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Color every pixel by the number of orbits which passed through it.
+   *
+   * @param counts Number of orbits through each pixel, indexed like an {@link EscapeBuffer}.
+   * @param rows Number of rows in the fractal.
+   * @param columns Number of columns in the fractal.
+   */
+  private void colorCounts(long[] counts, int rows, int columns) {
+    int[] lookup = palette;
+    long max = 0;
+    for (long count : counts) {
+      max = Math.max(max, count);
+    }
+    double scale = (max == 0) ? 0 : ((lookup.length - 2) / Math.log1p(max));
+    for (int col = 0; col < columns; col++ ) {
+      int idx = col;
+      int pixel = col * scanline;
+      for (int row = 0; row < rows; row++, idx += columns, pixel++ ) {
+        long count = counts[idx];
+        pixels[pixel] = lookup[(count == 0) ? (lookup.length - 1) : (int) (Math.log1p(count) * scale)];
+      }
+    }
+  }
+
+  /**
+   * Map an escape time onto an entry of the color palette. Palettes hold at most 256 colors, but the iteration limit can
+   * be much larger, so escape times are scaled to spread across the palette. Pixels which never escaped always use the
+   * final entry. When the palette has exactly one more entry than the limit, each escape time uses its own color.
+   *
+   * @param steps Number of iterations before the pixel escaped.
+   * @param limit Iteration limit used when calculating the escape time.
+   * @param paletteSize Number of colors in the palette.
+   * @return Index of the palette entry used to color the pixel.
+   */
+  public static int paletteIndex(int steps, int limit, int paletteSize) {
+    if (steps >= limit) {
+      return paletteSize - 1;
+    }
+    return (int) (((long) steps * (paletteSize - 1)) / limit);
+  }
+}
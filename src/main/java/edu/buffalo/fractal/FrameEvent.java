@@ -0,0 +1,51 @@
+package edu.buffalo.fractal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event recorded each time every tile of a fractal has been calculated and displayed. The event's
+ * duration runs from the fractal being submitted until its last tile was merged into the display.
+ *
+ * @author Matthew Hertz
+ */
+@Name("edu.buffalo.fractal.Frame")
+@Label("Fractal Frame")
+@Category("Fractal")
+@Description("Generation of every tile of a fractal")
+class FrameEvent extends Event {
+  /** Number of tiles into which the fractal was split. */
+  @Label("Tiles")
+  int tiles;
+
+  /** Number of pixels in the fractal. */
+  @Label("Pixels")
+  long pixels;
+
+  /** Number of iterations performed. */
+  @Label("Iterations")
+  long iterations;
+
+  /** Number of pixels which escaped before reaching the iteration limit. */
+  @Label("Escaped Pixels")
+  long escapedPixels;
+
+  /** Longest time a tile waited between being submitted and starting its calculations. */
+  @Label("Maximum Queue Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long maxQueueTime;
+
+  /** Total time between tiles being finished and their being merged into the display. */
+  @Label("Merge Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long mergeTime;
+
+  /** Time between the median and the final tile being completed. */
+  @Label("Tail Latency")
+  @Timespan(Timespan.NANOSECONDS)
+  long tailLatency;
+}
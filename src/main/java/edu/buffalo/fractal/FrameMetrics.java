@@ -0,0 +1,255 @@
+package edu.buffalo.fractal;
+
+import java.util.Arrays;
+
+/**
+ * Timing information recorded while a single fractal is generated. The compute pool records when each tile completes so
+ * that the tail latency of the frame (how long the slowest tiles keep the image waiting) can be monitored. Each tile
+ * also reports the work it performed and how long it waited to start, while the pool and panel record how long the
+ * event dispatch thread spent merging tiles into the display and painting it. When the last tile is completed, the
+ * totals are also recorded as a {@link FrameEvent} for Flight Recorder.
+ *
+ * @author Matthew Hertz
+ */
+public class FrameMetrics {
+  /** Time, from {@link System#nanoTime()}, at which the frame was submitted. */
+  private final long startTime;
+
+  /** Time, in nanoseconds after the start of the frame, at which each tile was completed. */
+  private long[] completionTimes;
+
+  /** Time, in nanoseconds, each tile spent being computed. */
+  private long[] computeTimes;
+
+  /** Number of tiles completed so far. */
+  private int completedTiles;
+
+  /** Number of pixels in the completed tiles. */
+  private long pixels;
+
+  /** Number of iterations performed by the completed tiles. */
+  private long iterations;
+
+  /** Number of pixels in the completed tiles which escaped before reaching the iteration limit. */
+  private long escapedPixels;
+
+  /** Total time, in nanoseconds, the completed tiles waited between being submitted and starting. */
+  private long queueTime;
+
+  /** Longest time, in nanoseconds, a completed tile waited between being submitted and starting. */
+  private long maxQueueTime;
+
+  /** Total time, in nanoseconds, between tiles being finished and their being merged into the display. */
+  private long mergeTime;
+
+  /** Total time, in nanoseconds, spent painting the frame. */
+  private long paintTime;
+
+  /** Number of times the frame was painted. */
+  private int paints;
+
+  /** Flight Recorder event describing the frame; this is committed once every tile is complete. */
+  private final FrameEvent event;
+
+  /**
+   * Create a new record for a frame which was just submitted.
+   *
+   * @param tiles Number of tiles into which the frame was split.
+   */
+  public FrameMetrics(int tiles) {
+    startTime = System.nanoTime();
+    completionTimes = new long[tiles];
+    computeTimes = new long[tiles];
+    event = new FrameEvent();
+    event.begin();
+  }
+
+  /**
+   * Record that one of the frame's tiles was just completed and merged into the display.
+   *
+   * @param tile Results of the tile which was completed.
+   */
+  public void tileCompleted(WorkerResult tile) {
+    if (completedTiles < completionTimes.length) {
+      long now = System.nanoTime();
+      completionTimes[completedTiles] = now - startTime;
+      computeTimes[completedTiles] = tile.getComputeTime();
+      completedTiles++;
+      pixels += (long) tile.getNumberRows() * tile.getNumberColumns();
+      iterations += tile.getIterations();
+      escapedPixels += tile.getEscapedPixels();
+      queueTime += tile.getQueueTime();
+      maxQueueTime = Math.max(maxQueueTime, tile.getQueueTime());
+      mergeTime += now - tile.getFinishTime();
+      if (isComplete()) {
+        commitEvent();
+      }
+    }
+  }
+
+  /**
+   * Record the frame's totals as a Flight Recorder event, if such events are being recorded.
+   */
+  private void commitEvent() {
+    event.end();
+    if (event.shouldCommit()) {
+      event.tiles = completedTiles;
+      event.pixels = pixels;
+      event.iterations = iterations;
+      event.escapedPixels = escapedPixels;
+      event.maxQueueTime = maxQueueTime;
+      event.mergeTime = mergeTime;
+      event.tailLatency = (long) (getTailLatencyMillis() * 1e6);
+      event.commit();
+    }
+  }
+
+  /**
+   * Record that the frame was just painted.
+   *
+   * @param nanos Time, in nanoseconds, spent painting the frame.
+   */
+  public void framePainted(long nanos) {
+    paintTime += nanos;
+    paints++;
+  }
+
+  /**
+   * @return true if every tile in the frame has been completed; false otherwise
+   */
+  public boolean isComplete() {
+    return completedTiles == completionTimes.length;
+  }
+
+  /**
+   * @return the number of tiles completed so far
+   */
+  public int getCompletedTiles() {
+    return completedTiles;
+  }
+
+  /**
+   * @return the number of milliseconds from submitting the frame until its last completed tile was finished
+   */
+  public double getFrameMillis() {
+    return (completedTiles == 0) ? 0 : (completionTimes[completedTiles - 1] / 1e6);
+  }
+
+  /**
+   * Return how long the frame has taken so far. While tiles are still being computed this keeps growing; once the frame
+   * is complete it is the time at which the last tile was completed.
+   *
+   * @return Milliseconds since the frame was submitted or, once it is complete, the time it took.
+   */
+  public double getElapsedMillis() {
+    return isComplete() ? getFrameMillis() : ((System.nanoTime() - startTime) / 1e6);
+  }
+
+  /**
+   * Return the time by which the given fraction of the tiles had been completed.
+   *
+   * @param percentile Fraction, between 0 and 1, of the tiles which must have been completed.
+   * @return Milliseconds from submitting the frame until that fraction of its tiles were complete.
+   */
+  public double getCompletionMillis(double percentile) {
+    if (completedTiles == 0) {
+      return 0;
+    }
+    int idx = (int) Math.ceil(percentile * completedTiles) - 1;
+    return completionTimes[Math.max(0, Math.min(idx, completedTiles - 1))] / 1e6;
+  }
+
+  /**
+   * Return the tail latency of the frame: how long after the median tile was completed the image was still waiting on
+   * the last tile.
+   *
+   * @return Milliseconds between the median and the final tile being completed.
+   */
+  public double getTailLatencyMillis() {
+    return getFrameMillis() - getCompletionMillis(0.5);
+  }
+
+  /**
+   * Return how unevenly the work was split among the tiles. A perfectly balanced frame has an imbalance of 1.
+   *
+   * @return Ratio of the longest time spent computing a tile to the average time spent computing a tile.
+   */
+  public double getImbalance() {
+    if (completedTiles == 0) {
+      return 1;
+    }
+    long[] times = Arrays.copyOf(computeTimes, completedTiles);
+    long total = 0;
+    long max = 0;
+    for (long time : times) {
+      total += time;
+      max = Math.max(max, time);
+    }
+    return (total == 0) ? 1 : ((max * (double) completedTiles) / total);
+  }
+
+  /**
+   * @return the number of pixels in the tiles completed so far
+   */
+  public long getPixels() {
+    return pixels;
+  }
+
+  /**
+   * @return the number of iterations performed by the tiles completed so far
+   */
+  public long getIterations() {
+    return iterations;
+  }
+
+  /**
+   * @return the number of pixels in the completed tiles which escaped before reaching the iteration limit
+   */
+  public long getEscapedPixels() {
+    return escapedPixels;
+  }
+
+  /**
+   * @return the average number of milliseconds the completed tiles waited between being submitted and starting
+   */
+  public double getMeanQueueMillis() {
+    return (completedTiles == 0) ? 0 : (queueTime / 1e6 / completedTiles);
+  }
+
+  /**
+   * @return the longest time, in milliseconds, a completed tile waited between being submitted and starting
+   */
+  public double getMaxQueueMillis() {
+    return maxQueueTime / 1e6;
+  }
+
+  /**
+   * @return the total milliseconds between tiles being finished and their being merged into the display
+   */
+  public double getMergeMillis() {
+    return mergeTime / 1e6;
+  }
+
+  /**
+   * @return the total milliseconds spent painting the frame
+   */
+  public double getPaintMillis() {
+    return paintTime / 1e6;
+  }
+
+  /**
+   * @return the number of times the frame was painted
+   */
+  public int getPaints() {
+    return paints;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("frame %.1f ms, p50 %.1f ms, p95 %.1f ms, tail %.1f ms, imbalance %.2f, %d iterations, " +
+                         "%d of %d pixels escaped, queue %.1f ms (max %.1f ms), merge %.1f ms, paint %.1f ms",
+                         getFrameMillis(), getCompletionMillis(0.5), getCompletionMillis(0.95), getTailLatencyMillis(),
+                         getImbalance(), iterations, escapedPixels, pixels, getMeanQueueMillis(), getMaxQueueMillis(),
+                         getMergeMillis(), getPaintMillis());
+  }
+}
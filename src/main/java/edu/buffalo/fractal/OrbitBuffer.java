@@ -0,0 +1,156 @@
+package edu.buffalo.fractal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for the orbits of the pixels in a tile which did not escape before the iteration limit, so the tile can later
+ * be deepened. Each orbit is saved as the last point it reached, in the order the pixels were calculated. Tiles of very
+ * large fractals, whose interiors could otherwise need gigabytes of heap, write their orbits straight into fixed-size
+ * chunks of memory outside of the Java heap as they are calculated.
+ *
+ * @author Matthew Hertz
+ */
+abstract class OrbitBuffer {
+
+  /**
+   * Orbits stored in arrays on the Java heap.
+   *
+   * @author Matthew Hertz
+   */
+  private static class HeapOrbits extends OrbitBuffer {
+    /** Horizontal coordinate of each orbit's last point; this may be longer than the number of orbits. */
+    private double[] xs = new double[16];
+
+    /** Vertical coordinate of each orbit's last point; this may be longer than the number of orbits. */
+    private double[] ys = new double[16];
+
+    @Override
+    public void add(double x, double y) {
+      if (size == xs.length) {
+        xs = Arrays.copyOf(xs, size * 2);
+        ys = Arrays.copyOf(ys, size * 2);
+      }
+      xs[size] = x;
+      ys[size] = y;
+      size++;
+    }
+
+    @Override
+    public double getX(int i) {
+      return xs[i];
+    }
+
+    @Override
+    public double getY(int i) {
+      return ys[i];
+    }
+
+    @Override
+    public void release() {
+      xs = null;
+      ys = null;
+    }
+  }
+
+  /**
+   * Orbits stored outside of the Java heap, with each horizontal coordinate followed by its vertical coordinate.
+   * Chunks are added as they fill, so the orbits never need to be copied.
+   *
+   * @author Matthew Hertz
+   */
+  private static class OffHeapOrbits extends OrbitBuffer {
+    /** Base-2 logarithm of the number of orbits in each chunk. */
+    private static final int CHUNK_SHIFT = 16;
+
+    /** Mask used to find the position of an orbit within its chunk. */
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    /** Number of bytes used to store each orbit. */
+    private static final int ORBIT_BYTES = 2 * Double.BYTES;
+
+    /** Memory holding the orbits; entries after the last chunk in use are null. */
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+
+    @Override
+    public void add(double x, double y) {
+      int chunk = size >>> CHUNK_SHIFT;
+      if (chunk == chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunk * 2);
+      }
+      if (chunks[chunk] == null) {
+        chunks[chunk] = BufferPool.takeDirect(ORBIT_BYTES << CHUNK_SHIFT);
+      }
+      int pos = (size & CHUNK_MASK) * ORBIT_BYTES;
+      chunks[chunk].putDouble(pos, x);
+      chunks[chunk].putDouble(pos + Double.BYTES, y);
+      size++;
+    }
+
+    @Override
+    public double getX(int i) {
+      return chunks[i >>> CHUNK_SHIFT].getDouble((i & CHUNK_MASK) * ORBIT_BYTES);
+    }
+
+    @Override
+    public double getY(int i) {
+      return chunks[i >>> CHUNK_SHIFT].getDouble(((i & CHUNK_MASK) * ORBIT_BYTES) + Double.BYTES);
+    }
+
+    @Override
+    public void release() {
+      for (int i = 0; i < chunks.length; i++ ) {
+        if (chunks[i] != null) {
+          BufferPool.give(chunks[i]);
+          chunks[i] = null;
+        }
+      }
+    }
+  }
+
+  /** Number of orbits which have been saved. */
+  protected int size;
+
+  /**
+   * Create a new, empty instance.
+   *
+   * @param offHeap True if the orbits should be stored outside of the Java heap; false otherwise.
+   * @return New instance holding no orbits.
+   */
+  public static OrbitBuffer create(boolean offHeap) {
+    return offHeap ? new OffHeapOrbits() : new HeapOrbits();
+  }
+
+  /**
+   * @return the number of orbits which have been saved
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Save the orbit of the next pixel which did not escape.
+   *
+   * @param x Horizontal coordinate of the last point in the pixel's orbit.
+   * @param y Vertical coordinate of the last point in the pixel's orbit.
+   */
+  public abstract void add(double x, double y);
+
+  /**
+   * @param i Index of the orbit, in the order the orbits were saved.
+   * @return Horizontal coordinate of the last point in the orbit
+   */
+  public abstract double getX(int i);
+
+  /**
+   * @param i Index of the orbit, in the order the orbits were saved.
+   * @return Vertical coordinate of the last point in the orbit
+   */
+  public abstract double getY(int i);
+
+  /**
+   * Discard the orbits; memory outside of the heap is returned to the {@link BufferPool}. The orbits cannot be read
+   * after this is called, although calling this again has no effect.
+   */
+  public abstract void release();
+}
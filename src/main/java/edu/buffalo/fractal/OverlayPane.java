@@ -8,12 +8,16 @@ import java.awt.Color;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 /**
  * Class which exists to install semi-transparent buttons over a corner of the frame. This is intended to be used as the
- * &quot;glass pane&quot; for a JFrame.
+ * &quot;glass pane&quot; for a JFrame. It can optionally also show a heads-up display with the performance of the
+ * fractal currently being generated.
  * 
  * @author Matthew Hertz
  */
@@ -27,10 +31,40 @@ public class OverlayPane extends JComponent {
 
   private boolean initialized;
 
+  /** Milliseconds between updates of the heads-up display while it is shown. */
+  private static final int HUD_REFRESH_MILLIS = 250;
+
+  /** Pool whose performance is shown in the heads-up display; null when the display is hidden. */
+  private ComputePool hudSource;
+
+  /** Timer which repaints the heads-up display so it is updated while a fractal is being generated. */
+  private Timer hudTimer;
+
   public OverlayPane() {
     super();
     initialized = false;
     boxDimensions = new int[Boxes.values().length][2];
+    hudTimer = new Timer(HUD_REFRESH_MILLIS, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        repaint();
+      }
+    });
+  }
+
+  /**
+   * Show or hide the heads-up display showing the performance of the fractal currently being generated.
+   *
+   * @param pool Pool generating the fractals whose performance should be shown, or null to hide the display.
+   */
+  public void setHud(ComputePool pool) {
+    hudSource = pool;
+    if (pool != null) {
+      hudTimer.start();
+    } else {
+      hudTimer.stop();
+    }
+    repaint();
   }
 
   public int getResetHeight() {
@@ -102,5 +136,47 @@ public class OverlayPane extends JComponent {
     g2.drawString("Iterations", getWidth() - (boxDimensions[Boxes.ITERATION.ordinal()][0] + 2),
                   14 + boxDimensions[Boxes.RESET.ordinal()][1] + boxDimensions[Boxes.ESCAPE.ordinal()][1] +
                       boxDimensions[Boxes.ITERATION.ordinal()][1]);
+
+    if (hudSource != null) {
+      paintHud(g2);
+    }
+  }
+
+  /**
+   * Draw the heads-up display in the lower-left corner of the component.
+   *
+   * @param g2 Graphics object with which the display is drawn.
+   */
+  private void paintHud(Graphics2D g2) {
+    FrameMetrics metrics = hudSource.getFrameMetrics();
+    String[] lines;
+    if (metrics == null) {
+      lines = new String[] { "No fractal being generated" };
+    } else {
+      double seconds = metrics.getElapsedMillis() / 1e3;
+      double perSecond = (seconds == 0) ? 0 : (1 / seconds);
+      lines = new String[] {
+        String.format("Render time: %.1f ms", metrics.getElapsedMillis()),
+        String.format("Throughput: %.2f Mpixels/s", (metrics.getPixels() * perSecond) / 1e6),
+        String.format("Iterations: %.1f M/s", (metrics.getIterations() * perSecond) / 1e6),
+        String.format("Workers: %d running", hudSource.getRunningTiles()),
+        String.format("Buffer cache hits: %.0f%%", BufferPool.getHitRatio() * 100)
+      };
+    }
+    FontMetrics fontMetric = g2.getFontMetrics();
+    int lineHeight = fontMetric.getHeight();
+    int width = 0;
+    for (String line : lines) {
+      width = Math.max(width, fontMetric.stringWidth(line));
+    }
+    int top = getHeight() - ((lines.length * lineHeight) + 8);
+    g2.setComposite(AlphaComposite.SrcOver.derive(0.5f));
+    g2.setColor(Color.BLACK);
+    g2.fillRect(2, top, width + 8, (lines.length * lineHeight) + 6);
+    g2.setComposite(AlphaComposite.SrcOver);
+    g2.setColor(Color.WHITE);
+    for (int i = 0; i < lines.length; i++ ) {
+      g2.drawString(lines[i], 6, top + 3 + fontMetric.getAscent() + (i * lineHeight));
+    }
   }
 }
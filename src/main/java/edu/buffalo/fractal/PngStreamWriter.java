@@ -0,0 +1,337 @@
+package edu.buffalo.fractal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an RGB PNG image one scan line at a time. Unlike {@link javax.imageio.ImageIO}, this never needs the entire
+ * image in memory, so images far larger than the Java heap can be written as their scan lines are computed. The scan
+ * lines are split into segments which are compressed in parallel. Each segment ends with a sync flush so that the
+ * segments join to form a single zlib stream, whose checksum is combined from those of the segments.
+ *
+ * @author Matthew Hertz
+ */
+public class PngStreamWriter implements Closeable {
+  /** Bytes which start every PNG file. */
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+  /** Header which starts the zlib stream: deflate with a 32K window and the default compression level. */
+  private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+  /** Number of uncompressed bytes in each segment which is compressed independently. */
+  private static final int SEGMENT_SIZE = 1 << 18;
+
+  /** Number of bytes used by each pixel. */
+  private static final int BYTES_PER_PIXEL = 3;
+
+  /** PNG filter type which stores each byte as its difference from the same byte of the pixel to its left. */
+  private static final int FILTER_SUB = 1;
+
+  /** Modulus used by the Adler-32 checksum. */
+  private static final int ADLER_BASE = 65521;
+
+  /** Threads shared by every instance which is not given its own; this is created the first time it is needed. */
+  private static ExecutorService sharedThreads;
+
+  /** Stream to which the PNG file is written. */
+  private final DataOutputStream out;
+
+  /** Width of the image, in pixels. */
+  private final int width;
+
+  /** Height of the image, in pixels. */
+  private final int height;
+
+  /** Threads on which the segments are compressed. */
+  private final ExecutorService threads;
+
+  /** Number of scan lines in each segment. */
+  private final int segmentLines;
+
+  /** Adler-32 checksum of the uncompressed data written so far. */
+  private long adler;
+
+  /** Number of scan lines written so far. */
+  private int linesWritten;
+
+  /**
+   * Create a new instance which compresses using threads shared with the other instances and write the start of the
+   * PNG file.
+   *
+   * @param target Stream to which the PNG file is written. This is closed when the image is finished.
+   * @param imageWidth Width of the image, in pixels.
+   * @param imageHeight Height of the image, in pixels.
+   * @throws IOException Thrown if the start of the file could not be written.
+   */
+  public PngStreamWriter(OutputStream target, int imageWidth, int imageHeight) throws IOException {
+    this(target, imageWidth, imageHeight, getSharedThreads());
+  }
+
+  /**
+   * Create a new instance and write the start of the PNG file.
+   *
+   * @param target Stream to which the PNG file is written. This is closed when the image is finished.
+   * @param imageWidth Width of the image, in pixels.
+   * @param imageHeight Height of the image, in pixels.
+   * @param compressors Threads on which the image is compressed.
+   * @throws IOException Thrown if the start of the file could not be written.
+   */
+  public PngStreamWriter(OutputStream target, int imageWidth, int imageHeight, ExecutorService compressors)
+      throws IOException {
+    if ((imageWidth <= 0) || (imageHeight <= 0) || ((long) imageWidth * BYTES_PER_PIXEL >= Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Cannot write a " + imageWidth + "x" + imageHeight + " PNG image");
+    }
+    out = new DataOutputStream(target);
+    width = imageWidth;
+    height = imageHeight;
+    threads = compressors;
+    segmentLines = Math.max(1, SEGMENT_SIZE / (1 + (width * BYTES_PER_PIXEL)));
+    adler = 1;
+    out.write(SIGNATURE);
+    ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+    DataOutputStream headerData = new DataOutputStream(header);
+    headerData.writeInt(width);
+    headerData.writeInt(height);
+    headerData.writeByte(8); // Bits per sample
+    headerData.writeByte(2); // Truecolor
+    headerData.writeByte(0); // Deflate compression
+    headerData.writeByte(0); // Adaptive filtering
+    headerData.writeByte(0); // No interlacing
+    writeChunk("IHDR", header.toByteArray(), header.size());
+    writeChunk("IDAT", ZLIB_HEADER, ZLIB_HEADER.length);
+  }
+
+  /**
+   * Return the threads used by instances which are not given their own. These are daemon threads, so they never keep
+   * the program running.
+   *
+   * @return Threads shared by instances which were not given their own.
+   */
+  private static synchronized ExecutorService getSharedThreads() {
+    if (sharedThreads == null) {
+      sharedThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread retVal = new Thread(r, "PNG compressor");
+          retVal.setDaemon(true);
+          return retVal;
+        }
+      });
+    }
+    return sharedThreads;
+  }
+
+  /**
+   * @return the number of scan lines which still need to be written
+   */
+  public int getRemainingLines() {
+    return height - linesWritten;
+  }
+
+  /**
+   * Append scan lines to the image. The scan lines are compressed in parallel, but this does not return until they have
+   * all been written, so the pixels can be reused as soon as this returns.
+   *
+   * @param pixels RGB value of the pixels to write, one scan line after another.
+   * @param offset Index of the first pixel of the first scan line.
+   * @param scanline Number of entries between the start of one scan line and the start of the next.
+   * @param numLines Number of scan lines to write.
+   * @throws IOException Thrown if the image could not be written.
+   */
+  public void writeLines(final int[] pixels, int offset, final int scanline, int numLines) throws IOException {
+    if (numLines > getRemainingLines()) {
+      throw new IllegalStateException("Image only has " + height + " scan lines");
+    }
+    List<Future<Segment>> segments = new ArrayList<>();
+    for (int y = 0; y < numLines; y += segmentLines) {
+      final int first = offset + (y * scanline);
+      final int lines = Math.min(segmentLines, numLines - y);
+      segments.add(threads.submit(new Callable<Segment>() {
+        @Override
+        public Segment call() {
+          return compress(pixels, first, scanline, lines);
+        }
+      }));
+    }
+    try {
+      // Write the segments in order, each as its own IDAT chunk.
+      for (Future<Segment> future : segments) {
+        Segment segment = future.get();
+        writeChunk("IDAT", segment.data, segment.data.length);
+        adler = combineAdler(adler, segment.adler, segment.length);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing the image");
+    } catch (ExecutionException e) {
+      throw new IOException("Could not compress the image", e.getCause());
+    } finally {
+      for (Future<Segment> future : segments) {
+        future.cancel(false);
+      }
+    }
+    linesWritten += numLines;
+  }
+
+  /**
+   * Finish the image and close the underlying stream. Every scan line must have been written.
+   *
+   * @throws IOException Thrown if the end of the file could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (linesWritten != height) {
+        throw new IllegalStateException("Only " + linesWritten + " of " + height + " scan lines were written");
+      }
+      // End the deflate stream with an empty final block and then the checksum of all of the uncompressed data.
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.finish();
+      byte[] trailer = new byte[16];
+      int length = deflater.deflate(trailer);
+      deflater.end();
+      trailer[length++] = (byte) (adler >>> 24);
+      trailer[length++] = (byte) (adler >>> 16);
+      trailer[length++] = (byte) (adler >>> 8);
+      trailer[length++] = (byte) adler;
+      writeChunk("IDAT", trailer, length);
+      writeChunk("IEND", new byte[0], 0);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Filter and compress one segment of the image. The segment ends with a sync flush so that the next segment can
+   * follow it in the same deflate stream.
+   *
+   * @param pixels RGB value of the pixels to write.
+   * @param offset Index of the first pixel of the segment's first scan line.
+   * @param scanline Number of entries between the start of one scan line and the start of the next.
+   * @param numLines Number of scan lines in the segment.
+   * @return Compressed segment and the checksum of its uncompressed data.
+   */
+  private Segment compress(int[] pixels, int offset, int scanline, int numLines) {
+    int lineLength = 1 + (width * BYTES_PER_PIXEL);
+    byte[] raw = new byte[lineLength * numLines];
+    for (int y = 0; y < numLines; y++ ) {
+      filterLine(pixels, offset + (y * scanline), width, raw, y * lineLength);
+    }
+    Adler32 checksum = new Adler32();
+    checksum.update(raw, 0, raw.length);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    deflater.setInput(raw);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4);
+    byte[] buffer = new byte[1 << 16];
+    int length;
+    do {
+      length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+      compressed.write(buffer, 0, length);
+    } while (length == buffer.length);
+    deflater.end();
+    return new Segment(compressed.toByteArray(), checksum.getValue(), raw.length);
+  }
+
+  /**
+   * Compute the Adler-32 checksum of two blocks of data joined together from the checksums of each block.
+   *
+   * @param first Checksum of the first block.
+   * @param second Checksum of the second block.
+   * @param secondLength Number of bytes in the second block.
+   * @return Checksum of the first block followed by the second.
+   */
+  static long combineAdler(long first, long second, long secondLength) {
+    long remainder = secondLength % ADLER_BASE;
+    long sum1 = first & 0xffff;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (second & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((first >>> 16) & 0xffff) + ((second >>> 16) & 0xffff) + ADLER_BASE - remainder;
+    sum1 %= ADLER_BASE;
+    sum2 %= ADLER_BASE;
+    return (sum2 << 16) | sum1;
+  }
+
+  /**
+   * Convert one scan line into the bytes stored in the PNG file using the Sub filter. Areas of a single color become
+   * runs of zeros, which compress far better than the raw colors.
+   *
+   * @param pixels RGB value of the pixels to write.
+   * @param offset Index of the scan line's first pixel.
+   * @param numPixels Number of pixels in the scan line.
+   * @param filtered Array into which the filter type and filtered bytes are stored.
+   * @param start Index in the array at which the filter type is stored.
+   */
+  private static void filterLine(int[] pixels, int offset, int numPixels, byte[] filtered, int start) {
+    filtered[start] = FILTER_SUB;
+    int previous = 0;
+    for (int x = 0, pos = start + 1; x < numPixels; x++, pos += BYTES_PER_PIXEL) {
+      int rgb = pixels[offset + x];
+      filtered[pos] = (byte) ((rgb >> 16) - (previous >> 16));
+      filtered[pos + 1] = (byte) ((rgb >> 8) - (previous >> 8));
+      filtered[pos + 2] = (byte) (rgb - previous);
+      previous = rgb;
+    }
+  }
+
+  /**
+   * Write a complete chunk, including its length and checksum, to the file.
+   *
+   * @param type Four letter name of the chunk.
+   * @param data Array holding the chunk's data.
+   * @param length Number of bytes of data in the chunk.
+   * @throws IOException Thrown if the chunk could not be written.
+   */
+  private void writeChunk(String type, byte[] data, int length) throws IOException {
+    byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(name);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(name);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Compressed data for one segment of the image.
+   */
+  private static class Segment {
+    /** Compressed data, ending with a sync flush. */
+    private final byte[] data;
+
+    /** Adler-32 checksum of the uncompressed data. */
+    private final long adler;
+
+    /** Number of bytes of uncompressed data. */
+    private final int length;
+
+    /**
+     * Create a new instance holding a compressed segment.
+     *
+     * @param compressed Compressed data, ending with a sync flush.
+     * @param checksum Adler-32 checksum of the uncompressed data.
+     * @param rawLength Number of bytes of uncompressed data.
+     */
+    public Segment(byte[] compressed, long checksum, int rawLength) {
+      data = compressed;
+      adler = checksum;
+      length = rawLength;
+    }
+  }
+}
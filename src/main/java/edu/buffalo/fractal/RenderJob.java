@@ -0,0 +1,249 @@
+package edu.buffalo.fractal;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A fractal submitted to a {@link RenderQueue}. The job is a future whose result is the buffer holding the fractal's
+ * escape times; the caller owns that buffer and must release it once it is no longer needed. While the job runs, its
+ * progress is available from {@link #getProgress()} and is also reported to listeners as the bound property
+ * <code>"progress"</code> (0 to 100, like {@link javax.swing.SwingWorker}). Listeners are notified on the queue's
+ * threads, not the event dispatch thread.
+ *
+ * @author Matthew Hertz
+ */
+public class RenderJob implements Future<EscapeBuffer> {
+  /** Enumeration of how urgently jobs are needed. */
+  public enum Priority {
+    /** Work no one is waiting on; this receives whatever time the other jobs leave. */
+    BACKGROUND(1),
+    /** Ordinary batch work. */
+    NORMAL(4),
+    /** Work someone is waiting to see; this pre-empts all other jobs. */
+    INTERACTIVE(16);
+
+    /** Share of the threads this priority receives, relative to the others, when the threads are shared fairly. */
+    private final int weight;
+
+    /**
+     * Create a priority with the given weight.
+     *
+     * @param share Share of the threads this priority receives when the threads are shared fairly.
+     */
+    private Priority(int share) {
+      weight = share;
+    }
+
+    /**
+     * @return the share of the threads this priority receives, relative to the others, when they are shared fairly
+     */
+    public int getWeight() {
+      return weight;
+    }
+  }
+
+  /** Settings of the fractal being computed. */
+  private final RenderRequest request;
+
+  /** How urgently the fractal is needed. */
+  private final Priority priority;
+
+  /** Order in which the job was submitted; earlier jobs go first among jobs which are otherwise equal. */
+  private final long sequence;
+
+  /** Tiles into which the fractal is split. */
+  private final Tile[] tiles;
+
+  /** Queue computing this job. */
+  private final RenderQueue queue;
+
+  /** Completed with the escape times once every tile has been computed. */
+  private final CompletableFuture<EscapeBuffer> result;
+
+  /** Notifies listeners as the job progresses. */
+  private final PropertyChangeSupport listeners;
+
+  /** Buffer into which the tiles are computed; null until the first tile starts. Guarded by the queue. */
+  EscapeBuffer escapes;
+
+  /** Index of the next tile to be started. Guarded by the queue. */
+  int nextTile;
+
+  /** Number of tiles started but not yet finished. Guarded by the queue. */
+  int runningTiles;
+
+  /** Number of tiles finished. Guarded by the queue. */
+  int completedTiles;
+
+  /** Nanoseconds of thread time spent computing the tiles finished so far. Guarded by the queue. */
+  long computeNanos;
+
+  /**
+   * Thread time charged to the job, divided by its priority's weight. When threads are shared fairly, the job with the
+   * least is given the next thread. Guarded by the queue.
+   */
+  long virtualTime;
+
+  /** True once the job has been cancelled or failed, so no more tiles are started. Guarded by the queue. */
+  boolean stopped;
+
+  /**
+   * Create a new job which has not yet started.
+   *
+   * @param settings Settings of the fractal being computed.
+   * @param urgency How urgently the fractal is needed.
+   * @param order Order in which the job was submitted.
+   * @param parts Tiles into which the fractal is split.
+   * @param owner Queue computing this job.
+   */
+  RenderJob(RenderRequest settings, Priority urgency, long order, Tile[] parts, RenderQueue owner) {
+    request = settings;
+    priority = urgency;
+    sequence = order;
+    tiles = parts;
+    queue = owner;
+    result = new CompletableFuture<>();
+    listeners = new PropertyChangeSupport(this);
+  }
+
+  /**
+   * @return the settings of the fractal being computed
+   */
+  public RenderRequest getRequest() {
+    return request;
+  }
+
+  /**
+   * @return how urgently the fractal is needed
+   */
+  public Priority getPriority() {
+    return priority;
+  }
+
+  /**
+   * @return the order in which the job was submitted
+   */
+  long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the tiles into which the fractal is split
+   */
+  Tile[] getTiles() {
+    return tiles;
+  }
+
+  /**
+   * @return the number of tiles into which the fractal is split
+   */
+  public int getTotalTiles() {
+    return tiles.length;
+  }
+
+  /**
+   * @return the number of tiles which have been computed
+   */
+  public int getCompletedTiles() {
+    synchronized (queue) {
+      return completedTiles;
+    }
+  }
+
+  /**
+   * @return the percentage, from 0 to 100, of the tiles which have been computed
+   */
+  public int getProgress() {
+    return (getCompletedTiles() * 100) / tiles.length;
+  }
+
+  /**
+   * Add a listener notified as the job's progress changes.
+   *
+   * @param listener Listener which is notified on the queue's threads.
+   */
+  public void addPropertyChangeListener(PropertyChangeListener listener) {
+    listeners.addPropertyChangeListener(listener);
+  }
+
+  /**
+   * Remove a listener previously added to this job.
+   *
+   * @param listener Listener which should no longer be notified.
+   */
+  public void removePropertyChangeListener(PropertyChangeListener listener) {
+    listeners.removePropertyChangeListener(listener);
+  }
+
+  /**
+   * Report that more tiles have been computed. This must not be called while holding the queue's lock.
+   *
+   * @param oldCompleted Number of tiles computed before the latest tile finished.
+   * @param newCompleted Number of tiles computed now.
+   */
+  void fireProgress(int oldCompleted, int newCompleted) {
+    listeners.firePropertyChange("progress", (oldCompleted * 100) / tiles.length, (newCompleted * 100) / tiles.length);
+  }
+
+  /**
+   * Complete the job with the given escape times. This must not be called while holding the queue's lock.
+   *
+   * @param buffer Buffer holding the fractal's escape times, which now belongs to the caller of {@link #get()}.
+   */
+  void succeed(EscapeBuffer buffer) {
+    if (!result.complete(buffer)) {
+      // The job was cancelled just as it finished, so no one will collect the buffer.
+      buffer.release();
+    }
+  }
+
+  /**
+   * Complete the job with an error. This must not be called while holding the queue's lock.
+   *
+   * @param cause Error which prevented the fractal from being computed.
+   */
+  void fail(Throwable cause) {
+    result.completeExceptionally(cause);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    // Tiles already being computed run to completion; they are small, so this does not take long.
+    if (!result.cancel(mayInterruptIfRunning)) {
+      return false;
+    }
+    queue.stop(this);
+    return true;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return result.isCancelled();
+  }
+
+  @Override
+  public boolean isDone() {
+    return result.isDone();
+  }
+
+  @Override
+  public EscapeBuffer get() throws InterruptedException, ExecutionException {
+    return result.get();
+  }
+
+  @Override
+  public EscapeBuffer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                                                              TimeoutException {
+    return result.get(timeout, unit);
+  }
+
+  @Override
+  public String toString() {
+    return "RenderJob[" + priority + ", " + getCompletedTiles() + "/" + tiles.length + " tiles, " + request + "]";
+  }
+}
@@ -0,0 +1,297 @@
+package edu.buffalo.fractal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queue computing any number of independent fractals on a shared set of threads. Unlike {@link ComputePool}, which
+ * holds a single fractal and cancels it when the next arrives, jobs submitted here are all completed (unless cancelled).
+ * Each job is split into tiles, and whenever a thread finishes a tile it chooses the job whose tile it computes next:
+ * <ul>
+ * <li>{@link RenderJob.Priority#INTERACTIVE} jobs always go first, so a request someone is waiting on pre-empts batch
+ * work as soon as the tiles already running finish.</li>
+ * <li>Using {@link Policy#PRIORITY}, the remaining jobs are computed one at a time, most urgent first and otherwise in
+ * the order they were submitted.</li>
+ * <li>Using {@link Policy#FAIR}, the remaining jobs share the threads in proportion to their priorities' weights. The
+ * share is measured in the time spent computing each job's tiles, so a job with costly tiles does not crowd out the
+ * others.</li>
+ * </ul>
+ *
+ * @author Matthew Hertz
+ */
+public class RenderQueue {
+  /** Enumeration of the ways in which the threads are divided between jobs of the same urgency. */
+  public enum Policy {
+    /** Share the threads between all of the jobs in proportion to their priorities' weights. */
+    FAIR,
+    /** Compute the most urgent job first, and jobs of equal urgency in the order they were submitted. */
+    PRIORITY;
+  }
+
+  /** Number of tiles along each side of each fractal; small tiles let urgent jobs pre-empt the others sooner. */
+  private static final int TILES_PER_SIDE = 16;
+
+  /** Thread time charged to a job when one of its tiles starts, before any of its tiles have finished. */
+  private static final long DEFAULT_TILE_NANOS = 1000000;
+
+  /** How the threads are divided between jobs of the same urgency. */
+  private final Policy policy;
+
+  /** Threads computing the tiles. */
+  private final Thread[] threads;
+
+  /** Jobs which have tiles still to start or still running, in the order they were submitted. */
+  private final List<RenderJob> active;
+
+  /** Number of jobs submitted so far; used to order the jobs. */
+  private long submitted;
+
+  /** True once the queue has been shut down. */
+  private boolean shutdown;
+
+  /**
+   * Create a new queue and start its threads.
+   *
+   * @param numThreads Number of threads computing the tiles.
+   * @param sharing How the threads are divided between jobs of the same urgency.
+   */
+  public RenderQueue(int numThreads, Policy sharing) {
+    policy = sharing;
+    active = new ArrayList<>();
+    threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++ ) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      }, "Render queue " + i);
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Add a fractal to the queue.
+   *
+   * @param request Settings of the fractal to compute.
+   * @param priority How urgently the fractal is needed.
+   * @return Job which completes with the fractal's escape times.
+   */
+  public RenderJob submit(RenderRequest request, RenderJob.Priority priority) {
+    int[][] costs = ComputeFractal.create(request).sampleCosts(TilePartitioner.SAMPLES_PER_SIDE,
+                                                               Math.min(request.getMaxIterations(),
+                                                                        TilePartitioner.SAMPLE_ITERATIONS));
+    Tile[] tiles = TilePartitioner.partition(costs, request.getRows(), request.getColumns(), TILES_PER_SIDE);
+    synchronized (this) {
+      if (shutdown) {
+        throw new IllegalStateException("The queue has been shut down");
+      }
+      RenderJob retVal = new RenderJob(request, priority, submitted++, tiles, this);
+      // Start new jobs level with those already sharing the threads, so they neither jump ahead nor fall behind.
+      long minimum = Long.MAX_VALUE;
+      for (RenderJob job : active) {
+        minimum = Math.min(minimum, job.virtualTime);
+      }
+      retVal.virtualTime = (minimum == Long.MAX_VALUE) ? 0 : minimum;
+      active.add(retVal);
+      notifyAll();
+      return retVal;
+    }
+  }
+
+  /**
+   * @return the number of jobs which have not yet completed
+   */
+  public synchronized int getActiveJobs() {
+    return active.size();
+  }
+
+  /**
+   * Stop the threads once the tiles already running have finished. Jobs which have not completed are cancelled.
+   */
+  public void shutdown() {
+    List<RenderJob> unfinished;
+    synchronized (this) {
+      shutdown = true;
+      unfinished = new ArrayList<>(active);
+      notifyAll();
+    }
+    for (RenderJob job : unfinished) {
+      job.cancel(false);
+    }
+  }
+
+  /**
+   * Stop starting tiles for a job which was cancelled and free its escape times. Tiles already running hold their own
+   * reference to the buffer, so it is freed once they finish.
+   *
+   * @param job Job which was cancelled.
+   */
+  void stop(RenderJob job) {
+    EscapeBuffer escapes;
+    synchronized (this) {
+      job.stopped = true;
+      escapes = job.escapes;
+      job.escapes = null;
+      if (job.runningTiles == 0) {
+        active.remove(job);
+      }
+    }
+    if (escapes != null) {
+      escapes.release();
+    }
+  }
+
+  /**
+   * Choose the job whose tile should be computed next.
+   *
+   * @return Job with the strongest claim on the next thread, or null if no job has tiles waiting to start.
+   */
+  private RenderJob chooseJob() {
+    RenderJob retVal = null;
+    for (RenderJob job : active) {
+      if (job.stopped || (job.nextTile == job.getTotalTiles())) {
+        continue;
+      }
+      if ((retVal == null) || goesBefore(job, retVal)) {
+        retVal = job;
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Return whether one job should be given a thread before another.
+   *
+   * @param a Job being considered.
+   * @param b Best job found so far; this was submitted before <code>a</code>.
+   * @return True if <code>a</code> should go first; false otherwise.
+   */
+  private boolean goesBefore(RenderJob a, RenderJob b) {
+    boolean aInteractive = a.getPriority() == RenderJob.Priority.INTERACTIVE;
+    boolean bInteractive = b.getPriority() == RenderJob.Priority.INTERACTIVE;
+    if (aInteractive != bInteractive) {
+      return aInteractive;
+    }
+    if ((policy == Policy.PRIORITY) || aInteractive) {
+      // Equal priorities keep the order they were submitted in, so the earlier job finishes first.
+      return a.getPriority().compareTo(b.getPriority()) > 0;
+    }
+    return a.virtualTime < b.virtualTime;
+  }
+
+  /**
+   * Estimate the thread time a job's next tile will take, based on the tiles which have already finished.
+   *
+   * @param job Job whose tile is being started.
+   * @return Estimated nanoseconds needed to compute the tile.
+   */
+  private static long estimateTileNanos(RenderJob job) {
+    return (job.completedTiles == 0) ? DEFAULT_TILE_NANOS : (job.computeNanos / job.completedTiles);
+  }
+
+  /**
+   * Body of each of the queue's threads: repeatedly choose a tile and compute it until the queue is shut down.
+   */
+  private void work() {
+    while (true) {
+      RenderJob job = null;
+      Tile tile;
+      EscapeBuffer escapes;
+      long estimate;
+      synchronized (this) {
+        while (!shutdown && ((job = chooseJob()) == null)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (shutdown) {
+          return;
+        }
+        if (job.escapes == null) {
+          RenderRequest request = job.getRequest();
+          job.escapes = EscapeBuffer.create(request.getRows(), request.getColumns(), request.getMaxIterations(),
+                                            ((long) request.getRows() * request.getColumns()) >=
+                                                                                         ComputePool.OFF_HEAP_PIXELS);
+        }
+        escapes = job.escapes;
+        tile = job.getTiles()[job.nextTile++];
+        job.runningTiles++;
+        // Charge the job for the tile now, so other threads choosing at the same moment see its share has been used.
+        estimate = estimateTileNanos(job);
+        job.virtualTime += estimate / job.getPriority().getWeight();
+      }
+      ComputeFractal worker = ComputeFractal.create(job.getRequest());
+      worker.setTile(tile.getFirstRow(), tile.getRows(), tile.getFirstColumn(), tile.getColumns());
+      worker.setBuffer(escapes);
+      Throwable error = null;
+      long start = System.nanoTime();
+      try {
+        // This returns null without computing anything if the job was cancelled and its buffer freed.
+        WorkerResult result = worker.doInBackground();
+        if (result != null) {
+          // Jobs in the queue are never deepened, so the orbits are not needed.
+          result.release();
+        }
+      } catch (RuntimeException | Error e) {
+        error = e;
+      }
+      finishTile(job, estimate, System.nanoTime() - start, error);
+    }
+  }
+
+  /**
+   * Record that a tile has finished, completing its job if this was the last tile.
+   *
+   * @param job Job to which the tile belongs.
+   * @param estimate Nanoseconds charged to the job when the tile started.
+   * @param elapsed Nanoseconds actually spent computing the tile.
+   * @param error Error thrown while computing the tile, or null if it was computed successfully.
+   */
+  private void finishTile(RenderJob job, long estimate, long elapsed, Throwable error) {
+    int oldCompleted;
+    int newCompleted;
+    EscapeBuffer finished = null;
+    EscapeBuffer abandoned = null;
+    boolean failed = false;
+    synchronized (this) {
+      job.runningTiles--;
+      oldCompleted = job.completedTiles;
+      if ((error != null) && !job.stopped) {
+        // One failed tile means the fractal cannot be completed, so stop the job and free its buffer.
+        job.stopped = true;
+        abandoned = job.escapes;
+        job.escapes = null;
+        failed = true;
+      } else if (!job.stopped) {
+        job.completedTiles++;
+        job.computeNanos += elapsed;
+        job.virtualTime += (elapsed - estimate) / job.getPriority().getWeight();
+        if ((job.completedTiles == job.getTotalTiles()) && !job.stopped) {
+          finished = job.escapes;
+          job.escapes = null;
+          job.stopped = true;
+        }
+      }
+      newCompleted = job.completedTiles;
+      if (job.stopped && (job.runningTiles == 0)) {
+        active.remove(job);
+      }
+      notifyAll();
+    }
+    if (abandoned != null) {
+      abandoned.release();
+    }
+    if (failed) {
+      job.fail(error);
+    } else if (newCompleted != oldCompleted) {
+      job.fireProgress(oldCompleted, newCompleted);
+      if (finished != null) {
+        job.succeed(finished);
+      }
+    }
+  }
+}
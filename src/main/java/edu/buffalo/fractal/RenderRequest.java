@@ -0,0 +1,234 @@
+package edu.buffalo.fractal;
+
+/**
+ * Immutable description of a single fractal to be generated: the formula, the region of the plane, the size of the
+ * image, and the limits used when deciding whether a point escapes. Since a request cannot change once created, any
+ * number of renders with different settings can safely run at the same time. Methods such as
+ * {@link #withBounds(double, double, double, double)} create a new request rather than modifying this one.
+ *
+ * @author Matthew Hertz
+ */
+public final class RenderRequest {
+  /** Iteration limit used unless the user selects another. */
+  public static final int DEFAULT_MAX_ITERATIONS = 255;
+
+  /** Escape distance used unless the user selects another. */
+  public static final int DEFAULT_ESCAPE_VALUE = 2;
+
+  /** Formula used to generate the fractal. */
+  private final FractalOption formula;
+
+  /** Horizontal coordinate of the first row of the fractal. */
+  private final double startX;
+
+  /** Vertical coordinate of the first column of the fractal. */
+  private final double startY;
+
+  /** Horizontal coordinate of the last row of the fractal. */
+  private final double endX;
+
+  /** Vertical coordinate of the last column of the fractal. */
+  private final double endY;
+
+  /** Number of rows (the width, in pixels) of the fractal. */
+  private final int rows;
+
+  /** Number of columns (the height, in pixels) of the fractal. */
+  private final int columns;
+
+  /** Most iterations computed before deciding a point does not escape. */
+  private final int maxIterations;
+
+  /** Distance from the origin beyond which a point has escaped. */
+  private final int escapeValue;
+
+  /**
+   * Create a new request with the given settings.
+   *
+   * @param formula Formula used to generate the fractal
+   * @param startX Horizontal coordinate of the first row of the fractal
+   * @param startY Vertical coordinate of the first column of the fractal
+   * @param endX Horizontal coordinate of the last row of the fractal
+   * @param endY Vertical coordinate of the last column of the fractal
+   * @param rows Number of rows (the width, in pixels) of the fractal
+   * @param columns Number of columns (the height, in pixels) of the fractal
+   * @param maxIterations Most iterations computed before deciding a point does not escape
+   * @param escapeValue Distance from the origin beyond which a point has escaped
+   */
+  public RenderRequest(FractalOption formula, double startX, double startY, double endX, double endY, int rows,
+                       int columns, int maxIterations, int escapeValue) {
+    if ((rows < 2) || (columns < 2)) {
+      throw new IllegalArgumentException("Fractals must be at least 2x2, not " + rows + "x" + columns);
+    }
+    if (maxIterations < 1) {
+      throw new IllegalArgumentException("Iterations must be at least 1, not " + maxIterations);
+    }
+    this.formula = formula;
+    this.startX = startX;
+    this.startY = startY;
+    this.endX = endX;
+    this.endY = endY;
+    this.rows = rows;
+    this.columns = columns;
+    this.maxIterations = maxIterations;
+    this.escapeValue = escapeValue;
+  }
+
+  /**
+   * Create a request for the default view of the given fractal.
+   *
+   * @param formula Formula used to generate the fractal
+   * @param rows Number of rows (the width, in pixels) of the fractal
+   * @param columns Number of columns (the height, in pixels) of the fractal
+   * @param maxIterations Most iterations computed before deciding a point does not escape
+   * @param escapeValue Distance from the origin beyond which a point has escaped
+   * @return New request for the fractal's default view.
+   */
+  public static RenderRequest defaultView(FractalOption formula, int rows, int columns, int maxIterations,
+                                          int escapeValue) {
+    return new RenderRequest(formula, formula.getStartX(), formula.getStartY(), formula.getEndX(), formula.getEndY(),
+                             rows, columns, maxIterations, escapeValue);
+  }
+
+  /**
+   * @return the formula used to generate the fractal
+   */
+  public FractalOption getFormula() {
+    return formula;
+  }
+
+  /**
+   * @return the horizontal coordinate of the first row of the fractal
+   */
+  public double getStartX() {
+    return startX;
+  }
+
+  /**
+   * @return the vertical coordinate of the first column of the fractal
+   */
+  public double getStartY() {
+    return startY;
+  }
+
+  /**
+   * @return the horizontal coordinate of the last row of the fractal
+   */
+  public double getEndX() {
+    return endX;
+  }
+
+  /**
+   * @return the vertical coordinate of the last column of the fractal
+   */
+  public double getEndY() {
+    return endY;
+  }
+
+  /**
+   * @return the number of rows (the width, in pixels) of the fractal
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the number of columns (the height, in pixels) of the fractal
+   */
+  public int getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return the most iterations computed before deciding a point does not escape
+   */
+  public int getMaxIterations() {
+    return maxIterations;
+  }
+
+  /**
+   * @return the distance from the origin beyond which a point has escaped
+   */
+  public int getEscapeValue() {
+    return escapeValue;
+  }
+
+  /**
+   * Create a request identical to this one, except that it covers a different region of the plane.
+   *
+   * @param newStartX Horizontal coordinate of the first row of the fractal
+   * @param newStartY Vertical coordinate of the first column of the fractal
+   * @param newEndX Horizontal coordinate of the last row of the fractal
+   * @param newEndY Vertical coordinate of the last column of the fractal
+   * @return New request covering the given region.
+   */
+  public RenderRequest withBounds(double newStartX, double newStartY, double newEndX, double newEndY) {
+    return new RenderRequest(formula, newStartX, newStartY, newEndX, newEndY, rows, columns, maxIterations,
+                             escapeValue);
+  }
+
+  /**
+   * Create a request identical to this one, except that it generates an image of a different size.
+   *
+   * @param newRows Number of rows (the width, in pixels) of the fractal
+   * @param newColumns Number of columns (the height, in pixels) of the fractal
+   * @return New request with the given size.
+   */
+  public RenderRequest withSize(int newRows, int newColumns) {
+    return new RenderRequest(formula, startX, startY, endX, endY, newRows, newColumns, maxIterations, escapeValue);
+  }
+
+  /**
+   * Create a request identical to this one, except that it uses different limits.
+   *
+   * @param newMaxIterations Most iterations computed before deciding a point does not escape
+   * @param newEscapeValue Distance from the origin beyond which a point has escaped
+   * @return New request using the given limits.
+   */
+  public RenderRequest withLimits(int newMaxIterations, int newEscapeValue) {
+    return new RenderRequest(formula, startX, startY, endX, endY, rows, columns, newMaxIterations, newEscapeValue);
+  }
+
+  /**
+   * Return whether the given request computes exactly the same escape times as this one, except that it may use a
+   * different iteration limit. Bounds are compared the same way {@link Double#equals(Object)} does, so this agrees with
+   * {@link #hashCode()}: 0.0 and -0.0 differ, while a NaN bound matches itself.
+   *
+   * @param other Request being compared to this one.
+   * @return True if the requests differ, at most, in their iteration limits; false otherwise.
+   */
+  public boolean sameViewAs(RenderRequest other) {
+    return (other != null) && (formula == other.formula) && (Double.compare(startX, other.startX) == 0) &&
+           (Double.compare(startY, other.startY) == 0) && (Double.compare(endX, other.endX) == 0) &&
+           (Double.compare(endY, other.endY) == 0) && (rows == other.rows) && (columns == other.columns) &&
+           (escapeValue == other.escapeValue);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof RenderRequest)) {
+      return false;
+    }
+    RenderRequest other = (RenderRequest) obj;
+    return sameViewAs(other) && (maxIterations == other.maxIterations);
+  }
+
+  @Override
+  public int hashCode() {
+    int retVal = formula.hashCode();
+    retVal = (31 * retVal) + Double.hashCode(startX);
+    retVal = (31 * retVal) + Double.hashCode(startY);
+    retVal = (31 * retVal) + Double.hashCode(endX);
+    retVal = (31 * retVal) + Double.hashCode(endY);
+    retVal = (31 * retVal) + rows;
+    retVal = (31 * retVal) + columns;
+    retVal = (31 * retVal) + maxIterations;
+    return (31 * retVal) + escapeValue;
+  }
+
+  @Override
+  public String toString() {
+    return formula + " [" + startX + ", " + startY + "] - [" + endX + ", " + endY + "] at " + rows + "x" + columns +
+           ", " + maxIterations + " iterations, escape " + escapeValue;
+  }
+}
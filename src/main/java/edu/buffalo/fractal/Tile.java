@@ -0,0 +1,63 @@
+package edu.buffalo.fractal;
+
+/**
+ * Instances of this class describe a rectangular region of the fractal which is computed as a single unit of work.
+ *
+ * @author Matthew Hertz
+ */
+public final class Tile {
+  /** Index of the first row of the fractal included in this tile. */
+  private final int firstRow;
+
+  /** Number of rows included in this tile. */
+  private final int rows;
+
+  /** Index of the first column of the fractal included in this tile. */
+  private final int firstColumn;
+
+  /** Number of columns included in this tile. */
+  private final int columns;
+
+  /**
+   * Create a new tile covering the given region of the fractal.
+   *
+   * @param startRow Index of the first row in the tile
+   * @param numRows Number of rows in the tile
+   * @param startColumn Index of the first column in the tile
+   * @param numColumns Number of columns in the tile
+   */
+  public Tile(int startRow, int numRows, int startColumn, int numColumns) {
+    firstRow = startRow;
+    rows = numRows;
+    firstColumn = startColumn;
+    columns = numColumns;
+  }
+
+  /**
+   * @return the index of the first row in this tile
+   */
+  public int getFirstRow() {
+    return firstRow;
+  }
+
+  /**
+   * @return the number of rows in this tile
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * @return the index of the first column in this tile
+   */
+  public int getFirstColumn() {
+    return firstColumn;
+  }
+
+  /**
+   * @return the number of columns in this tile
+   */
+  public int getColumns() {
+    return columns;
+  }
+}
@@ -0,0 +1,49 @@
+package edu.buffalo.fractal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event recorded each time a worker calculates the escape times for a tile. These events are only
+ * recorded while a recording with the event enabled is running, so renders can be profiled without a profiler.
+ *
+ * @author Matthew Hertz
+ */
+@Name("edu.buffalo.fractal.Tile")
+@Label("Fractal Tile")
+@Category("Fractal")
+@Description("Calculation of the escape times for one tile of a fractal")
+class TileEvent extends Event {
+  /** Formula used to generate the fractal. */
+  @Label("Formula")
+  String formula;
+
+  /** Row of the fractal at which the tile starts. */
+  @Label("First Row")
+  int firstRow;
+
+  /** Column of the fractal at which the tile starts. */
+  @Label("First Column")
+  int firstColumn;
+
+  /** Number of pixels in the tile. */
+  @Label("Pixels")
+  int pixels;
+
+  /** Number of iterations performed. */
+  @Label("Iterations")
+  long iterations;
+
+  /** Number of pixels which escaped before reaching the iteration limit. */
+  @Label("Escaped Pixels")
+  int escapedPixels;
+
+  /** Time the worker waited between being submitted and starting its calculations. */
+  @Label("Queue Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long queueTime;
+}
@@ -0,0 +1,203 @@
+package edu.buffalo.fractal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test for a {@link TileServer}. Several clients request tiles at once, much as a browser does when the map is
+ * panned and zoomed. Each client picks a random tile near the previous one, so that, like real users, clients often
+ * request the same tiles. The test reports the request rate, the latency percentiles, and where the server found the
+ * tiles:
+ *
+ * <pre>
+ * TileLoadTest [--url=http://localhost:8080] [--formula=Mandelbrot] [--clients=16] [--requests=2000] [--zoom=6]
+ * </pre>
+ *
+ * @author Matthew Hertz
+ */
+public class TileLoadTest {
+  /** Address of the server being tested, without a trailing slash. */
+  private final String baseUrl;
+
+  /** Formula whose tiles are requested. */
+  private final FractalOption formula;
+
+  /** Deepest zoom level requested. */
+  private final int maxZoom;
+
+  /**
+   * Create a new load test against the given server.
+   *
+   * @param url Address of the server being tested.
+   * @param tileFormula Formula whose tiles are requested.
+   * @param zoom Deepest zoom level requested.
+   */
+  public TileLoadTest(String url, FractalOption tileFormula, int zoom) {
+    baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    formula = tileFormula;
+    maxZoom = zoom;
+  }
+
+  /**
+   * Request a single tile and read the entire response.
+   *
+   * @param zoom Zoom level of the tile.
+   * @param x Index of the tile from the left.
+   * @param y Index of the tile from the top.
+   * @return Where the server found the tile, as reported in its response.
+   * @throws IOException Thrown if the request failed.
+   */
+  private String fetch(int zoom, long x, long y) throws IOException {
+    URL url = new URL(baseUrl + "/" + formula.name() + "/" + zoom + "/" + x + "/" + y + ".png");
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException(url + " returned " + connection.getResponseCode());
+      }
+      try (InputStream in = connection.getInputStream()) {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+          // Read the entire tile, as a browser would.
+        }
+      }
+      return connection.getHeaderField("X-Tile-Source");
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Run the test and print its results.
+   *
+   * @param clients Number of clients requesting tiles at once.
+   * @param requests Total number of tiles requested.
+   * @throws Exception Thrown if any request failed.
+   */
+  public void run(int clients, int requests) throws Exception {
+    ExecutorService threads = Executors.newFixedThreadPool(clients);
+    List<Future<long[]>> results = new ArrayList<>(clients);
+    final Map<String, Integer> sources = new TreeMap<>();
+    long start = System.nanoTime();
+    try {
+      for (int c = 0; c < clients; c++ ) {
+        final int count = (requests / clients) + ((c < (requests % clients)) ? 1 : 0);
+        final long seed = c;
+        results.add(threads.submit(new Callable<long[]>() {
+          @Override
+          public long[] call() throws IOException {
+            Random random = new Random(seed);
+            long[] latencies = new long[count];
+            int zoom = 0;
+            long x = 0;
+            long y = 0;
+            for (int i = 0; i < count; i++ ) {
+              // Zoom in or out a level, or pan to a neighbouring tile.
+              int move = random.nextInt(4);
+              if ((move == 0) && (zoom < maxZoom)) {
+                zoom++;
+                x = (2 * x) + random.nextInt(2);
+                y = (2 * y) + random.nextInt(2);
+              } else if ((move == 1) && (zoom > 0)) {
+                zoom--;
+                x /= 2;
+                y /= 2;
+              } else {
+                long side = 1L << zoom;
+                x = Math.min(side - 1, Math.max(0, x + random.nextInt(3) - 1));
+                y = Math.min(side - 1, Math.max(0, y + random.nextInt(3) - 1));
+              }
+              long begin = System.nanoTime();
+              String source = fetch(zoom, x, y);
+              latencies[i] = System.nanoTime() - begin;
+              synchronized (sources) {
+                Integer old = sources.get(source);
+                sources.put(source, (old == null) ? 1 : (old + 1));
+              }
+            }
+            return latencies;
+          }
+        }));
+      }
+      long[] all = new long[requests];
+      int filled = 0;
+      for (Future<long[]> result : results) {
+        long[] latencies = result.get();
+        System.arraycopy(latencies, 0, all, filled, latencies.length);
+        filled += latencies.length;
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      Arrays.sort(all);
+      System.out.printf("%d requests from %d clients in %.2f s: %.1f requests/s%n", requests, clients, seconds,
+                        requests / seconds);
+      System.out.printf("latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n", percentile(all, 0.5),
+                        percentile(all, 0.95), percentile(all, 0.99), all[all.length - 1] / 1e6);
+      System.out.println("tile sources: " + sources);
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  /**
+   * Find a percentile of the sorted latencies.
+   *
+   * @param sorted Latencies, in nanoseconds, sorted from fastest to slowest.
+   * @param fraction Percentile which should be found, as a fraction between 0 and 1.
+   * @return Latency at that percentile, in milliseconds.
+   */
+  private static double percentile(long[] sorted, double fraction) {
+    return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e6;
+  }
+
+  /**
+   * Main method to run the load test.
+   *
+   * @param args Options giving the server and the amount of load.
+   * @throws Exception Thrown if any request failed.
+   */
+  public static void main(String[] args) throws Exception {
+    String url = "http://localhost:8080";
+    FractalOption formula = FractalOption.Mandelbrot;
+    int clients = 16;
+    int requests = 2000;
+    int zoom = 6;
+    for (String arg : args) {
+      int split = arg.indexOf('=');
+      if (!arg.startsWith("--") || (split < 0)) {
+        throw new IllegalArgumentException("Options must look like --name=value, not " + arg);
+      }
+      String value = arg.substring(split + 1);
+      switch (arg.substring(2, split)) {
+        case "url":
+          url = value;
+          break;
+        case "formula":
+          formula = FractalOption.valueOf(value);
+          break;
+        case "clients":
+          clients = Integer.parseInt(value);
+          break;
+        case "requests":
+          requests = Integer.parseInt(value);
+          break;
+        case "zoom":
+          zoom = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + arg);
+      }
+    }
+    new TileLoadTest(url, formula, zoom).run(clients, requests);
+  }
+}
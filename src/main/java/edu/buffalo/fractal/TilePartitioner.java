@@ -0,0 +1,128 @@
+package edu.buffalo.fractal;
+
+/**
+ * Splits a fractal into tiles whose predicted costs are roughly equal. Equal-sized tiles take wildly different amounts
+ * of time to compute, since pixels inside the set iterate until the limit while those outside escape almost at once.
+ * The cost of each region is instead predicted from a coarse sampling of escape times and the tiles are sized so that
+ * every worker should finish at about the same time.
+ *
+ * @author Matthew Hertz
+ */
+public class TilePartitioner {
+
+  /** Number of samples taken along each side of the fractal when estimating costs. */
+  public static final int SAMPLES_PER_SIDE = 64;
+
+  /**
+   * Most iterations used for each sample. Keeping this small bounds the time spent estimating costs, while still
+   * distinguishing cheap regions from expensive ones.
+   */
+  public static final int SAMPLE_ITERATIONS = 256;
+
+  /**
+   * Split a fractal into tiles using the estimated cost of each sampled region. The fractal is first split into bands
+   * of rows with equal total cost and each band is then split into tiles of equal cost.
+   *
+   * @param costs Estimated cost of each sample; the samples evenly cover the fractal.
+   * @param rows Number of rows in the fractal being split.
+   * @param columns Number of columns in the fractal being split.
+   * @param tilesPerSide Number of bands to create and the number of tiles into which each band is split.
+   * @return Tiles covering the entire fractal.
+   */
+  public static Tile[] partition(int[][] costs, int rows, int columns, int tilesPerSide) {
+    int sampleRows = costs.length;
+    int sampleColumns = costs[0].length;
+    long[] rowCosts = new long[sampleRows];
+    for (int i = 0; i < sampleRows; i++ ) {
+      for (int j = 0; j < sampleColumns; j++ ) {
+        rowCosts[i] += costs[i][j];
+      }
+    }
+    int bands = Math.min(tilesPerSide, sampleRows);
+    int tilesPerBand = Math.min(tilesPerSide, sampleColumns);
+    int[] rowCuts = balancedCuts(rowCosts, bands);
+    Tile[] retVal = new Tile[bands * tilesPerBand];
+    int idx = 0;
+    for (int b = 0; b < bands; b++ ) {
+      long[] columnCosts = new long[sampleColumns];
+      for (int i = rowCuts[b]; i < rowCuts[b + 1]; i++ ) {
+        for (int j = 0; j < sampleColumns; j++ ) {
+          columnCosts[j] += costs[i][j];
+        }
+      }
+      int[] columnCuts = balancedCuts(columnCosts, tilesPerBand);
+      int firstRow = toPixel(rowCuts[b], rows, sampleRows);
+      int lastRow = toPixel(rowCuts[b + 1], rows, sampleRows);
+      for (int t = 0; t < tilesPerBand; t++ ) {
+        int firstColumn = toPixel(columnCuts[t], columns, sampleColumns);
+        int lastColumn = toPixel(columnCuts[t + 1], columns, sampleColumns);
+        retVal[idx++] = new Tile(firstRow, lastRow - firstRow, firstColumn, lastColumn - firstColumn);
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Split the tiles evenly, without any cost estimate.
+   *
+   * @param rows Number of rows in the fractal being split.
+   * @param columns Number of columns in the fractal being split.
+   * @param tilesPerSide Number of tiles along each side of the fractal.
+   * @return Tiles covering the entire fractal.
+   */
+  public static Tile[] uniform(int rows, int columns, int tilesPerSide) {
+    Tile[] retVal = new Tile[tilesPerSide * tilesPerSide];
+    for (int i = 0; i < retVal.length; i++ ) {
+      int r = i / tilesPerSide;
+      int c = i % tilesPerSide;
+      int firstRow = toPixel(r, rows, tilesPerSide);
+      int firstColumn = toPixel(c, columns, tilesPerSide);
+      retVal[i] = new Tile(firstRow, toPixel(r + 1, rows, tilesPerSide) - firstRow, firstColumn,
+                           toPixel(c + 1, columns, tilesPerSide) - firstColumn);
+    }
+    return retVal;
+  }
+
+  /**
+   * Find where to cut the samples so each of the pieces has about the same total cost. Each piece is guaranteed to
+   * include at least one sample.
+   *
+   * @param sampleCosts Cost of each sample in the order they appear.
+   * @param pieces Number of pieces into which the samples are cut; this cannot be more than the number of samples.
+   * @return Array of pieces + 1 sample indices; piece i includes the samples from cut i up to, but not including, cut i +
+   *         1.
+   */
+  private static int[] balancedCuts(long[] sampleCosts, int pieces) {
+    long total = 0;
+    for (long cost : sampleCosts) {
+      total += cost;
+    }
+    int[] cuts = new int[pieces + 1];
+    cuts[pieces] = sampleCosts.length;
+    long runningCost = 0;
+    int sample = 0;
+    for (int p = 1; p < pieces; p++ ) {
+      long target = (total * p) / pieces;
+      // Leave at least one sample for this piece and each of the pieces that follow it.
+      int latest = sampleCosts.length - (pieces - p);
+      while ((sample < latest) && ((sample <= cuts[p - 1]) || ((runningCost + sampleCosts[sample]) <= target))) {
+        runningCost += sampleCosts[sample];
+        sample++;
+      }
+      cuts[p] = sample;
+    }
+    return cuts;
+  }
+
+  /**
+   * Convert a sample index into the index of the first pixel it covers.
+   *
+   * @param sample Index of the sample (or the number of samples to find the end of the fractal).
+   * @param pixels Number of pixels along this side of the fractal.
+   * @param samples Number of samples along this side of the fractal.
+   * @return Index of the first pixel covered by the sample.
+   */
+  private static int toPixel(int sample, int pixels, int samples) {
+    return (int) (((long) sample * pixels) / samples);
+  }
+}
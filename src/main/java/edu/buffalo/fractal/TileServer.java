@@ -0,0 +1,530 @@
+package edu.buffalo.fractal;
+
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server which lets any slippy-map viewer (e.g., Leaflet or OpenLayers) explore the fractals. Tiles are
+ * requested as <code>/&lt;formula&gt;/&lt;z&gt;/&lt;x&gt;/&lt;y&gt;.png</code>. The single tile at zoom 0 covers a square
+ * around the formula's default view and each zoom level splits every tile into four, just as map tiles do. The
+ * iteration limit grows with the zoom level so deeper tiles keep their detail. Rendered tiles are kept in a memory cache
+ * and in a cache on disk, so each is only rendered once. Requests for a tile which is already being rendered wait for
+ * that render rather than starting another. Counts of where tiles came from are served at <code>/stats</code>.
+ *
+ * <pre>
+ * TileServer [--port=8080] [--cache=dir] [--threads=n] [--iterations=n] [--palette=Rainbow] [--memory=MB]
+ *            [--formula=z^4+c ...]
+ * </pre>
+ *
+ * Besides the built-in fractals, only the formulas given by <code>--formula</code> options are served; formulas in
+ * URLs are never compiled.
+ *
+ * @author Matthew Hertz
+ */
+public class TileServer {
+  /** Number of pixels along each side of a tile. */
+  public static final int TILE_SIZE = 256;
+
+  /** Deepest zoom level served; beyond this the limits of double precision become visible. */
+  public static final int MAX_ZOOM = 40;
+
+  /** Number of additional iterations allowed for each zoom level. */
+  private static final int ITERATIONS_PER_ZOOM = 100;
+
+  /** Server accepting the requests. */
+  private final HttpServer server;
+
+  /** Number of threads handling requests for each tile rendered at once. */
+  private static final int THREADS_PER_RENDER = 4;
+
+  /** Threads handling requests; each renders the tiles it is asked for. */
+  private final ExecutorService threads;
+
+  /**
+   * Limits the number of tiles rendered at once to the number of cores. There are more threads than this, so that
+   * tiles already cached are served while others are rendered.
+   */
+  private final Semaphore renderPermits;
+
+  /** Iteration limit of the tiles at zoom 0. */
+  private final int baseIterations;
+
+  /** Name of the palette used to color the tiles. */
+  private final String palette;
+
+  /** Directory in which tiles are cached, or null if tiles are only cached in memory. */
+  private final File cacheDirectory;
+
+  /** Most bytes of compressed tiles held in memory. */
+  private final long memoryLimit;
+
+  /** Recently used tiles, in the order they were last used; access is synchronized on the map. */
+  private final LinkedHashMap<String, byte[]> memoryCache;
+
+  /** Bytes of compressed tiles currently held in memory; guarded by {@link #memoryCache}. */
+  private long memoryBytes;
+
+  /** Renders in progress, so that requests for a tile already being rendered can wait for it. */
+  private final ConcurrentHashMap<String, FutureTask<byte[]>> inFlight;
+
+  /** Color models used for each iteration limit, since each is used by many tiles. */
+  private final ConcurrentHashMap<Integer, IndexColorModel> colorModels;
+
+  /** Number of tiles served from memory. */
+  private final AtomicLong memoryHits;
+
+  /** Number of tiles served from the disk cache. */
+  private final AtomicLong diskHits;
+
+  /** Number of tiles which were rendered. */
+  private final AtomicLong rendered;
+
+  /** Number of requests which waited for a render started by another request. */
+  private final AtomicLong coalesced;
+
+  /**
+   * Create a new server listening on the given port. The server does not accept requests until it is started.
+   *
+   * @param port Port on which the server listens; 0 chooses any free port.
+   * @param numThreads Number of tiles rendered at once.
+   * @param iterations Iteration limit of the tiles at zoom 0.
+   * @param paletteName Name of the palette used to color the tiles.
+   * @param cacheDir Directory in which tiles are cached, or null to only cache tiles in memory.
+   * @param memoryMegabytes Most megabytes of compressed tiles held in memory.
+   * @throws IOException Thrown if the port could not be opened.
+   */
+  public TileServer(int port, int numThreads, int iterations, String paletteName, File cacheDir, int memoryMegabytes)
+      throws IOException {
+    baseIterations = iterations;
+    palette = paletteName;
+    // Tiles rendered with other settings look different, so each combination is cached separately.
+    cacheDirectory = (cacheDir == null) ? null : new File(cacheDir, paletteName + "-" + iterations);
+    memoryLimit = memoryMegabytes * 1024L * 1024L;
+    memoryCache = new LinkedHashMap<>(256, 0.75f, true);
+    inFlight = new ConcurrentHashMap<>();
+    colorModels = new ConcurrentHashMap<>();
+    memoryHits = new AtomicLong();
+    diskHits = new AtomicLong();
+    rendered = new AtomicLong();
+    coalesced = new AtomicLong();
+    // Validate the palette now rather than on the first request.
+    BatchRenderer.createColorModel(paletteName, iterations);
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    renderPermits = new Semaphore(numThreads);
+    threads = Executors.newFixedThreadPool(numThreads * THREADS_PER_RENDER);
+    server.setExecutor(threads);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          serve(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+  }
+
+  /** Start accepting requests. */
+  public void start() {
+    server.start();
+  }
+
+  /** Stop accepting requests and stop the threads handling them. */
+  public void shutdown() {
+    server.stop(0);
+    threads.shutdown();
+  }
+
+  /**
+   * @return the port on which this server listens
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Compute the settings of the fractal shown in a tile.
+   *
+   * @param formula Formula whose fractal is shown.
+   * @param zoom Zoom level of the tile; there are 2<sup>zoom</sup> tiles along each side at this level.
+   * @param x Index of the tile from the left, starting at 0.
+   * @param y Index of the tile from the top, starting at 0.
+   * @param zoomZeroIterations Iteration limit of the tile at zoom 0.
+   * @return Settings of the fractal shown in the tile.
+   */
+  public static RenderRequest tileRequest(FractalOption formula, int zoom, long x, long y, int zoomZeroIterations) {
+    // Zoom 0 covers a square around the default view, so tiles are not stretched.
+    double side = Math.max(formula.getEndX() - formula.getStartX(), formula.getEndY() - formula.getStartY());
+    double left = ((formula.getStartX() + formula.getEndX()) - side) / 2;
+    double top = ((formula.getStartY() + formula.getEndY()) - side) / 2;
+    double tileSide = side / (1L << zoom);
+    // Each pixel is a sample at its top-left corner, so a tile ends one pixel before the next tile starts.
+    double pixel = tileSide / TILE_SIZE;
+    double startX = left + (tileSide * x);
+    double startY = top + (tileSide * y);
+    int iterations = zoomZeroIterations + (ITERATIONS_PER_ZOOM * zoom);
+    return new RenderRequest(formula, startX, startY, startX + tileSide - pixel, startY + tileSide - pixel, TILE_SIZE,
+                             TILE_SIZE, iterations, RenderRequest.DEFAULT_ESCAPE_VALUE);
+  }
+
+  /**
+   * Answer a single request.
+   *
+   * @param exchange Request and its response.
+   * @throws IOException Thrown if the response could not be sent.
+   */
+  private void serve(HttpExchange exchange) throws IOException {
+    if (!"GET".equals(exchange.getRequestMethod())) {
+      sendText(exchange, 405, "Only GET is supported");
+      return;
+    }
+    String path = exchange.getRequestURI().getPath();
+    if ("/stats".equals(path)) {
+      sendText(exchange, 200, getStatistics());
+      return;
+    }
+    String[] parts = path.split("/");
+    if ((parts.length != 5) || !parts[4].endsWith(".png")) {
+      sendText(exchange, 404, "Tiles are requested as /<formula>/<z>/<x>/<y>.png");
+      return;
+    }
+    FractalOption formula;
+    int zoom;
+    long x;
+    long y;
+    try {
+      formula = FractalOption.valueOf(parts[1]);
+      zoom = Integer.parseInt(parts[2]);
+      x = Long.parseLong(parts[3]);
+      y = Long.parseLong(parts[4].substring(0, parts[4].length() - ".png".length()));
+    } catch (IllegalArgumentException e) {
+      sendText(exchange, 404, "No such tile: " + path);
+      return;
+    }
+    if ((zoom < 0) || (zoom > MAX_ZOOM) || (x < 0) || (y < 0) || (x >= (1L << zoom)) || (y >= (1L << zoom))) {
+      sendText(exchange, 404, "No such tile: " + path);
+      return;
+    }
+    String key = formula.name() + "/" + zoom + "/" + x + "/" + y;
+    String source;
+    byte[] png;
+    try {
+      png = fromMemory(key);
+      if (png != null) {
+        memoryHits.incrementAndGet();
+        source = "memory";
+      } else {
+        TileLoader loader = new TileLoader(key, formula, zoom, x, y);
+        FutureTask<byte[]> mine = new FutureTask<>(loader);
+        FutureTask<byte[]> existing = inFlight.putIfAbsent(key, mine);
+        if (existing == null) {
+          try {
+            mine.run();
+            png = mine.get();
+          } finally {
+            inFlight.remove(key);
+          }
+          source = loader.loadedFromDisk ? "disk" : "rendered";
+        } else {
+          coalesced.incrementAndGet();
+          png = existing.get();
+          source = "coalesced";
+        }
+      }
+    } catch (ExecutionException e) {
+      sendText(exchange, 500, "Could not render tile: " + e.getCause());
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      sendText(exchange, 503, "Interrupted while rendering tile");
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "image/png");
+    exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+    exchange.getResponseHeaders().set("X-Tile-Source", source);
+    exchange.sendResponseHeaders(200, png.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(png);
+    }
+  }
+
+  /**
+   * Loads a tile from the disk cache or, if it is not there, renders it and adds it to the disk cache. In either case
+   * the tile is added to the memory cache.
+   */
+  private class TileLoader implements Callable<byte[]> {
+    /** Key under which the tile is cached. */
+    private final String key;
+
+    /** Formula whose fractal is shown in the tile. */
+    private final FractalOption formula;
+
+    /** Zoom level of the tile. */
+    private final int zoom;
+
+    /** Index of the tile from the left. */
+    private final long x;
+
+    /** Index of the tile from the top. */
+    private final long y;
+
+    /** True if the tile was found in the disk cache rather than rendered. */
+    private boolean loadedFromDisk;
+
+    /**
+     * Create a new instance which will load the given tile.
+     *
+     * @param cacheKey Key under which the tile is cached.
+     * @param tileFormula Formula whose fractal is shown in the tile.
+     * @param tileZoom Zoom level of the tile.
+     * @param tileX Index of the tile from the left.
+     * @param tileY Index of the tile from the top.
+     */
+    public TileLoader(String cacheKey, FractalOption tileFormula, int tileZoom, long tileX, long tileY) {
+      key = cacheKey;
+      formula = tileFormula;
+      zoom = tileZoom;
+      x = tileX;
+      y = tileY;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      byte[] retVal = fromDisk(key);
+      if (retVal != null) {
+        loadedFromDisk = true;
+        diskHits.incrementAndGet();
+      } else {
+        renderPermits.acquireUninterruptibly();
+        try {
+          retVal = render(tileRequest(formula, zoom, x, y, baseIterations));
+        } finally {
+          renderPermits.release();
+        }
+        rendered.incrementAndGet();
+        toDisk(key, retVal);
+      }
+      toMemory(key, retVal);
+      return retVal;
+    }
+  }
+
+  /**
+   * Render a tile on this thread and compress it as a PNG image.
+   *
+   * @param request Settings of the fractal shown in the tile.
+   * @return Bytes of the PNG image.
+   * @throws IOException Thrown if the image could not be compressed.
+   */
+  private byte[] render(RenderRequest request) throws IOException {
+    IndexColorModel colors = colorModels.get(request.getMaxIterations());
+    if (colors == null) {
+      colors = BatchRenderer.createColorModel(palette, request.getMaxIterations());
+      colorModels.putIfAbsent(request.getMaxIterations(), colors);
+    }
+    FractalRaster raster = FractalRaster.create(TILE_SIZE, TILE_SIZE, colors);
+    EscapeBuffer escapes = EscapeBuffer.create(TILE_SIZE, TILE_SIZE, request.getMaxIterations());
+    try {
+      // Tiles are small and many are requested at once, so each is rendered on a single thread.
+      ComputeFractal worker = ComputeFractal.create(request);
+      worker.setTile(0, TILE_SIZE, 0, TILE_SIZE);
+      worker.setBuffer(escapes);
+      worker.setRaster(raster);
+      worker.doInBackground().release();
+    } finally {
+      escapes.release();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 * 1024);
+    try (PngStreamWriter png = new PngStreamWriter(bytes, TILE_SIZE, TILE_SIZE)) {
+      png.writeLines(raster.getPixels(), 0, raster.getScanline(), TILE_SIZE);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Look up a tile in the memory cache.
+   *
+   * @param key Key under which the tile is cached.
+   * @return Bytes of the tile's PNG image, or null if it is not cached in memory.
+   */
+  private byte[] fromMemory(String key) {
+    synchronized (memoryCache) {
+      return memoryCache.get(key);
+    }
+  }
+
+  /**
+   * Add a tile to the memory cache, evicting the least recently used tiles to stay within the limit.
+   *
+   * @param key Key under which the tile is cached.
+   * @param png Bytes of the tile's PNG image.
+   */
+  private void toMemory(String key, byte[] png) {
+    synchronized (memoryCache) {
+      byte[] old = memoryCache.put(key, png);
+      memoryBytes += png.length - ((old == null) ? 0 : old.length);
+      Iterator<Map.Entry<String, byte[]>> eldest = memoryCache.entrySet().iterator();
+      while ((memoryBytes > memoryLimit) && eldest.hasNext()) {
+        memoryBytes -= eldest.next().getValue().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Look up a tile in the disk cache.
+   *
+   * @param key Key under which the tile is cached.
+   * @return Bytes of the tile's PNG image, or null if it is not cached on disk.
+   * @throws IOException Thrown if the cached tile exists but could not be read.
+   */
+  private byte[] fromDisk(String key) throws IOException {
+    if (cacheDirectory == null) {
+      return null;
+    }
+    File file = new File(cacheDirectory, key + ".png");
+    return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+  }
+
+  /**
+   * Add a tile to the disk cache. The tile is written to a temporary file which is then renamed, so other requests
+   * never read a partially-written tile.
+   *
+   * @param key Key under which the tile is cached.
+   * @param png Bytes of the tile's PNG image.
+   * @throws IOException Thrown if the tile could not be written.
+   */
+  private void toDisk(String key, byte[] png) throws IOException {
+    if (cacheDirectory == null) {
+      return;
+    }
+    File file = new File(cacheDirectory, key + ".png");
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Could not create " + parent);
+    }
+    File temp = File.createTempFile("tile", ".tmp", parent);
+    try {
+      Files.write(temp.toPath(), png);
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  /**
+   * @return description of where the tiles served so far came from
+   */
+  public String getStatistics() {
+    int memoryTiles;
+    long bytes;
+    synchronized (memoryCache) {
+      memoryTiles = memoryCache.size();
+      bytes = memoryBytes;
+    }
+    return String.format("memory hits: %d%ndisk hits: %d%nrendered: %d%ncoalesced: %d%n" +
+                         "memory cache: %d tiles, %.1f MB%n", memoryHits.get(), diskHits.get(), rendered.get(),
+                         coalesced.get(), memoryTiles, bytes / (1024.0 * 1024.0));
+  }
+
+  /**
+   * Send a plain-text response.
+   *
+   * @param exchange Request being answered.
+   * @param status HTTP status code of the response.
+   * @param text Body of the response.
+   * @throws IOException Thrown if the response could not be sent.
+   */
+  private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] body = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * Main method to run the server until the process is killed.
+   *
+   * @param args Options configuring the server.
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    int port = 8080;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    int iterations = RenderRequest.DEFAULT_MAX_ITERATIONS;
+    String palette = "Rainbow";
+    File cache = null;
+    int memory = 256;
+    try {
+      for (String arg : args) {
+        int split = arg.indexOf('=');
+        if (!arg.startsWith("--") || (split < 0)) {
+          throw new IllegalArgumentException("Options must look like --name=value, not " + arg);
+        }
+        String value = arg.substring(split + 1);
+        switch (arg.substring(2, split)) {
+          case "port":
+            port = Integer.parseInt(value);
+            break;
+          case "threads":
+            numThreads = Integer.parseInt(value);
+            break;
+          case "iterations":
+            iterations = Integer.parseInt(value);
+            break;
+          case "palette":
+            palette = value;
+            break;
+          case "cache":
+            cache = new File(value);
+            break;
+          case "memory":
+            memory = Integer.parseInt(value);
+            break;
+          case "formula":
+            FractalOption.register(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      TileServer tileServer = new TileServer(port, numThreads, iterations, palette, cache, memory);
+      tileServer.start();
+      System.out.println("Serving tiles at http://localhost:" + tileServer.getPort() + "/Mandelbrot/{z}/{x}/{y}.png");
+    } catch (IllegalArgumentException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      System.err.println("Usage: TileServer [--port=8080] [--cache=dir] [--threads=n] [--iterations=n] " +
+                         "[--palette=Rainbow] [--memory=MB] [--formula=f ...]");
+      System.exit(2);
+    } catch (IOException e) {
+      System.err.println("ERROR: Could not start the tile server");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package edu.buffalo.fractal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs tasks on virtual threads, where the Java runtime supports them. Starting a virtual thread is cheap enough that
+ * each tile of a fractal can be given its own thread, no matter how many tiles there are. Since virtual threads are only
+ * available in newer Java releases, they are created using reflection. Older runtimes instead share a fixed pool with a
+ * platform thread for each core, since starting a platform thread for each of hundreds of tiles would cost more than
+ * the tiles save; callers should then split fractals into fewer, coarser tiles. In either case, a semaphore limits how
+ * many tasks compute at once.
+ *
+ * @author Matthew Hertz
+ */
+final class VirtualThreads {
+  /** Executor starting a new virtual thread for each task; null if the runtime does not support virtual threads. */
+  private static final ExecutorService VIRTUAL_EXECUTOR = createVirtualExecutor();
+
+  /**
+   * Pool, with a thread for each core, used for every task when virtual threads are not supported; created the first
+   * time it is needed.
+   */
+  private static ExecutorService fallbackExecutor;
+
+  /** Prevent this class from being instantiated. */
+  private VirtualThreads() {
+  }
+
+  /**
+   * Create an executor which starts a new virtual thread for each task.
+   *
+   * @return New executor or null if the runtime does not support virtual threads.
+   */
+  private static ExecutorService createVirtualExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      // Older runtimes lack the method; those where virtual threads are a preview feature may refuse to create them.
+      return null;
+    }
+  }
+
+  /**
+   * @return true if tasks are run on virtual threads; false if they run on platform threads instead
+   */
+  static boolean isAvailable() {
+    return VIRTUAL_EXECUTOR != null;
+  }
+
+  /**
+   * Return an executor which starts a new virtual thread for each task it is given when the runtime supports them. Other
+   * runtimes instead get a shared pool with a platform thread for each core.
+   *
+   * @return Executor starting a new virtual thread for each task, or a fixed pool of platform threads.
+   */
+  static synchronized ExecutorService perTaskExecutor() {
+    if (VIRTUAL_EXECUTOR != null) {
+      return VIRTUAL_EXECUTOR;
+    }
+    if (fallbackExecutor == null) {
+      int cores = Runtime.getRuntime().availableProcessors();
+      fallbackExecutor = Executors.newFixedThreadPool(cores, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread retVal = new Thread(r, "Fractal tile");
+          retVal.setDaemon(true);
+          return retVal;
+        }
+      });
+    }
+    return fallbackExecutor;
+  }
+
+  /**
+   * Wrap a task so that it only runs while holding one of the given permits. This bounds the number of tasks computing
+   * at once (e.g., to the number of cores) no matter how many threads have been started.
+   *
+   * @param permits Semaphore limiting how many tasks run at once.
+   * @param task Task which should be run.
+   * @return Task which waits for a permit, runs the given task, and then returns the permit.
+   */
+  static Runnable bounded(final Semaphore permits, final Runnable task) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        permits.acquireUninterruptibly();
+        try {
+          task.run();
+        } finally {
+          permits.release();
+        }
+      }
+    };
+  }
+}
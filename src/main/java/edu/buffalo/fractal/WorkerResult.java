@@ -0,0 +1,194 @@
+package edu.buffalo.fractal;
+
+/**
+ * Instances of this class represent the results of a thread's escape time calculations. The escape times themselves are
+ * written directly into the frame's {@link EscapeBuffer}; each instance records the tile of the fractal that was
+ * computed along with the information needed to later continue the calculations.
+ *
+ * @author Matthew Hertz
+ */
+public class WorkerResult {
+  /** Index of the first row of the fractal included in these results. */
+  private int firstRow;
+
+  /** Index of the first column of the fractal included in these results. */
+  private int firstColumn;
+
+  /** Number of rows of escape times calculated. */
+  private int rows;
+
+  /** Number of columns of escape times calculated. */
+  private int columns;
+
+  /** Iteration limit used when calculating these escape times. */
+  private int iterationLimit;
+
+  /** Last point reached by each pixel which did not escape before the limit, or null once they are released. */
+  private OrbitBuffer orbits;
+
+  /** Time, in nanoseconds, the thread spent calculating these escape times. */
+  private long computeTime;
+
+  /** Number of iterations performed while calculating these escape times. */
+  private long iterations;
+
+  /** Number of pixels which escaped before reaching the iteration limit. */
+  private int escapedPixels;
+
+  /** Time, in nanoseconds, the worker waited between being submitted and starting its calculations. */
+  private long queueTime;
+
+  /** Time, from {@link System#nanoTime()}, at which the worker finished calculating these escape times. */
+  private long finishTime;
+
+  /**
+   * Create a new instance of these results. This will store the tile for which escape times were calculated along with
+   * the orbits of the pixels which did not escape.
+   *
+   * @param start Row of the fractal at which the tile starts
+   * @param startColumn Column of the fractal at which the tile starts
+   * @param numRows Number of rows in the tile
+   * @param numColumns Number of columns in the tile
+   * @param limit Iteration limit used when calculating the escape times
+   * @param saved Point at which each pixel that reached the limit stopped, in the order the pixels appear
+   * @param nanos Time, in nanoseconds, spent calculating the escape times
+   */
+  WorkerResult(int start, int startColumn, int numRows, int numColumns, int limit, OrbitBuffer saved, long nanos) {
+    firstRow = start;
+    firstColumn = startColumn;
+    rows = numRows;
+    columns = numColumns;
+    iterationLimit = limit;
+    orbits = saved;
+    computeTime = nanos;
+  }
+
+  /**
+   * Return the row in the fractal at which the tile covered by these results starts.
+   *
+   * @return Index of the first row whose escape times were calculated.
+   */
+  public int getFractalStartRow() {
+    return firstRow;
+  }
+
+  /**
+   * Return the column in the fractal at which the tile covered by these results starts.
+   *
+   * @return Index of the first column whose escape times were calculated.
+   */
+  public int getFractalStartColumn() {
+    return firstColumn;
+  }
+
+  /**
+   * Return the number of rows covered by these results.
+   *
+   * @return Total number of rows whose escape times were calculated.
+   */
+  public int getNumberRows() {
+    return rows;
+  }
+
+  /**
+   * Return the number of columns covered by these results.
+   *
+   * @return Number of escape times calculated in each row.
+   */
+  public int getNumberColumns() {
+    return columns;
+  }
+
+  /**
+   * Return the iteration limit used when calculating these results. Pixels whose escape time equals this limit have not
+   * (yet) escaped.
+   *
+   * @return Most iterations calculated for any pixel in this tile.
+   */
+  public int getIterationLimit() {
+    return iterationLimit;
+  }
+
+  /**
+   * Get the horizontal coordinate at which a pixel that did not escape stopped iterating.
+   *
+   * @param i Index of the pixel among those which reached the limit, counted row by row.
+   * @return Horizontal coordinate of the last point in the pixel's orbit.
+   */
+  public double getOrbitX(int i) {
+    return orbits.getX(i);
+  }
+
+  /**
+   * Get the vertical coordinate at which a pixel that did not escape stopped iterating.
+   *
+   * @param i Index of the pixel among those which reached the limit, counted row by row.
+   * @return Vertical coordinate of the last point in the pixel's orbit.
+   */
+  public double getOrbitY(int i) {
+    return orbits.getY(i);
+  }
+
+  /**
+   * Discard the saved orbits once they are no longer needed. Orbits stored outside of the heap are freed immediately.
+   * These results cannot be deepened after this is called.
+   */
+  public void release() {
+    if (orbits != null) {
+      orbits.release();
+      orbits = null;
+    }
+  }
+
+  /**
+   * Return how long the thread took to calculate these results.
+   *
+   * @return Time, in nanoseconds, spent calculating the escape times.
+   */
+  public long getComputeTime() {
+    return computeTime;
+  }
+
+  /**
+   * Record the statistics gathered while calculating these escape times. This also records that the calculations have
+   * just finished.
+   *
+   * @param iterationCount Number of iterations performed.
+   * @param escaped Number of pixels which escaped before reaching the iteration limit.
+   * @param waitTime Time, in nanoseconds, the worker waited between being submitted and starting its calculations.
+   */
+  public void setStatistics(long iterationCount, int escaped, long waitTime) {
+    iterations = iterationCount;
+    escapedPixels = escaped;
+    queueTime = waitTime;
+    finishTime = System.nanoTime();
+  }
+
+  /**
+   * @return the number of iterations performed while calculating these escape times
+   */
+  public long getIterations() {
+    return iterations;
+  }
+
+  /**
+   * @return the number of pixels which escaped before reaching the iteration limit
+   */
+  public int getEscapedPixels() {
+    return escapedPixels;
+  }
+
+  /**
+   * @return the time, in nanoseconds, the worker waited between being submitted and starting its calculations
+   */
+  public long getQueueTime() {
+    return queueTime;
+  }
+
+  /**
+   * @return the time, from {@link System#nanoTime()}, at which the worker finished calculating these escape times
+   */
+  public long getFinishTime() {
+    return finishTime;
+  }
+}
@@ -0,0 +1,478 @@
+package edu.buffalo.fractal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Command-line program which renders an animation zooming from one view of a fractal to another. Each frame's tiles are
+ * computed in parallel, and each frame is encoded while the next is being computed. Pixels of a frame which sample the
+ * same point as a pixel of the previous frame (e.g., when panning by whole pixels or zooming by a factor of 2) copy
+ * that pixel's escape time rather than computing it again. The animation is saved either as a numbered sequence of PNG
+ * images or as an animated GIF:
+ *
+ * <pre>
+ * --formula=Mandelbrot --from=-2.15,-1.3,0.6,1.3 --to=-0.75,0.09,-0.73,0.11 --frames=120 --size=640x480
+ * --iterations=1000 --escape=2 --palette=Rainbow --format=GIF --delay=40 --output=zoom
+ * </pre>
+ *
+ * Only the output and destination view are required. The <code>--threads=n</code> option sets the number of threads
+ * used.
+ *
+ * @author Matthew Hertz
+ */
+public class ZoomSequence {
+
+  /** Largest difference, as a fraction of a pixel, between two sample points which are treated as the same point. */
+  private static final double SAME_POINT = 1e-6;
+
+  /** Renderer which computes the tiles of each frame. */
+  private final BatchRenderer renderer;
+
+  /** Thread which encodes each frame while the next frame is being computed. */
+  private final ExecutorService encoder;
+
+  /** Format in which the frames are saved; this must be either PNG or GIF. */
+  private final FractalPanel.SaveFormat format;
+
+  /** File name, without an extension, to which the animation is saved. */
+  private final String output;
+
+  /** Time, in milliseconds, each frame of an animated GIF is displayed. */
+  private final int delay;
+
+  /** Writes the frames of an animated GIF; null until the first frame is encoded or when saving PNG images. */
+  private ImageWriter gifWriter;
+
+  /** Stream to which the animated GIF is written; null until the first frame is encoded or when saving PNG images. */
+  private ImageOutputStream gifStream;
+
+  /**
+   * Create a new instance which saves its frames in the given format.
+   *
+   * @param numThreads Number of threads used to compute the frames.
+   * @param saveFormat Format in which the frames are saved; this must be either PNG or GIF.
+   * @param fileName File name, without an extension, to which the animation is saved. PNG frames are numbered.
+   * @param frameDelay Time, in milliseconds, each frame of an animated GIF is displayed.
+   */
+  public ZoomSequence(int numThreads, FractalPanel.SaveFormat saveFormat, String fileName, int frameDelay) {
+    if ((saveFormat != FractalPanel.SaveFormat.PNG) && (saveFormat != FractalPanel.SaveFormat.GIF)) {
+      throw new IllegalArgumentException("Animations can only be saved as PNG or GIF, not " + saveFormat);
+    }
+    renderer = new BatchRenderer(numThreads);
+    encoder = Executors.newSingleThreadExecutor();
+    format = saveFormat;
+    output = fileName;
+    delay = frameDelay;
+  }
+
+  /**
+   * Compute the view shown by one frame of the animation. The width of the view shrinks (or grows) by the same factor
+   * from one frame to the next, so the zoom appears to proceed at a constant speed. The centre of the view moves in
+   * proportion to the change in width, so the destination view stays fixed on the screen as it is approached.
+   *
+   * @param from View shown by the first frame.
+   * @param to View shown by the last frame.
+   * @param frame Index of the frame whose view is needed.
+   * @param numFrames Number of frames in the animation.
+   * @return Settings of the fractal shown by the frame.
+   */
+  public static RenderRequest frameView(RenderRequest from, RenderRequest to, int frame, int numFrames) {
+    if (numFrames == 1) {
+      return from;
+    }
+    double t = frame / (double) (numFrames - 1);
+    double fromWidth = from.getEndX() - from.getStartX();
+    double toWidth = to.getEndX() - to.getStartX();
+    double fromHeight = from.getEndY() - from.getStartY();
+    double toHeight = to.getEndY() - to.getStartY();
+    double width = fromWidth * Math.pow(toWidth / fromWidth, t);
+    double height = fromHeight * Math.pow(toHeight / fromHeight, t);
+    double progress = (fromWidth == toWidth) ? t : ((fromWidth - width) / (fromWidth - toWidth));
+    double centerX = ((from.getStartX() + from.getEndX()) / 2) +
+                     ((((to.getStartX() + to.getEndX()) - (from.getStartX() + from.getEndX())) / 2) * progress);
+    double centerY = ((from.getStartY() + from.getEndY()) / 2) +
+                     ((((to.getStartY() + to.getEndY()) - (from.getStartY() + from.getEndY())) / 2) * progress);
+    return from.withBounds(centerX - (width / 2), centerY - (height / 2), centerX + (width / 2),
+                           centerY + (height / 2));
+  }
+
+  /**
+   * Render and save every frame of the animation.
+   *
+   * @param from View shown by the first frame; this also sets the size and limits of every frame.
+   * @param to View shown by the last frame.
+   * @param numFrames Number of frames in the animation.
+   * @param colors Color model used to color the frames.
+   * @return Fraction of the pixels, over every frame, whose escape times were reused from the previous frame.
+   * @throws IOException Thrown if a frame could not be saved.
+   * @throws ExecutionException Thrown if a frame could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for a frame.
+   */
+  public double render(RenderRequest from, RenderRequest to, int numFrames, final IndexColorModel colors)
+      throws IOException, ExecutionException, InterruptedException {
+    int rows = from.getRows();
+    int columns = from.getColumns();
+    boolean offHeap = ((long) rows * columns) >= ComputePool.OFF_HEAP_PIXELS;
+    // Alternate between two images so that one frame can be colored while the other is encoded.
+    FractalRaster[] rasters = { FractalRaster.create(rows, columns, colors),
+                                FractalRaster.create(rows, columns, colors) };
+    RenderRequest previous = null;
+    EscapeBuffer previousEscapes = null;
+    Future<?> encoding = null;
+    long reused = 0;
+    try {
+      for (int frame = 0; frame < numFrames; frame++ ) {
+        RenderRequest view = frameView(from, to, frame, numFrames);
+        EscapeBuffer escapes = EscapeBuffer.create(rows, columns, view.getMaxIterations(), offHeap);
+        BitSet known = null;
+        if (previous != null) {
+          known = copySharedPixels(previous, previousEscapes, view, escapes);
+          reused += known.cardinality();
+        }
+        final FractalRaster raster = rasters[frame % 2];
+        renderer.compute(view, raster, escapes, known);
+        if (encoding != null) {
+          encoding.get();
+        }
+        if (previousEscapes != null) {
+          previousEscapes.release();
+        }
+        previous = view;
+        previousEscapes = escapes;
+        // Keep the escape times available to the encoder, even once the next frame no longer needs them.
+        escapes.tryRetain();
+        final EscapeBuffer frameEscapes = escapes;
+        final int frameNumber = frame;
+        final int limit = view.getMaxIterations();
+        encoding = encoder.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            try {
+              encodeFrame(frameNumber, raster, frameEscapes, limit, colors);
+            } finally {
+              frameEscapes.release();
+            }
+            return null;
+          }
+        });
+      }
+      if (encoding != null) {
+        encoding.get();
+      }
+      finishGif();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    } finally {
+      if (previousEscapes != null) {
+        previousEscapes.release();
+      }
+      if (gifStream != null) {
+        gifStream.close();
+      }
+    }
+    return reused / ((double) rows * columns * numFrames);
+  }
+
+  /**
+   * Copy into the new frame the escape times of every pixel which samples the same point as a pixel of the previous
+   * frame. A pixel can only be copied when both its row and its column line up with those of the previous frame.
+   *
+   * @param previous Settings of the previous frame.
+   * @param previousEscapes Escape times of the previous frame.
+   * @param next Settings of the new frame; this must use the same size and limits as the previous frame.
+   * @param escapes Buffer into which the escape times of the new frame are written.
+   * @return Pixels, indexed by their position in the buffer, whose escape times were copied.
+   */
+  private static BitSet copySharedPixels(RenderRequest previous, EscapeBuffer previousEscapes, RenderRequest next,
+                                         EscapeBuffer escapes) {
+    int[] rowMap = alignSamples(previous.getStartX(), previous.getEndX(), previous.getRows(), next.getStartX(),
+                                next.getEndX(), next.getRows());
+    int[] columnMap = alignSamples(previous.getStartY(), previous.getEndY(), previous.getColumns(), next.getStartY(),
+                                   next.getEndY(), next.getColumns());
+    BitSet known = new BitSet(escapes.getRows() * escapes.getColumns());
+    for (int row = 0; row < rowMap.length; row++ ) {
+      if (rowMap[row] >= 0) {
+        for (int col = 0; col < columnMap.length; col++ ) {
+          if (columnMap[col] >= 0) {
+            int idx = escapes.index(row, col);
+            escapes.set(idx, previousEscapes.get(previousEscapes.index(rowMap[row], columnMap[col])));
+            known.set(idx);
+          }
+        }
+      }
+    }
+    return known;
+  }
+
+  /**
+   * Match the sample points along one axis of a new frame with those of the previous frame.
+   *
+   * @param oldStart Coordinate of the previous frame's first sample.
+   * @param oldEnd Coordinate of the previous frame's last sample.
+   * @param oldCount Number of samples along the axis in the previous frame.
+   * @param newStart Coordinate of the new frame's first sample.
+   * @param newEnd Coordinate of the new frame's last sample.
+   * @param newCount Number of samples along the axis in the new frame.
+   * @return For each sample of the new frame, the index of the previous frame's sample at the same point or -1 if there
+   *         is no such sample.
+   */
+  private static int[] alignSamples(double oldStart, double oldEnd, int oldCount, double newStart, double newEnd,
+                                    int newCount) {
+    double oldStep = (oldEnd - oldStart) / (oldCount - 1);
+    double newStep = (newEnd - newStart) / (newCount - 1);
+    int[] retVal = new int[newCount];
+    for (int i = 0; i < newCount; i++ ) {
+      double position = ((newStart + (newStep * i)) - oldStart) / oldStep;
+      long nearest = Math.round(position);
+      retVal[i] = ((nearest >= 0) && (nearest < oldCount) && (Math.abs(position - nearest) <= SAME_POINT)) ?
+                                                                                                (int) nearest : -1;
+    }
+    return retVal;
+  }
+
+  /**
+   * Save one frame of the animation.
+   *
+   * @param frame Index of the frame being saved.
+   * @param raster Image holding the colored frame.
+   * @param escapes Escape times of the frame.
+   * @param limit Iteration limit used when calculating the escape times.
+   * @param colors Color model used to color the frame.
+   * @throws IOException Thrown if the frame could not be saved.
+   */
+  private void encodeFrame(int frame, FractalRaster raster, EscapeBuffer escapes, int limit, IndexColorModel colors)
+      throws IOException {
+    int width = escapes.getRows();
+    int height = escapes.getColumns();
+    if (format == FractalPanel.SaveFormat.PNG) {
+      File file = new File(String.format("%s-%05d.png", output, frame));
+      try (PngStreamWriter png = new PngStreamWriter(new FileOutputStream(file), width, height)) {
+        png.writeLines(raster.getPixels(), 0, raster.getScanline(), height);
+      }
+      return;
+    }
+    // GIF images hold palette indices, so build those directly from the escape times rather than the colored image.
+    byte[] indices = new byte[width * height];
+    for (int row = 0; row < width; row++ ) {
+      int idx = escapes.index(row, 0);
+      for (int col = 0; col < height; col++, idx++ ) {
+        indices[(col * width) + row] = (byte) FractalRaster.paletteIndex(escapes.get(idx), limit, colors.getMapSize());
+      }
+    }
+    WritableRaster pixels = Raster.createInterleavedRaster(new DataBufferByte(indices, indices.length), width, height,
+                                                           width, 1, new int[] { 0 }, null);
+    BufferedImage image = new BufferedImage(colors, pixels, false, null);
+    if (gifWriter == null) {
+      gifWriter = ImageIO.getImageWritersBySuffix("gif").next();
+      gifStream = ImageIO.createImageOutputStream(new File(output + ".gif"));
+      gifWriter.setOutput(gifStream);
+      gifWriter.prepareWriteSequence(null);
+    }
+    gifWriter.writeToSequence(new IIOImage(image, null, gifFrameMetadata(image, frame == 0)), null);
+  }
+
+  /**
+   * Create the metadata describing one frame of the animated GIF.
+   *
+   * @param image Image holding the frame.
+   * @param first True if this is the first frame, which also tells viewers to loop the animation.
+   * @return Metadata setting how long the frame is shown.
+   * @throws IOException Thrown if the metadata could not be created.
+   */
+  private IIOMetadata gifFrameMetadata(BufferedImage image, boolean first) throws IOException {
+    IIOMetadata metadata = gifWriter.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+    String formatName = metadata.getNativeMetadataFormatName();
+    IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+    IIOMetadataNode control = childNode(root, "GraphicControlExtension");
+    control.setAttribute("disposalMethod", "none");
+    control.setAttribute("userInputFlag", "FALSE");
+    control.setAttribute("transparentColorFlag", "FALSE");
+    control.setAttribute("delayTime", Integer.toString(delay / 10));
+    control.setAttribute("transparentColorIndex", "0");
+    if (first) {
+      IIOMetadataNode extensions = childNode(root, "ApplicationExtensions");
+      IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+      loop.setAttribute("applicationID", "NETSCAPE");
+      loop.setAttribute("authenticationCode", "2.0");
+      // Loop forever.
+      loop.setUserObject(new byte[] { 1, 0, 0 });
+      extensions.appendChild(loop);
+    }
+    metadata.setFromTree(formatName, root);
+    return metadata;
+  }
+
+  /**
+   * Find the child of a metadata node with the given name, adding the child if it does not already exist.
+   *
+   * @param parent Node whose child is needed.
+   * @param name Name of the child.
+   * @return Child of the node with the given name.
+   */
+  private static IIOMetadataNode childNode(IIOMetadataNode parent, String name) {
+    for (int i = 0; i < parent.getLength(); i++ ) {
+      if (parent.item(i).getNodeName().equals(name)) {
+        return (IIOMetadataNode) parent.item(i);
+      }
+    }
+    IIOMetadataNode retVal = new IIOMetadataNode(name);
+    parent.appendChild(retVal);
+    return retVal;
+  }
+
+  /**
+   * Finish writing the animated GIF, if one is being written.
+   *
+   * @throws IOException Thrown if the end of the file could not be written.
+   */
+  private void finishGif() throws IOException {
+    if (gifWriter != null) {
+      gifWriter.endWriteSequence();
+      gifWriter.dispose();
+    }
+  }
+
+  /** Stop the threads used by this instance. */
+  public void shutdown() {
+    renderer.shutdown();
+    encoder.shutdown();
+  }
+
+  /**
+   * Parse a view given as four comma-separated coordinates.
+   *
+   * @param base Request whose formula, size, and limits are used.
+   * @param bounds Coordinates of the view, as "startX,startY,endX,endY".
+   * @return Request for the given view.
+   */
+  private static RenderRequest parseView(RenderRequest base, String bounds) {
+    String[] coords = bounds.split(",");
+    if (coords.length != 4) {
+      throw new IllegalArgumentException("Views must be given as x0,y0,x1,y1, not " + bounds);
+    }
+    return base.withBounds(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]),
+                           Double.parseDouble(coords[2]), Double.parseDouble(coords[3]));
+  }
+
+  /**
+   * Main method to render an animation without a display.
+   *
+   * @param args Options describing the animation.
+   */
+  public static void main(String[] args) {
+    // Never try to connect to a display, even if one happens to be available.
+    System.setProperty("java.awt.headless", "true");
+    String formula = "Mandelbrot";
+    String fromBounds = null;
+    String toBounds = null;
+    int frames = 60;
+    int rows = 640;
+    int columns = 480;
+    int iterations = RenderRequest.DEFAULT_MAX_ITERATIONS;
+    int escape = RenderRequest.DEFAULT_ESCAPE_VALUE;
+    String palette = "Rainbow";
+    FractalPanel.SaveFormat format = FractalPanel.SaveFormat.PNG;
+    int delay = 40;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    String output = null;
+    ZoomSequence sequence = null;
+    try {
+      for (String arg : args) {
+        int split = arg.indexOf('=');
+        if (!arg.startsWith("--") || (split < 0)) {
+          throw new IllegalArgumentException("Options must look like --name=value, not " + arg);
+        }
+        String value = arg.substring(split + 1);
+        switch (arg.substring(2, split)) {
+          case "formula":
+            formula = value;
+            break;
+          case "from":
+            fromBounds = value;
+            break;
+          case "to":
+            toBounds = value;
+            break;
+          case "frames":
+            frames = Integer.parseInt(value);
+            break;
+          case "size":
+            String[] dims = value.toLowerCase().split("x");
+            rows = Integer.parseInt(dims[0]);
+            columns = Integer.parseInt(dims[1]);
+            break;
+          case "iterations":
+            iterations = Integer.parseInt(value);
+            break;
+          case "escape":
+            escape = Integer.parseInt(value);
+            break;
+          case "palette":
+            palette = value;
+            break;
+          case "format":
+            format = FractalPanel.SaveFormat.valueOf(value.toUpperCase());
+            break;
+          case "delay":
+            delay = Integer.parseInt(value);
+            break;
+          case "threads":
+            numThreads = Integer.parseInt(value);
+            break;
+          case "output":
+            output = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+      }
+      if ((output == null) || (toBounds == null) || (frames < 1)) {
+        throw new IllegalArgumentException("Usage: ZoomSequence --to=x0,y0,x1,y1 --output=name [--from=x0,y0,x1,y1] " +
+                                           "[--frames=n] [--formula=Mandelbrot] [--size=WxH] [--iterations=n] " +
+                                           "[--escape=n] [--palette=Rainbow] [--format=PNG|GIF] [--delay=ms] " +
+                                           "[--threads=n]");
+      }
+      RenderRequest base = RenderRequest.defaultView(FractalOption.register(formula), rows, columns, iterations,
+                                                     escape);
+      RenderRequest from = (fromBounds == null) ? base : parseView(base, fromBounds);
+      RenderRequest to = parseView(base, toBounds);
+      sequence = new ZoomSequence(numThreads, format, output, delay);
+      double reused = sequence.render(from, to, frames, BatchRenderer.createColorModel(palette, iterations));
+      System.out.printf("Rendered %d frames, reusing %.1f%% of the pixels%n", frames, 100 * reused);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      System.err.println("ERROR: " + e.getMessage());
+      System.exit(1);
+    } catch (IOException | ExecutionException | InterruptedException e) {
+      System.err.println("ERROR: Could not output the animation");
+      e.printStackTrace();
+      System.exit(1);
+    } finally {
+      if (sequence != null) {
+        sequence.shutdown();
+      }
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package edu.buffalo.fractal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs a {@link FarmCoordinator} against several {@link FarmWorker}s on localhost and checks that the fractal they
+ * compute together matches the one computed locally, even when a worker cannot be reached.
+ *
+ * @author Matthew Hertz
+ */
+public class FarmTest {
+
+  /** Number of workers started for each test. */
+  private static final int NUM_WORKERS = 3;
+
+  /** Seconds a worker may take to answer before it is treated as lost. */
+  private static final int TIMEOUT_SECONDS = 30;
+
+  /**
+   * Largest fraction of pixels allowed to differ from the local render. Each worker recomputes its tile's coordinates
+   * from the tile's own bounds, so a few pixels on the edge of the set round differently; a lost or misplaced tile
+   * would change far more.
+   */
+  private static final double MAX_MISMATCH = 1e-4;
+
+  /** Workers started for the current test. */
+  private List<FarmWorker> workers;
+
+  /** Addresses of the workers started for the current test. */
+  private List<InetSocketAddress> addresses;
+
+  /**
+   * Start the workers, each on any free port and serving on its own thread.
+   *
+   * @throws IOException Thrown if a worker could not be started.
+   */
+  @BeforeEach
+  public void startWorkers() throws IOException {
+    workers = new ArrayList<>();
+    addresses = new ArrayList<>();
+    for (int i = 0; i < NUM_WORKERS; i++ ) {
+      final FarmWorker worker = new FarmWorker(0, 1);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          worker.serve();
+        }
+      }, "Test worker " + i);
+      thread.setDaemon(true);
+      thread.start();
+      workers.add(worker);
+      addresses.add(new InetSocketAddress("localhost", worker.getPort()));
+    }
+  }
+
+  /**
+   * Stop every worker.
+   *
+   * @throws IOException Thrown if a worker could not be stopped.
+   */
+  @AfterEach
+  public void stopWorkers() throws IOException {
+    for (FarmWorker worker : workers) {
+      worker.shutdown();
+    }
+  }
+
+  /**
+   * Render the fractal using the farm and check that its escape times match those computed locally, apart from pixels
+   * whose coordinates round differently.
+   *
+   * @param coordinator Coordinator distributing the tiles.
+   * @param request Settings of the fractal.
+   * @throws Exception Thrown if either fractal could not be computed.
+   */
+  private static void assertMatchesLocalRender(FarmCoordinator coordinator, RenderRequest request) throws Exception {
+    BatchRenderer renderer = new BatchRenderer(1);
+    EscapeBuffer expected = renderer.compute(request, null);
+    EscapeBuffer actual = coordinator.render(request);
+    try {
+      long mismatches = 0;
+      for (int row = 0; row < request.getRows(); row++ ) {
+        for (int col = 0; col < request.getColumns(); col++ ) {
+          if (expected.get(expected.index(row, col)) != actual.get(actual.index(row, col))) {
+            mismatches++;
+          }
+        }
+      }
+      assertTrue(mismatches <= (MAX_MISMATCH * request.getRows() * request.getColumns()),
+                 mismatches + " pixels differ from the local render");
+    } finally {
+      expected.release();
+      actual.release();
+      renderer.shutdown();
+    }
+  }
+
+  /**
+   * @param coordinator Coordinator which has finished a render.
+   * @return Total number of tiles computed by its workers
+   */
+  private static int totalTiles(FarmCoordinator coordinator) {
+    int retVal = 0;
+    for (int i = 0; i < coordinator.getWorkers().size(); i++ ) {
+      retVal += coordinator.getTilesComputed(i);
+    }
+    return retVal;
+  }
+
+  /**
+   * Every tile is computed exactly once, shared among the workers, and the result matches a local render.
+   *
+   * @throws Exception Thrown if the fractal could not be computed.
+   */
+  @Test
+  public void workersShareTheFractal() throws Exception {
+    RenderRequest request = RenderRequest.defaultView(FractalOption.Mandelbrot, 1300, 1100, 300,
+                                                      RenderRequest.DEFAULT_ESCAPE_VALUE);
+    FarmCoordinator coordinator = new FarmCoordinator(addresses, TIMEOUT_SECONDS);
+    assertMatchesLocalRender(coordinator, request);
+    assertEquals(FarmCoordinator.partition(request.getRows(), request.getColumns()).length, totalTiles(coordinator));
+    int busyWorkers = 0;
+    for (int i = 0; i < NUM_WORKERS; i++ ) {
+      assertFalse(coordinator.wasLost(i));
+      if (coordinator.getTilesComputed(i) > 0) {
+        busyWorkers++;
+      }
+    }
+    assertTrue(busyWorkers > 1, "Only one worker computed tiles");
+  }
+
+  /**
+   * A worker which cannot be reached is treated as lost and the others compute the entire fractal.
+   *
+   * @throws Exception Thrown if the fractal could not be computed.
+   */
+  @Test
+  public void survivesAnUnreachableWorker() throws Exception {
+    workers.get(0).shutdown();
+    RenderRequest request = RenderRequest.defaultView(FractalOption.JuliaSet, 1024, 600, 300,
+                                                      RenderRequest.DEFAULT_ESCAPE_VALUE);
+    FarmCoordinator coordinator = new FarmCoordinator(addresses, TIMEOUT_SECONDS);
+    assertMatchesLocalRender(coordinator, request);
+    assertTrue(coordinator.wasLost(0));
+    assertEquals(0, coordinator.getTilesComputed(0));
+    assertEquals(FarmCoordinator.partition(request.getRows(), request.getColumns()).length, totalTiles(coordinator));
+  }
+}
@@ -0,0 +1,228 @@
+package edu.buffalo.fractal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that formulas compiled by {@link FormulaCompiler} calculate the same steps as the equivalent hand-written
+ * arithmetic, that invalid or oversized formulas are rejected, and that formulas are only compiled when registered.
+ *
+ * @author Matthew Hertz
+ */
+public class FormulaCompilerTest {
+
+  /** Points, as {x, y, x0, y0}, at which each kernel is compared with the expected arithmetic. */
+  private static final double[][] POINTS = { { 0, 0, 0, 0 }, { 0.5, -0.25, -0.75, 0.1 }, { -1.3, 0.7, 0.26, -0.5 },
+                                             { 2.5, 1.5, -2, 2 }, { -0.001, 3, 1e-3, -1e-3 } };
+
+  /** Largest relative difference allowed between a kernel's step and the expected arithmetic. */
+  private static final double TOLERANCE = 1e-12;
+
+  /**
+   * Hand-written calculation of one step of a formula.
+   */
+  private interface Step {
+    /**
+     * Calculate the next point of the orbit.
+     *
+     * @param x Real part of the current point.
+     * @param y Imaginary part of the current point.
+     * @param x0 Real part of the point being calculated.
+     * @param y0 Imaginary part of the point being calculated.
+     * @return Real and imaginary parts of the next point.
+     */
+    double[] next(double x, double y, double x0, double y0);
+  }
+
+  /**
+   * Check that the compiled formula calculates the same step as the given arithmetic at every test point.
+   *
+   * @param formula Formula to be compiled.
+   * @param expected Hand-written calculation of the formula's step.
+   */
+  private static void assertCompilesTo(String formula, Step expected) {
+    FormulaKernel kernel = FormulaCompiler.compile(formula);
+    for (double[] p : POINTS) {
+      double[] next = expected.next(p[0], p[1], p[2], p[3]);
+      assertClose(next[0], kernel.nextX(p[0], p[1], p[2], p[3]), formula);
+      assertClose(next[1], kernel.nextY(p[0], p[1], p[2], p[3]), formula);
+    }
+  }
+
+  /**
+   * Check that a value calculated by a kernel is within the tolerance of the expected value.
+   *
+   * @param expected Value calculated by the hand-written arithmetic.
+   * @param actual Value calculated by the kernel.
+   * @param formula Formula which was compiled, reported if the values differ.
+   */
+  private static void assertClose(double expected, double actual, String formula) {
+    assertEquals(expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)), formula);
+  }
+
+  /**
+   * Check that compiling the formula throws an {@link IllegalArgumentException}.
+   *
+   * @param formula Formula which should be rejected.
+   */
+  private static void assertRejected(final String formula) {
+    assertThrows(IllegalArgumentException.class, new Executable() {
+      @Override
+      public void execute() {
+        FormulaCompiler.compile(formula);
+      }
+    }, formula);
+  }
+
+  /** The Mandelbrot set's formula squares z and adds c. */
+  @Test
+  public void compilesMandelbrot() {
+    assertCompilesTo("z^2+c", new Step() {
+      @Override
+      public double[] next(double x, double y, double x0, double y0) {
+        return new double[] { ((x * x) - (y * y)) + x0, (2 * x * y) + y0 };
+      }
+    });
+  }
+
+  /** Higher powers are calculated by repeated squaring and must still match repeated multiplication. */
+  @Test
+  public void compilesPowers() {
+    assertCompilesTo("z^7 - c", new Step() {
+      @Override
+      public double[] next(double x, double y, double x0, double y0) {
+        double re = x;
+        double im = y;
+        for (int i = 1; i < 7; i++ ) {
+          double nextRe = (re * x) - (im * y);
+          im = (re * y) + (im * x);
+          re = nextRe;
+        }
+        return new double[] { re - x0, im - y0 };
+      }
+    });
+  }
+
+  /** Each function applies to the real and imaginary parts as documented. */
+  @Test
+  public void compilesFunctions() {
+    assertCompilesTo("abs(z)^2+c", new Step() {
+      @Override
+      public double[] next(double x, double y, double x0, double y0) {
+        double ax = Math.abs(x);
+        double ay = Math.abs(y);
+        return new double[] { ((ax * ax) - (ay * ay)) + x0, (2 * ax * ay) + y0 };
+      }
+    });
+    assertCompilesTo("conj(z)*z + re(c) - im(c)*i", new Step() {
+      @Override
+      public double[] next(double x, double y, double x0, double y0) {
+        return new double[] { ((x * x) + (y * y)) + x0, -y0 };
+      }
+    });
+  }
+
+  /** Constants, the imaginary unit, negation, and parentheses follow the usual rules of complex arithmetic. */
+  @Test
+  public void compilesConstantsAndNegation() {
+    assertCompilesTo("-(z*(0.5+2*i)) + 1.25 - -c", new Step() {
+      @Override
+      public double[] next(double x, double y, double x0, double y0) {
+        return new double[] { -((x * 0.5) - (y * 2)) + 1.25 + x0, -((x * 2) + (y * 0.5)) + y0 };
+      }
+    });
+  }
+
+  /** Formulas differing only in spacing and case share a name. */
+  @Test
+  public void normalizesSpacingAndCase() {
+    assertEquals("abs(z)^3+c", FormulaCompiler.normalize(" ABS( Z ) ^ 3 + c\t"));
+  }
+
+  /**
+   * Invalid formulas are reported as illegal arguments rather than compiled.
+   *
+   * @param formula Invalid formula.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = { "", "z^", "z^2.5", "z^65", "(z+c", "z+c)", "sin(z)", "z**2", "1.2.3", "z c" })
+  public void rejectsInvalidFormulas(String formula) {
+    assertRejected(formula);
+  }
+
+  /** Formulas which are too long or too deeply nested are rejected before they can exhaust the parser's stack. */
+  @Test
+  public void rejectsOversizedFormulas() {
+    StringBuilder longFormula = new StringBuilder("c");
+    while (longFormula.length() <= 256) {
+      longFormula.append("+z");
+    }
+    assertRejected(longFormula.toString());
+    StringBuilder deepFormula = new StringBuilder();
+    for (int i = 0; i < 40; i++ ) {
+      deepFormula.append('-');
+    }
+    deepFormula.append('z');
+    assertRejected(deepFormula.toString());
+    String nested = "((((((((((((((((((((((((((((((((((z))))))))))))))))))))))))))))))))))";
+    assertRejected(nested);
+  }
+
+  /** Looking a formula up never compiles it; only registering it does, and it is then found by either name. */
+  @Test
+  public void onlyRegisteredFormulasAreFound() {
+    assertThrows(IllegalArgumentException.class, new Executable() {
+      @Override
+      public void execute() {
+        FractalOption.valueOf("z^5+c*c");
+      }
+    });
+    FractalOption registered = FractalOption.register("Z^5 + c*c");
+    assertTrue(registered.isCustom());
+    assertSame(registered, FractalOption.valueOf("z^5+c*c"));
+    assertSame(registered, FractalOption.register("z^5+c*c"));
+    assertSame(FractalOption.Mandelbrot, FractalOption.register("Mandelbrot"));
+    assertFalse(FractalOption.Mandelbrot.isCustom());
+  }
+
+  /**
+   * A compiled formula generates the same escape times as the built-in kernel for the same formula.
+   *
+   * @throws Exception Thrown if either fractal could not be computed.
+   */
+  @Test
+  public void compiledKernelMatchesBuiltIn() throws Exception {
+    RenderRequest builtIn = RenderRequest.defaultView(FractalOption.Mandelbrot, 96, 96, 200,
+                                                      RenderRequest.DEFAULT_ESCAPE_VALUE);
+    RenderRequest compiled = RenderRequest.defaultView(FractalOption.register("z^2+c"), 96, 96, 200,
+                                                       RenderRequest.DEFAULT_ESCAPE_VALUE)
+                                          .withBounds(builtIn.getStartX(), builtIn.getStartY(), builtIn.getEndX(),
+                                                      builtIn.getEndY());
+    BatchRenderer renderer = new BatchRenderer(1);
+    try {
+      EscapeBuffer expected = renderer.compute(builtIn, null);
+      EscapeBuffer actual = renderer.compute(compiled, null);
+      try {
+        for (int row = 0; row < 96; row++ ) {
+          for (int col = 0; col < 96; col++ ) {
+            assertEquals(expected.get(expected.index(row, col)), actual.get(actual.index(row, col)),
+                         "Escape time at " + row + "," + col);
+          }
+        }
+      } finally {
+        expected.release();
+        actual.release();
+      }
+    } finally {
+      renderer.shutdown();
+    }
+  }
+}
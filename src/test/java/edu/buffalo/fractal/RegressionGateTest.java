@@ -0,0 +1,267 @@
+package edu.buffalo.fractal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Checks that changes to the kernels neither change the fractals they generate nor slow them down. The default view of
+ * every formula is rendered using fixed settings and its escape times are compared against the reference
+ * {@link EscapeMap}s in <code>src/test/golden</code>; its throughput is compared against the baseline recorded in the
+ * same directory. After a change which is meant to alter the fractals, or on a machine with a different speed, record
+ * new references with:
+ *
+ * <pre>
+ * mvn test -Dtest=RegressionGateTest -Dgolden.record=true
+ * </pre>
+ *
+ * Tolerances are read from the baseline file, so an engine which changes the arithmetic (and so cannot reproduce the
+ * references exactly) can be given looser rules by editing <code>engine.&lt;name&gt;.maxMismatch</code> (the fraction
+ * of pixels allowed to differ) and <code>engine.&lt;name&gt;.maxDelta</code> (the largest allowed difference in a
+ * pixel's escape time). <code>throughput.maxDrop</code> is the largest allowed drop in throughput, as a fraction of
+ * the baseline.
+ *
+ * @author Matthew Hertz
+ */
+public class RegressionGateTest {
+
+  /** Directory holding the reference escape times and the baseline. */
+  private static final File GOLDEN_DIRECTORY = new File("src/test/golden");
+
+  /** Name of the file, within the reference directory, holding the baseline throughput and tolerances. */
+  private static final String BASELINE_FILE = "baseline.properties";
+
+  /** Name of the engine whose results are checked: the double-precision kernels in {@link ComputeFractal}. */
+  private static final String ENGINE = "kernel";
+
+  /** Largest drop in throughput allowed when the baseline does not give one. */
+  private static final String DEFAULT_MAX_DROP = "0.25";
+
+  /** Number of pixels along each side of the fractals rendered. */
+  private static final int SIZE = 256;
+
+  /** Iteration limit of the fractals rendered. */
+  private static final int MAX_ITERATIONS = 500;
+
+  /** Number of untimed renders of every formula performed before any throughput is measured. */
+  private static final int WARMUP_RUNS = 3;
+
+  /** Number of timed renders of each formula; the median is used as its throughput. */
+  private static final int TIMED_RUNS = 7;
+
+  /** Renderer which computes the fractals. */
+  private static BatchRenderer renderer;
+
+  /** Throughput of each formula, in millions of pixels per second; null until it has been measured. */
+  private static Map<FractalOption, Double> throughputs;
+
+  /** Create the renderer shared by every test. */
+  @BeforeAll
+  public static void createRenderer() {
+    renderer = new BatchRenderer(Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Stop the renderer's threads. */
+  @AfterAll
+  public static void shutdownRenderer() {
+    renderer.shutdown();
+  }
+
+  /**
+   * @return the formulas which are checked
+   */
+  static FractalOption[] formulas() {
+    return FractalOption.values();
+  }
+
+  /**
+   * @return true if the references should be recorded rather than checked
+   */
+  private static boolean recording() {
+    return Boolean.getBoolean("golden.record");
+  }
+
+  /**
+   * Return the request for the fixed view of the given formula which is checked.
+   *
+   * @param formula Formula being checked.
+   * @return Settings of the fractal rendered for the formula.
+   */
+  private static RenderRequest stockView(FractalOption formula) {
+    return RenderRequest.defaultView(formula, SIZE, SIZE, MAX_ITERATIONS, RenderRequest.DEFAULT_ESCAPE_VALUE);
+  }
+
+  /**
+   * @param formula Formula whose reference escape times are wanted.
+   * @return File holding the formula's reference escape times
+   */
+  private static File referenceFile(FractalOption formula) {
+    return new File(GOLDEN_DIRECTORY, formula.name() + ".fesc");
+  }
+
+  /**
+   * Measure how quickly each formula is rendered. Every formula is warmed up before any is timed, so each is measured
+   * running the same compiled code however the tests happen to be ordered. The measurements are only taken once.
+   *
+   * @return Median throughput of each formula, in millions of pixels per second.
+   * @throws ExecutionException Thrown if a fractal could not be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting for a fractal.
+   */
+  private static synchronized Map<FractalOption, Double> measureThroughputs()
+      throws ExecutionException, InterruptedException {
+    if (throughputs == null) {
+      for (int i = 0; i < WARMUP_RUNS; i++ ) {
+        for (FractalOption formula : formulas()) {
+          renderer.compute(stockView(formula), null).release();
+        }
+      }
+      Map<FractalOption, Double> measured = new HashMap<>();
+      for (FractalOption formula : formulas()) {
+        RenderRequest request = stockView(formula);
+        long[] times = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++ ) {
+          long start = System.nanoTime();
+          renderer.compute(request, null).release();
+          times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        measured.put(formula, ((double) request.getRows() * request.getColumns()) / (times[TIMED_RUNS / 2] / 1e3));
+      }
+      throughputs = measured;
+    }
+    return throughputs;
+  }
+
+  /**
+   * Read the baseline file, if it exists.
+   *
+   * @return Properties holding the baseline throughput and tolerances; empty if none have been recorded.
+   * @throws IOException Thrown if the baseline file exists but could not be read.
+   */
+  private static Properties loadBaseline() throws IOException {
+    Properties retVal = new Properties();
+    File file = new File(GOLDEN_DIRECTORY, BASELINE_FILE);
+    if (file.exists()) {
+      try (InputStream in = new FileInputStream(file)) {
+        retVal.load(in);
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Record the reference escape times and baseline throughput of every formula. This only runs when
+   * <code>golden.record</code> is set, in which case the checks are skipped.
+   *
+   * @throws Exception Thrown if the references could not be recorded.
+   */
+  @Test
+  public void record() throws Exception {
+    assumeTrue(recording());
+    if (!GOLDEN_DIRECTORY.isDirectory() && !GOLDEN_DIRECTORY.mkdirs()) {
+      throw new IOException("Could not create " + GOLDEN_DIRECTORY);
+    }
+    Properties baseline = loadBaseline();
+    for (FractalOption formula : formulas()) {
+      RenderRequest request = stockView(formula);
+      EscapeBuffer escapes = renderer.compute(request, null);
+      try {
+        EscapeMap.save(referenceFile(formula), request, escapes);
+      } finally {
+        escapes.release();
+      }
+    }
+    for (Map.Entry<FractalOption, Double> entry : measureThroughputs().entrySet()) {
+      baseline.setProperty("throughput." + entry.getKey().name(), Double.toString(entry.getValue()));
+    }
+    // Keep any tolerances which were already configured.
+    baseline.setProperty("engine." + ENGINE + ".maxMismatch", baseline.getProperty("engine." + ENGINE + ".maxMismatch",
+                                                                                    "0"));
+    baseline.setProperty("engine." + ENGINE + ".maxDelta", baseline.getProperty("engine." + ENGINE + ".maxDelta", "0"));
+    baseline.setProperty("throughput.maxDrop", baseline.getProperty("throughput.maxDrop", DEFAULT_MAX_DROP));
+    try (OutputStream out = new FileOutputStream(new File(GOLDEN_DIRECTORY, BASELINE_FILE))) {
+      baseline.store(out, "Baseline throughput (Mpixels/s) and tolerances used by RegressionGateTest");
+    }
+  }
+
+  /**
+   * Check that the formula still generates its reference escape times, within its engine's tolerances.
+   *
+   * @param formula Formula being checked.
+   * @throws Exception Thrown if the reference could not be read or the fractal could not be computed.
+   */
+  @ParameterizedTest
+  @MethodSource("formulas")
+  public void escapeTimesMatchReference(FractalOption formula) throws Exception {
+    assumeFalse(recording());
+    Properties baseline = loadBaseline();
+    double maxMismatch = Double.parseDouble(baseline.getProperty("engine." + ENGINE + ".maxMismatch", "0"));
+    int maxDelta = Integer.parseInt(baseline.getProperty("engine." + ENGINE + ".maxDelta", "0"));
+    RenderRequest request = stockView(formula);
+    try (EscapeMap map = EscapeMap.open(referenceFile(formula))) {
+      assertEquals(request, map.getRequest(), "Reference was recorded with different settings");
+      EscapeBuffer expected = map.load();
+      EscapeBuffer actual = renderer.compute(request, null);
+      long mismatches = 0;
+      int largestDelta = 0;
+      try {
+        for (int row = 0; row < request.getRows(); row++ ) {
+          for (int col = 0; col < request.getColumns(); col++ ) {
+            int delta = Math.abs(expected.get(expected.index(row, col)) - actual.get(actual.index(row, col)));
+            if (delta != 0) {
+              mismatches++;
+              largestDelta = Math.max(largestDelta, delta);
+            }
+          }
+        }
+      } finally {
+        expected.release();
+        actual.release();
+      }
+      double mismatchFraction = mismatches / ((double) request.getRows() * request.getColumns());
+      assertTrue((mismatchFraction <= maxMismatch) && (largestDelta <= maxDelta),
+                 mismatches + " pixels differ from the reference (largest by " + largestDelta + ")");
+    }
+  }
+
+  /**
+   * Check that the formula is rendered no more slowly than its baseline allows.
+   *
+   * @param formula Formula being checked.
+   * @throws Exception Thrown if the baseline could not be read or the fractal could not be computed.
+   */
+  @ParameterizedTest
+  @MethodSource("formulas")
+  public void throughputMeetsBaseline(FractalOption formula) throws Exception {
+    assumeFalse(recording());
+    Properties baseline = loadBaseline();
+    String recorded = baseline.getProperty("throughput." + formula.name());
+    assertNotNull(recorded, "No baseline throughput has been recorded");
+    double maxDrop = Double.parseDouble(baseline.getProperty("throughput.maxDrop", DEFAULT_MAX_DROP));
+    double expected = Double.parseDouble(recorded);
+    double throughput = measureThroughputs().get(formula);
+    assertTrue(throughput >= (expected * (1 - maxDrop)),
+               String.format("%.2f Mpixels/s is more than %.0f%% below the baseline of %.2f Mpixels/s", throughput,
+                             maxDrop * 100, expected));
+  }
+}
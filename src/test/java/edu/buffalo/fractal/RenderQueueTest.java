@@ -0,0 +1,173 @@
+package edu.buffalo.fractal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks how a {@link RenderQueue} divides its threads between jobs: interactive jobs pre-empt everything else, fair
+ * sharing divides the threads by the priorities' weights, strict priority finishes the more urgent job first, and
+ * cancelling a job frees its escape times. Each queue uses a single thread, so at most one tile is ever running and
+ * the order in which the queue chooses tiles is visible in the jobs' progress.
+ *
+ * @author Matthew Hertz
+ */
+public class RenderQueueTest {
+
+  /** Milliseconds to wait for a job to make progress before the test fails. */
+  private static final long TIMEOUT_MILLIS = 60000;
+
+  /** Queue being tested; shut down after each test. */
+  private RenderQueue queue;
+
+  /** Stop the queue's thread. */
+  @AfterEach
+  public void shutdownQueue() {
+    if (queue != null) {
+      queue.shutdown();
+    }
+  }
+
+  /**
+   * @param iterations Iteration limit of the fractal.
+   * @return Settings of a fractal whose tiles each take long enough that the order they are computed in is measurable
+   */
+  private static RenderRequest slowRequest(int iterations) {
+    return RenderRequest.defaultView(FractalOption.Mandelbrot, 400, 400, iterations,
+                                     RenderRequest.DEFAULT_ESCAPE_VALUE);
+  }
+
+  /**
+   * Wait until the job has computed at least the given number of tiles.
+   *
+   * @param job Job being waited on.
+   * @param tiles Number of tiles which must be computed.
+   * @throws InterruptedException Thrown if this thread is interrupted while waiting.
+   */
+  private static void waitForTiles(RenderJob job, int tiles) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (job.getCompletedTiles() < tiles) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + job);
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Compute a fractal to completion so the kernel is compiled before any timing matters.
+   *
+   * @throws Exception Thrown if the fractal could not be computed.
+   */
+  private void warmUp() throws Exception {
+    queue.submit(slowRequest(1000), RenderJob.Priority.NORMAL).get().release();
+  }
+
+  /**
+   * Once an interactive job is submitted, no other job starts a tile until it has finished.
+   *
+   * @throws Exception Thrown if a fractal could not be computed.
+   */
+  @Test
+  public void interactiveJobsPreemptOtherWork() throws Exception {
+    queue = new RenderQueue(1, RenderQueue.Policy.FAIR);
+    RenderJob background = queue.submit(slowRequest(2000), RenderJob.Priority.BACKGROUND);
+    RenderJob normal = queue.submit(slowRequest(2000), RenderJob.Priority.NORMAL);
+    waitForTiles(background, 1);
+    waitForTiles(normal, 1);
+    int backgroundBefore;
+    int normalBefore;
+    RenderJob interactive;
+    // Hold the queue still while submitting, so that only the tile already running can finish ahead of the new job.
+    synchronized (queue) {
+      backgroundBefore = background.getCompletedTiles();
+      normalBefore = normal.getCompletedTiles();
+      interactive = queue.submit(slowRequest(200), RenderJob.Priority.INTERACTIVE);
+    }
+    EscapeBuffer escapes = interactive.get();
+    int overtaken = (background.getCompletedTiles() - backgroundBefore) + (normal.getCompletedTiles() - normalBefore);
+    escapes.release();
+    assertTrue(overtaken <= 1, overtaken + " tiles of other jobs were computed before the interactive job finished");
+    assertFalse(background.isDone());
+    assertFalse(normal.isDone());
+  }
+
+  /**
+   * Sharing the threads fairly gives each job thread time in proportion to its priority's weight.
+   *
+   * @throws Exception Thrown if a fractal could not be computed.
+   */
+  @Test
+  public void fairSharingDividesThreadsByWeight() throws Exception {
+    queue = new RenderQueue(1, RenderQueue.Policy.FAIR);
+    warmUp();
+    RenderJob normal = queue.submit(slowRequest(2000), RenderJob.Priority.NORMAL);
+    RenderJob background = queue.submit(slowRequest(2000), RenderJob.Priority.BACKGROUND);
+    normal.get().release();
+    double ratio;
+    synchronized (queue) {
+      ratio = normal.computeNanos / (double) background.computeNanos;
+    }
+    double expected = RenderJob.Priority.NORMAL.getWeight() / (double) RenderJob.Priority.BACKGROUND.getWeight();
+    assertTrue((ratio > (expected / 2)) && (ratio < (expected * 2)),
+               "Jobs weighted " + expected + " to 1 received thread time in the ratio " + ratio + " to 1");
+  }
+
+  /**
+   * Strict priority computes the more urgent job before starting any tile of a less urgent one.
+   *
+   * @throws Exception Thrown if a fractal could not be computed.
+   */
+  @Test
+  public void priorityFinishesTheUrgentJobFirst() throws Exception {
+    queue = new RenderQueue(1, RenderQueue.Policy.PRIORITY);
+    RenderJob background;
+    RenderJob normal;
+    synchronized (queue) {
+      background = queue.submit(slowRequest(500), RenderJob.Priority.BACKGROUND);
+      normal = queue.submit(slowRequest(500), RenderJob.Priority.NORMAL);
+    }
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (true) {
+      // Check both jobs together, since the background job may start as soon as the last normal tile finishes.
+      synchronized (queue) {
+        if (normal.stopped) {
+          break;
+        }
+        assertEquals(0, background.completedTiles, "Background tiles were computed before the normal job finished");
+      }
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + normal);
+      Thread.sleep(1);
+    }
+    normal.get().release();
+    background.get().release();
+  }
+
+  /**
+   * Cancelling a job stops its remaining tiles and frees its escape times once the running tile finishes.
+   *
+   * @throws Exception Thrown if the fractal could not be computed.
+   */
+  @Test
+  public void cancelFreesTheBuffer() throws Exception {
+    queue = new RenderQueue(1, RenderQueue.Policy.FAIR);
+    RenderJob job = queue.submit(slowRequest(2000), RenderJob.Priority.NORMAL);
+    waitForTiles(job, 1);
+    EscapeBuffer escapes;
+    synchronized (queue) {
+      escapes = job.escapes;
+    }
+    assertTrue(job.cancel(false));
+    assertTrue(job.isCancelled());
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (queue.getActiveJobs() > 0) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the running tile to finish");
+      Thread.sleep(1);
+    }
+    assertNull(job.escapes);
+    assertFalse(escapes.tryRetain(), "The cancelled job's escape times were not freed");
+    assertTrue(job.getCompletedTiles() < job.getTotalTiles());
+  }
+}